@@ -0,0 +1,39 @@
+package com.revolut.command;
+
+import com.revolut.lock.Lock;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Command which can be executed in a batch with others. @see CommandExecutor::executeAll()
+ *
+ * In a batch the executor takes the locks of all the commands at once and prepare() is called instead of pre(). The
+ * command must neither take nor release these locks by itself
+ */
+public interface BatchCommand extends Command {
+    /**
+     * @return ids of the locks the command needs
+     */
+    Collection<UUID> getLockIds();
+
+    /**
+     * @return maximum time to wait for the locks, milliseconds
+     */
+    long getLockWaitingTime();
+
+    /**
+     * @return for how long to acquire the locks, milliseconds
+     */
+    long getLockAcquiringTime();
+
+    /**
+     * Initial checks, like pre(), with the locks already taken by the executor
+     *
+     * @param locks acquired locks by id, including the ones of other commands of the batch
+     *
+     * @throws Exception we don't catch any exception - the onFailure() method will be called for that
+     */
+    void prepare(Map<UUID, Lock> locks) throws Exception;
+}
@@ -0,0 +1,221 @@
+package com.revolut.command.executor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit of commands in flight, in front of a CommandExecutor.
+ *
+ * A command is admitted only while fewer than `limit` commands are in flight, the others are rejected right away
+ * instead of queueing on locks. The limit follows AIMD, like a TCP congestion window and driven by recent lock wait
+ * times: a command which has finished while they were within `targetLatency` grows the limit by 1/limit, one which has
+ * finished after a longer wait or has been dropped on a busy lock cuts it by BACKOFF_RATIO. Commands which have started before the last cut were admitted under the old limit and do not cut it
+ * again, so a single spike costs a single cut. The limit stays between `minLimit` and `maxLimit`
+ */
+public class AdmissionController {
+    /**
+     * Multiplicative decrease of the limit
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * Summary of the controller
+     */
+    public static final class Summary {
+        /**
+         * Current limit
+         */
+        final int limit;
+
+        /**
+         * Commands in flight
+         */
+        final int inFlight;
+
+        /**
+         * Number of admitted commands
+         */
+        final long admitted;
+
+        /**
+         * Number of rejected commands
+         */
+        final long rejected;
+
+        /**
+         * Number of times the limit has been cut
+         */
+        final long decreases;
+
+        /**
+         * @param controller admission controller
+         */
+        Summary(AdmissionController controller) {
+            this.limit = controller.getLimit();
+            this.inFlight = controller.getInFlight();
+            this.admitted = controller.getAdmitted();
+            this.rejected = controller.getRejected();
+            this.decreases = controller.getDecreases();
+        }
+    }
+
+    /**
+     * Minimum limit
+     */
+    private final int minLimit;
+
+    /**
+     * Maximum limit
+     */
+    private final int maxLimit;
+
+    /**
+     * Lock wait time above which a command is a sign of saturation, nanoseconds
+     */
+    private final long targetLatency;
+
+    /**
+     * Current limit, changed under the monitor
+     */
+    private volatile double limit;
+
+    /**
+     * When the limit has been cut last time, System.nanoTime(). Guarded by the monitor
+     */
+    private long lastDecreaseAt;
+
+    /**
+     * Number of times the limit has been cut. Guarded by the monitor
+     */
+    private long decreases;
+
+    /**
+     * Commands in flight
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Number of admitted commands
+     */
+    private final LongAdder admitted = new LongAdder();
+
+    /**
+     * Number of rejected commands
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param minLimit minimum limit, also the initial one
+     * @param maxLimit maximum limit
+     * @param targetLatency lock wait time above which a command is a sign of saturation, milliseconds
+     */
+    public AdmissionController(int minLimit, int maxLimit, long targetLatency) {
+        if ((minLimit < 1) || (maxLimit < minLimit)) throw new IllegalArgumentException("Wrong limits " + minLimit + ", " + maxLimit);
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatency = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+        this.limit = minLimit;
+    }
+
+    /**
+     * Admits a command if there is room for it. An admitted command must be passed to release() when finished
+     *
+     * @return true if admitted, false if rejected
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return false;
+            }
+
+            if (inFlight.compareAndSet(current, current + 1)) {
+                admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Finishes an admitted command and adjusts the limit
+     *
+     * @param startedAt when the command has been admitted, System.nanoTime()
+     * @param lockWaitTime recent time of waiting for a lock, nanoseconds
+     * @param isDropped true if the command has failed because of saturation, like a lock which could not be acquired
+     */
+    public void release(long startedAt, long lockWaitTime, boolean isDropped) {
+        int current = inFlight.getAndDecrement();
+        long now = System.nanoTime();
+
+        if (isDropped || (lockWaitTime > targetLatency)) {
+            decrease(startedAt, now);
+        } else if (current * 2 >= limit) {
+            // grow only if the limit is actually used
+            increase();
+        }
+    }
+
+    /**
+     * @param startedAt when the command has been admitted, System.nanoTime()
+     * @param now now, System.nanoTime()
+     */
+    private synchronized void decrease(long startedAt, long now) {
+        if ((decreases > 0) && (startedAt - lastDecreaseAt < 0)) return;
+
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        lastDecreaseAt = now;
+        decreases++;
+    }
+
+    /**
+     * Grows the limit by 1/limit, about by one per `limit` fast commands
+     */
+    private synchronized void increase() {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+
+    /**
+     * @return current limit
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return commands in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return number of admitted commands
+     */
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return number of rejected commands
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return number of times the limit has been cut
+     */
+    public synchronized long getDecreases() {
+        return decreases;
+    }
+
+    /**
+     * @return summary of the controller
+     */
+    public Summary summarize() {
+        return new Summary(this);
+    }
+}
@@ -1,8 +1,24 @@
 package com.revolut.command.executor;
 
+import com.revolut.command.BatchCommand;
 import com.revolut.command.Command;
+import com.revolut.ledger.Exception.LedgerException;
+import com.revolut.ledger.LedgerService;
+import com.revolut.lock.Exception.LockException;
+import com.revolut.lock.Exception.UnableToAcquireException;
+import com.revolut.lock.Lock;
 import com.revolut.lock.LockService;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Base executor class. Provides a trivial sequence of executing a command
  */
@@ -12,31 +28,353 @@ public class CommandExecutor {
      */
     private LockService lockService;
 
+    /**
+     * Ledger service to batch writes of executeAll(), null if not batched
+     */
+    private LedgerService ledgerService;
+
+    /**
+     * Phase latencies and outcomes of the executed commands
+     */
+    private CommandMetrics metrics = new CommandMetrics();
+
+    /**
+     * Retry policies by command class, commands of other classes are not retried
+     */
+    private ConcurrentHashMap<Class<?>, RetryPolicy> retryPolicies = new ConcurrentHashMap<>();
+
     /**
      * @param lockService lock service
      */
     public CommandExecutor(LockService lockService) {
+        this(lockService, null);
+    }
+
+    /**
+     * @param lockService lock service
+     * @param ledgerService ledger service to batch writes of executeAll(), null if not batched
+     */
+    public CommandExecutor(LockService lockService, LedgerService ledgerService) {
         this.lockService = lockService;
+        this.ledgerService = ledgerService;
     }
 
     /**
-     * Tries to execute a command. If fails on any stage - calls onFailure() and rethrows the exception
+     * @param commandClass command class
+     * @param retryPolicy when and how soon to retry pre() of the commands of the class
+     */
+    public void setRetryPolicy(Class<? extends Command> commandClass, RetryPolicy retryPolicy) {
+        retryPolicies.put(commandClass, retryPolicy);
+    }
+
+    /**
+     * @param commandClass command class
+     *
+     * @return retry policy of the commands of the class, RetryPolicy.NONE if not set
+     */
+    public RetryPolicy getRetryPolicy(Class<?> commandClass) {
+        return retryPolicies.getOrDefault(commandClass, RetryPolicy.NONE);
+    }
+
+    /**
+     * Tries to execute a command. If fails on any stage - calls onFailure() and rethrows the exception.
+     *
+     * pre() which has failed to acquire the locks is retried according to the retry policy of the command class: the
+     * command is released and pre() is called again after a backoff. Nothing has been done by then, so onFailure() is
+     * called only if the last attempt fails too
      *
      * @param command command to execute
      *
      * @throws Exception any exception during any stage of execution
      */
     public void execute(Command command) throws Exception {
+        CommandMetrics.Type type = metrics.of(command.getClass());
+        CommandMetrics.Phase phase = CommandMetrics.Phase.PRE;
+        long startedAt = System.nanoTime();
+
         try {
-            command.pre(lockService);
+            pre(type, command, startedAt);
+            startedAt = type.record(phase, startedAt);
+
+            phase = CommandMetrics.Phase.EXECUTE;
             command.execute();
+            startedAt = type.record(phase, startedAt);
+
+            phase = CommandMetrics.Phase.ON_SUCCESS;
             command.onSuccess();
+            startedAt = type.record(phase, startedAt);
+
+            type.succeeded();
         } catch (Exception exception) {
-            command.onFailure(exception);
+            startedAt = type.record(phase, startedAt);
+            type.failed(phase);
+
+            try {
+                command.onFailure(exception);
+            } finally {
+                startedAt = type.record(CommandMetrics.Phase.ON_FAILURE, startedAt);
+            }
 
             throw exception;
         } finally {
+            try {
+                command.release();
+            } finally {
+                type.record(CommandMetrics.Phase.RELEASE, startedAt);
+            }
+        }
+    }
+
+    /**
+     * Calls pre() of a command until it succeeds or the retry policy gives up
+     *
+     * @param type metrics of the command type
+     * @param command command to execute
+     * @param startedAt when the command has started, System.nanoTime()
+     *
+     * @throws Exception exception of the last attempt
+     */
+    private void pre(CommandMetrics.Type type, Command command, long startedAt) throws Exception {
+        retry(type, command, startedAt, () -> {
+            command.pre(lockService);
+            return null;
+        });
+    }
+
+    /**
+     * Makes an attempt until it succeeds or the retry policy of the command class gives up. The command is released
+     * before every retry
+     *
+     * @param type metrics of the command type
+     * @param command command the attempt is made for
+     * @param startedAt when the command has started, System.nanoTime()
+     * @param attempt the attempt
+     * @param <T> result of the attempt
+     *
+     * @return result of the successful attempt
+     *
+     * @throws Exception exception of the last attempt
+     */
+    protected <T> T retry(CommandMetrics.Type type, Command command, long startedAt, Callable<T> attempt) throws Exception {
+        RetryPolicy retryPolicy = getRetryPolicy(command.getClass());
+        long deadline = startedAt + TimeUnit.MILLISECONDS.toNanos(retryPolicy.getDeadline());
+        long delay = retryPolicy.getBaseDelay();
+
+        for (int attempts = 1; ; attempts++) {
+            try {
+                return attempt.call();
+            } catch (Exception exception) {
+                if ((attempts >= retryPolicy.getMaxAttempts()) || !retryPolicy.isRetryable(exception)) throw exception;
+
+                delay = retryPolicy.nextDelay(delay);
+                if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) > deadline) throw exception;
+
+                // whatever the failed attempt has taken
+                command.release();
+                type.retried();
+
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    throw exception;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return phase latencies and outcomes of the executed commands
+     */
+    public CommandMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Executes a group of commands. Plain commands are executed one by one with execute(), batch commands together:
+     * the union of their locks is taken at once, then prepare() and execute() of every command run in order within a
+     * single batch of ledger writes, made durable before any onSuccess(). A failed command gets onFailure() without
+     * affecting the others. If the batch itself fails to be made durable, the commands which have not failed yet get
+     * onFailure() too. Every command gets release(), the locks are released at the end
+     *
+     * @param commands commands to execute
+     *
+     * @return exception of every command in the same order, null for the executed ones
+     */
+    public List<Exception> executeAll(List<Command> commands) {
+        Exception[] failures = new Exception[commands.size()];
+        List<Integer> batched = new ArrayList<>();
+
+        for (int i = 0; i < commands.size(); i++) {
+            if (commands.get(i) instanceof BatchCommand) {
+                batched.add(i);
+                continue;
+            }
+
+            try {
+                execute(commands.get(i));
+            } catch (Exception exception) {
+                failures[i] = exception;
+            }
+        }
+
+        if (!batched.isEmpty()) executeBatch(commands, batched, failures);
+
+        return Arrays.asList(failures);
+    }
+
+    /**
+     * @param commands all the commands
+     * @param batched positions of the batch commands
+     * @param failures where to put exceptions of the commands
+     */
+    private void executeBatch(List<Command> commands, List<Integer> batched, Exception[] failures) {
+        Map<UUID, Lock> locks = new TreeMap<>();
+        long waitingTime = 0;
+        long acquiringTime = 0;
+
+        for (int i : batched) {
+            BatchCommand command = (BatchCommand) commands.get(i);
+            for (UUID id : command.getLockIds()) locks.computeIfAbsent(id, lockService::create);
+
+            waitingTime = Math.max(waitingTime, command.getLockWaitingTime());
+            acquiringTime = Math.max(acquiringTime, command.getLockAcquiringTime());
+        }
+
+        try {
+            if (!lockService.tryLockAll(locks.values(), waitingTime, acquiringTime)) {
+                throw new UnableToAcquireException("Failed to wait " + waitingTime + " ms to acquire " + locks.keySet());
+            }
+        } catch (LockException exception) {
+            for (int i : batched) {
+                CommandMetrics.Type type = metrics.of(commands.get(i).getClass());
+                type.failed(CommandMetrics.Phase.PRE);
+                failures[i] = release(type, commands.get(i), fail(type, commands.get(i), exception));
+            }
+            return;
+        }
+
+        try {
+            if (ledgerService != null) ledgerService.beginBatch();
+
+            try {
+                for (int i : batched) {
+                    BatchCommand command = (BatchCommand) commands.get(i);
+                    CommandMetrics.Type type = metrics.of(command.getClass());
+                    CommandMetrics.Phase phase = CommandMetrics.Phase.PRE;
+                    long startedAt = System.nanoTime();
+
+                    try {
+                        command.prepare(locks);
+                        startedAt = type.record(phase, startedAt);
+
+                        phase = CommandMetrics.Phase.EXECUTE;
+                        command.execute();
+                        type.record(phase, startedAt);
+                    } catch (Exception exception) {
+                        type.record(phase, startedAt);
+                        type.failed(phase);
+                        failures[i] = fail(type, command, exception);
+                    }
+                }
+            } finally {
+                endBatch(commands, batched, failures);
+            }
+
+            for (int i : batched) {
+                if (failures[i] != null) continue;
+
+                CommandMetrics.Type type = metrics.of(commands.get(i).getClass());
+                long startedAt = System.nanoTime();
+
+                try {
+                    commands.get(i).onSuccess();
+                    type.record(CommandMetrics.Phase.ON_SUCCESS, startedAt);
+                    type.succeeded();
+                } catch (Exception exception) {
+                    type.record(CommandMetrics.Phase.ON_SUCCESS, startedAt);
+                    type.failed(CommandMetrics.Phase.ON_SUCCESS);
+                    failures[i] = fail(type, commands.get(i), exception);
+                }
+            }
+        } finally {
+            for (int i : batched) failures[i] = release(metrics.of(commands.get(i).getClass()), commands.get(i), failures[i]);
+
+            for (Lock lock : locks.values()) {
+                try {
+                    lock.tryUnlock(true);
+                } catch (LockException ignore) {}
+            }
+        }
+    }
+
+    /**
+     * Ends the batch of ledger writes. If it fails, none of its writes has happened: every command which has been
+     * executed so far fails with that exception
+     *
+     * @param commands all the commands
+     * @param batched positions of the batch commands
+     * @param failures where to put exceptions of the commands
+     */
+    private void endBatch(List<Command> commands, List<Integer> batched, Exception[] failures) {
+        if (ledgerService == null) return;
+
+        try {
+            ledgerService.endBatch();
+        } catch (LedgerException | RuntimeException exception) {
+            for (int i : batched) {
+                if (failures[i] != null) continue;
+
+                CommandMetrics.Type type = metrics.of(commands.get(i).getClass());
+                type.failed(CommandMetrics.Phase.EXECUTE);
+                failures[i] = fail(type, commands.get(i), exception);
+            }
+        }
+    }
+
+    /**
+     * Calls onFailure() of a command
+     *
+     * @param type metrics of the command type
+     * @param command failed command
+     * @param exception why it has failed
+     *
+     * @return exception of the command: the original one or the one thrown by onFailure()
+     */
+    static Exception fail(CommandMetrics.Type type, Command command, Exception exception) {
+        long startedAt = System.nanoTime();
+
+        try {
+            command.onFailure(exception);
+        } catch (Exception onFailureException) {
+            return onFailureException;
+        } finally {
+            type.record(CommandMetrics.Phase.ON_FAILURE, startedAt);
+        }
+
+        return exception;
+    }
+
+    /**
+     * Calls release() of a command
+     *
+     * @param type metrics of the command type
+     * @param command command
+     * @param failure exception of the command so far, null if none
+     *
+     * @return exception of the command: the one thrown by release() or the given one
+     */
+    static Exception release(CommandMetrics.Type type, Command command, Exception failure) {
+        long startedAt = System.nanoTime();
+
+        try {
             command.release();
+        } catch (Exception exception) {
+            return exception;
+        } finally {
+            type.record(CommandMetrics.Phase.RELEASE, startedAt);
         }
+
+        return failure;
     }
 }
@@ -0,0 +1,220 @@
+package com.revolut.command.executor;
+
+import com.revolut.utils.Histogram;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of the lifecycle phases and outcomes of executed commands, per command type.
+ *
+ * Recording allocates nothing once a command type has been seen: a map lookup, a clock read and a few striped counter
+ * increments per phase
+ */
+public class CommandMetrics {
+    /**
+     * Lifecycle phases. @see Command
+     */
+    public enum Phase {
+        PRE, // pre() with its retries, or prepare() of a batch command
+        EXECUTE,
+        ON_SUCCESS,
+        ON_FAILURE,
+        RELEASE
+    }
+
+    /**
+     * Metrics of a command type
+     */
+    public static final class Type {
+        /**
+         * Latencies by phase, microseconds
+         */
+        private final Histogram[] latencies = new Histogram[Phase.values().length];
+
+        /**
+         * Latency of the phase recorded last by phase, nanoseconds
+         */
+        private final AtomicLongArray recentLatencies = new AtomicLongArray(Phase.values().length);
+
+        /**
+         * Number of successfully executed commands
+         */
+        private final LongAdder successes = new LongAdder();
+
+        /**
+         * Number of failed commands by the phase which has failed
+         */
+        private final LongAdder[] failures = new LongAdder[Phase.values().length];
+
+        /**
+         * Number of retried attempts. @see RetryPolicy
+         */
+        private final LongAdder retries = new LongAdder();
+
+        Type() {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new Histogram();
+                failures[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records a finished phase
+         *
+         * @param phase phase
+         * @param startedAt when the phase has started, System.nanoTime()
+         *
+         * @return when the phase has finished, System.nanoTime()
+         */
+        long record(Phase phase, long startedAt) {
+            long now = System.nanoTime();
+            latencies[phase.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(now - startedAt));
+            recentLatencies.set(phase.ordinal(), now - startedAt);
+
+            return now;
+        }
+
+        /**
+         * Counts a successfully executed command
+         */
+        void succeeded() {
+            successes.increment();
+        }
+
+        /**
+         * Counts a failed command
+         *
+         * @param phase phase which has failed
+         */
+        void failed(Phase phase) {
+            failures[phase.ordinal()].increment();
+        }
+
+        /**
+         * Counts a retried attempt
+         */
+        void retried() {
+            retries.increment();
+        }
+
+        /**
+         * @param phase phase
+         *
+         * @return latencies of the phase, microseconds
+         */
+        public Histogram getLatency(Phase phase) {
+            return latencies[phase.ordinal()];
+        }
+
+        /**
+         * @param phase phase
+         *
+         * @return latency of the phase recorded last, nanoseconds. PRE: the recent lock wait time
+         */
+        public long getRecentLatency(Phase phase) {
+            return recentLatencies.get(phase.ordinal());
+        }
+
+        /**
+         * @return number of successfully executed commands
+         */
+        public long getSuccesses() {
+            return successes.sum();
+        }
+
+        /**
+         * @param phase phase
+         *
+         * @return number of commands failed in the phase
+         */
+        public long getFailures(Phase phase) {
+            return failures[phase.ordinal()].sum();
+        }
+
+        /**
+         * @return number of retried attempts
+         */
+        public long getRetries() {
+            return retries.sum();
+        }
+    }
+
+    /**
+     * Summary of a command type
+     */
+    public static final class Summary {
+        /**
+         * Number of successfully executed commands
+         */
+        final long successes;
+
+        /**
+         * Number of failed commands by the phase which has failed
+         */
+        final Map<Phase, Long> failures = new EnumMap<>(Phase.class);
+
+        /**
+         * Number of retried attempts
+         */
+        final long retries;
+
+        /**
+         * Latencies by phase, microseconds
+         */
+        final Map<Phase, Histogram.Summary> latencies = new EnumMap<>(Phase.class);
+
+        /**
+         * @param type metrics of the command type
+         */
+        Summary(Type type) {
+            this.successes = type.getSuccesses();
+            this.retries = type.getRetries();
+
+            for (Phase phase : Phase.values()) {
+                if (type.getFailures(phase) > 0) failures.put(phase, type.getFailures(phase));
+                if (type.getLatency(phase).getCount() > 0) latencies.put(phase, type.getLatency(phase).summarize());
+            }
+        }
+    }
+
+    /**
+     * Metrics by command class
+     */
+    private ConcurrentHashMap<Class<?>, Type> types = new ConcurrentHashMap<>();
+
+    /**
+     * @param commandClass command class
+     *
+     * @return metrics of the command type, created on the first use
+     */
+    public Type of(Class<?> commandClass) {
+        Type type = types.get(commandClass);
+
+        return (type != null) ? type : types.computeIfAbsent(commandClass, key -> new Type());
+    }
+
+    /**
+     * @return metrics by command class
+     */
+    public Map<Class<?>, Type> getTypes() {
+        return new HashMap<>(types);
+    }
+
+    /**
+     * @return summaries by the simple name of the command class
+     */
+    public Map<String, Summary> summarize() {
+        Map<String, Summary> summaries = new HashMap<>();
+        for (Map.Entry<Class<?>, Type> entry : types.entrySet()) {
+            summaries.put(entry.getKey().getSimpleName(), new Summary(entry.getValue()));
+        }
+
+        return summaries;
+    }
+}
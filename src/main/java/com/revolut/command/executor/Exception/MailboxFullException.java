@@ -0,0 +1,28 @@
+package com.revolut.command.executor.Exception;
+
+import com.revolut.exception.RevolutException;
+
+import java.util.UUID;
+
+/**
+ * When the mailbox of an account has no room for another command
+ */
+public class MailboxFullException extends RevolutException {
+    /**
+     * @param id account id the mailbox is keyed by
+     * @param capacity mailbox capacity
+     */
+    public MailboxFullException(UUID id, int capacity) {
+        super("Mailbox of " + id + " already has " + capacity + " commands");
+    }
+
+    @Override
+    public boolean isDisplayable() {
+        return true;
+    }
+
+    @Override
+    public String toDisplayable() {
+        return "Too many concurrent requests for the account, please try again later";
+    }
+}
@@ -0,0 +1,454 @@
+package com.revolut.command.executor;
+
+import com.revolut.command.BatchCommand;
+import com.revolut.command.Command;
+import com.revolut.command.executor.Exception.MailboxFullException;
+import com.revolut.lock.Exception.LockException;
+import com.revolut.lock.Exception.UnableToAcquireException;
+import com.revolut.lock.Lock;
+import com.revolut.lock.LockService;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Routes every command to the mailbox of its account, mailboxes of different accounts run in parallel.
+ *
+ * A mailbox is drained by one thread of a shared pool at a time, so commands of an account run one after another in
+ * the arrival order and never contend on its lock. The drainer takes the account lock once and hands it to every
+ * command it runs with prepare() instead of pre(): the lock still fences ledger writes and keeps the transaction
+ * reaper away, but there is a single lock round trip per drain instead of one per command. A failed command gives the
+ * lock back, the next one takes it again. Taking the lock follows the retry policy of the command which takes it.
+ *
+ * Mailboxes are bounded: a command which does not fit fails with MailboxFullException right away. A drain runs at most
+ * MAX_DRAIN commands, then the mailbox goes to the end of the pool queue so busy accounts do not starve the others.
+ * A mailbox which is left empty after a drain is removed together with its counters, the next command creates it again.
+ *
+ * Only batch commands with a single lock have an account, all the other ones are executed in the caller thread
+ */
+public class MailboxCommandExecutor extends CommandExecutor {
+    /**
+     * Maximum number of commands run by a drain
+     */
+    private static final int MAX_DRAIN = 64;
+
+    /**
+     * Counters of a mailbox
+     */
+    public static final class MailboxStats {
+        /**
+         * Commands waiting in the mailbox
+         */
+        private final Queue<?> queue;
+
+        /**
+         * Maximum number of commands waited in the mailbox at once
+         */
+        private final AtomicInteger maxQueued = new AtomicInteger();
+
+        /**
+         * Number of executed commands
+         */
+        private final LongAdder executed = new LongAdder();
+
+        /**
+         * Number of failed commands
+         */
+        private final LongAdder failed = new LongAdder();
+
+        /**
+         * Number of commands rejected because the mailbox was full
+         */
+        private final LongAdder rejected = new LongAdder();
+
+        /**
+         * Number of drains, each one takes the account lock once
+         */
+        private final LongAdder drains = new LongAdder();
+
+        /**
+         * @param queue commands waiting in the mailbox
+         */
+        MailboxStats(Queue<?> queue) {
+            this.queue = queue;
+        }
+
+        /**
+         * @return number of commands waiting in the mailbox
+         */
+        public int getQueued() {
+            return queue.size();
+        }
+
+        /**
+         * @return maximum number of commands waited in the mailbox at once
+         */
+        public int getMaxQueued() {
+            return maxQueued.get();
+        }
+
+        /**
+         * @return number of executed commands, including failed ones
+         */
+        public long getExecuted() {
+            return executed.sum();
+        }
+
+        /**
+         * @return number of failed commands
+         */
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        /**
+         * @return number of commands rejected because the mailbox was full
+         */
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * @return number of drains, each one takes the account lock once
+         */
+        public long getDrains() {
+            return drains.sum();
+        }
+    }
+
+    /**
+     * Commands of an account
+     */
+    private final class Mailbox {
+        /**
+         * Account id
+         */
+        final UUID id;
+
+        /**
+         * Commands waiting to run
+         */
+        final ArrayBlockingQueue<Task> queue;
+
+        /**
+         * A drain is scheduled or running
+         */
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Counters
+         */
+        final MailboxStats stats;
+
+        /**
+         * @param id account id
+         */
+        Mailbox(UUID id) {
+            this.id = id;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.stats = new MailboxStats(queue);
+        }
+    }
+
+    /**
+     * A queued command
+     */
+    private static final class Task {
+        /**
+         * Command to execute
+         */
+        final BatchCommand command;
+
+        /**
+         * Completed when the command has been executed
+         */
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        /**
+         * @param command command to execute
+         */
+        Task(BatchCommand command) {
+            this.command = command;
+        }
+    }
+
+    /**
+     * Lock service
+     */
+    private LockService lockService;
+
+    /**
+     * Mailbox capacity
+     */
+    private int capacity;
+
+    /**
+     * Drains mailboxes
+     */
+    private ExecutorService executorService;
+
+    /**
+     * Mailboxes by account id, commands are put into a mailbox and empty mailboxes are removed under the lock of its key
+     */
+    private ConcurrentHashMap<UUID, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    /**
+     * @param lockService lock service
+     * @param threads number of threads draining mailboxes
+     * @param capacity maximum number of commands waiting in a mailbox
+     */
+    public MailboxCommandExecutor(LockService lockService, int threads, int capacity) {
+        super(lockService);
+        this.lockService = lockService;
+        this.capacity = capacity;
+        this.executorService = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "mailbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops draining mailboxes, scheduled drains are completed
+     */
+    public void stop() {
+        executorService.shutdown();
+    }
+
+    /**
+     * @return counters of every mailbox by account id, removed empty mailboxes are not included
+     */
+    public Map<UUID, MailboxStats> getMailboxStats() {
+        Map<UUID, MailboxStats> stats = new HashMap<>();
+        for (Mailbox mailbox : mailboxes.values()) stats.put(mailbox.id, mailbox.stats);
+
+        return stats;
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Runs the command in the mailbox of its account and waits for it
+     */
+    @Override
+    public void execute(Command command) throws Exception {
+        try {
+            submit(command).get();
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw exception;
+        }
+    }
+
+    /**
+     * Puts the command into the mailbox of its account without waiting for it. @see CommandExecutor::execute()
+     *
+     * @param command command to execute
+     *
+     * @return completed when the command has been executed, exceptionally with the exception of any stage or with
+     *         MailboxFullException
+     */
+    public CompletableFuture<Void> submit(Command command) {
+        Collection<UUID> lockIds = (command instanceof BatchCommand) ? ((BatchCommand) command).getLockIds() : Collections.emptyList();
+
+        if (lockIds.size() != 1) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            try {
+                super.execute(command);
+                future.complete(null);
+            } catch (Exception exception) {
+                future.completeExceptionally(exception);
+            }
+
+            return future;
+        }
+
+        Task task = new Task((BatchCommand) command);
+        AtomicBoolean isQueued = new AtomicBoolean();
+
+        // a mailbox can not be removed between getting it and queueing into it
+        Mailbox mailbox = mailboxes.compute(lockIds.iterator().next(), (id, current) -> {
+            Mailbox result = (current == null) ? new Mailbox(id) : current;
+            isQueued.set(result.queue.offer(task));
+
+            return result;
+        });
+
+        if (!isQueued.get()) {
+            mailbox.stats.rejected.increment();
+            task.future.completeExceptionally(new MailboxFullException(mailbox.id, capacity));
+            return task.future;
+        }
+
+        mailbox.stats.maxQueued.accumulateAndGet(mailbox.queue.size(), Math::max);
+        schedule(mailbox);
+
+        return task.future;
+    }
+
+    /**
+     * Schedules a drain of the mailbox unless there is one already
+     *
+     * @param mailbox mailbox
+     */
+    private void schedule(Mailbox mailbox) {
+        if (mailbox.scheduled.compareAndSet(false, true)) executorService.execute(() -> drain(mailbox));
+    }
+
+    /**
+     * Runs commands of the mailbox one by one under the account lock
+     *
+     * @param mailbox mailbox
+     */
+    private void drain(Mailbox mailbox) {
+        mailbox.stats.drains.increment();
+        Lock lock = null;
+
+        try {
+            for (int i = 0; i < MAX_DRAIN; i++) {
+                Task task = mailbox.queue.poll();
+                if (task == null) break;
+
+                CommandMetrics.Type type = getMetrics().of(task.command.getClass());
+                long startedAt = System.nanoTime();
+
+                // waiting for the lock counts to the first command of the drain
+                if (lock == null) {
+                    try {
+                        lock = retry(type, task.command, startedAt, () -> lock(mailbox.id, task.command));
+                    } catch (Exception exception) {
+                        type.record(CommandMetrics.Phase.PRE, startedAt);
+                        type.failed(CommandMetrics.Phase.PRE);
+                        complete(mailbox, task, release(type, task.command, fail(type, task.command, exception)));
+                        continue;
+                    }
+                }
+
+                Exception failure = run(type, task.command, Collections.singletonMap(mailbox.id, lock), startedAt);
+                complete(mailbox, task, failure);
+
+                // the lock might have been lost, the next command takes it again
+                if (failure != null) {
+                    unlock(lock);
+                    lock = null;
+                }
+            }
+        } finally {
+            if (lock != null) unlock(lock);
+
+            mailbox.scheduled.set(false);
+
+            // arrived meanwhile or left over by MAX_DRAIN
+            if (!mailbox.queue.isEmpty()) {
+                schedule(mailbox);
+            } else {
+                remove(mailbox);
+            }
+        }
+    }
+
+    /**
+     * Removes the mailbox if it is still empty and no drain has been scheduled for it meanwhile
+     *
+     * @param mailbox mailbox
+     */
+    private void remove(Mailbox mailbox) {
+        mailboxes.computeIfPresent(
+            mailbox.id,
+            (id, current) -> ((current == mailbox) && current.queue.isEmpty() && !current.scheduled.get()) ? null : current
+        );
+    }
+
+    /**
+     * @param id account id
+     * @param command command to take the lock for
+     *
+     * @return acquired account lock
+     *
+     * @throws LockException when the lock can not be acquired
+     */
+    private Lock lock(UUID id, BatchCommand command) throws LockException {
+        Lock lock = lockService.create(id);
+        if (!lock.tryLock(command.getLockWaitingTime(), command.getLockAcquiringTime())) {
+            throw new UnableToAcquireException("Failed to wait " + command.getLockWaitingTime() + " ms to acquire " + id);
+        }
+
+        return lock;
+    }
+
+    /**
+     * @param lock lock to release, quietly
+     */
+    private static void unlock(Lock lock) {
+        try {
+            lock.tryUnlock(true);
+        } catch (LockException ignore) {}
+    }
+
+    /**
+     * Executes a command with the lock of the mailbox. Same lifecycle as execute() with prepare() instead of pre()
+     *
+     * @param type metrics of the command type
+     * @param command command to execute
+     * @param locks the lock of the mailbox
+     * @param startedAt when the command has been taken from the mailbox, System.nanoTime()
+     *
+     * @return exception of the command, null if executed
+     */
+    private static Exception run(CommandMetrics.Type type, BatchCommand command, Map<UUID, Lock> locks, long startedAt) {
+        CommandMetrics.Phase phase = CommandMetrics.Phase.PRE;
+        Exception failure = null;
+
+        try {
+            command.prepare(locks);
+            startedAt = type.record(phase, startedAt);
+
+            phase = CommandMetrics.Phase.EXECUTE;
+            command.execute();
+            startedAt = type.record(phase, startedAt);
+
+            phase = CommandMetrics.Phase.ON_SUCCESS;
+            command.onSuccess();
+            type.record(phase, startedAt);
+
+            type.succeeded();
+        } catch (Exception exception) {
+            type.record(phase, startedAt);
+            type.failed(phase);
+            failure = fail(type, command, exception);
+        }
+
+        return release(type, command, failure);
+    }
+
+    /**
+     * @param mailbox mailbox of the task
+     * @param task executed task
+     * @param failure exception of the command, null if executed
+     */
+    private static void complete(Mailbox mailbox, Task task, Exception failure) {
+        mailbox.stats.executed.increment();
+
+        if (failure == null) {
+            task.future.complete(null);
+        } else {
+            mailbox.stats.failed.increment();
+            task.future.completeExceptionally(failure);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.revolut.command.executor;
+
+import com.revolut.lock.Exception.UnableToAcquireException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When and how soon to retry a command which has failed to acquire its locks. @see CommandExecutor::setRetryPolicy()
+ *
+ * Delays follow the "decorrelated jitter" backoff: every next delay is random between `baseDelay` and three times the
+ * previous one, capped by `maxDelay`. Commands which have collided on a lock spread out instead of colliding again.
+ *
+ * A command is attempted at most `maxAttempts` times, and never retried if the backoff would end past `deadline` after
+ * the command has started
+ */
+public class RetryPolicy {
+    /**
+     * Never retry
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0);
+
+    /**
+     * Maximum number of attempts, including the first one
+     */
+    private final int maxAttempts;
+
+    /**
+     * Minimum delay before a retry, milliseconds
+     */
+    private final long baseDelay;
+
+    /**
+     * Maximum delay before a retry, milliseconds
+     */
+    private final long maxDelay;
+
+    /**
+     * Overall time budget of the command, milliseconds
+     */
+    private final long deadline;
+
+    /**
+     * @param maxAttempts maximum number of attempts, including the first one
+     * @param baseDelay minimum delay before a retry, milliseconds
+     * @param maxDelay maximum delay before a retry, milliseconds
+     * @param deadline overall time budget of the command, milliseconds
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, long deadline) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("At least one attempt is required");
+        if ((baseDelay < 0) || (maxDelay < baseDelay)) throw new IllegalArgumentException("Wrong delays " + baseDelay + ", " + maxDelay);
+
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param exception why an attempt has failed
+     *
+     * @return true if the command may be attempted again: only a lock which could not be acquired in time may be free
+     *         a moment later
+     */
+    public boolean isRetryable(Exception exception) {
+        return exception instanceof UnableToAcquireException;
+    }
+
+    /**
+     * @param previousDelay previous delay, baseDelay before the first retry
+     *
+     * @return delay before the next retry, milliseconds
+     */
+    public long nextDelay(long previousDelay) {
+        long upper = Math.min(maxDelay, Math.max(baseDelay, previousDelay * 3));
+
+        return (upper > baseDelay) ? ThreadLocalRandom.current().nextLong(baseDelay, upper + 1) : baseDelay;
+    }
+
+    /**
+     * @return maximum number of attempts, including the first one
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return minimum delay before a retry, milliseconds
+     */
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * @return maximum delay before a retry, milliseconds
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * @return overall time budget of the command, milliseconds
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+}
@@ -0,0 +1,194 @@
+package com.revolut.command.executor;
+
+import com.revolut.command.Command;
+import com.revolut.lock.LockService;
+import com.revolut.utils.VirtualThreadUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every command on its own virtual thread, at most `maxConcurrency` commands at once.
+ *
+ * A command blocked on a lock or on the ledger journal holds only a virtual thread, so the number of commands in flight
+ * is limited by `maxConcurrency` and not by the number of OS threads. Commands over the limit are queued without a
+ * thread and started as running ones finish. A caller which is a virtual thread itself, like an HTTP request with
+ * Router::runOn(VirtualThreadPool), runs the command right away on its own thread: a command never costs two threads.
+ *
+ * Virtual threads are looked up at runtime, the build targets Java 8: on a JDK without them commands run on a cached pool
+ * of platform threads behind the same limit
+ */
+public class VirtualThreadCommandExecutor extends CommandExecutor {
+    /**
+     * Runs the commands
+     */
+    private ExecutorService executorService;
+
+    /**
+     * Commands run on virtual threads
+     */
+    private boolean isVirtual;
+
+    /**
+     * Free execution slots
+     */
+    private Semaphore permits;
+
+    /**
+     * Commands waiting for a free slot
+     */
+    private ConcurrentLinkedQueue<Runnable> queued = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of commands waiting for a free slot
+     */
+    private AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * @param lockService lock service
+     * @param maxConcurrency maximum number of commands running at once
+     */
+    public VirtualThreadCommandExecutor(LockService lockService, int maxConcurrency) {
+        super(lockService);
+        this.permits = new Semaphore(maxConcurrency);
+
+        executorService = VirtualThreadUtil.newExecutor();
+        isVirtual = (executorService != null);
+
+        if (!isVirtual) {
+            executorService = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "command");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @return true if commands run on virtual threads, false if on platform threads
+     */
+    public boolean isVirtual() {
+        return isVirtual;
+    }
+
+    /**
+     * @return number of commands waiting for a free slot
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Stops accepting commands, running and queued ones are completed
+     */
+    public void stop() {
+        executorService.shutdown();
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Runs the command on the calling thread if it is a virtual one, otherwise on its own thread and waits for it
+     */
+    @Override
+    public void execute(Command command) throws Exception {
+        if (VirtualThreadUtil.isVirtual(Thread.currentThread())) {
+            // blocking a virtual thread is cheap, it waits for a slot right here
+            permits.acquire();
+
+            try {
+                super.execute(command);
+            } finally {
+                next();
+            }
+
+            return;
+        }
+
+        try {
+            submit(command).get();
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw exception;
+        }
+    }
+
+    /**
+     * Runs the command on its own thread without waiting for it. @see CommandExecutor::execute()
+     *
+     * @param command command to execute
+     *
+     * @return completed when the command has been executed, exceptionally with the exception of any stage
+     */
+    public CompletableFuture<Void> submit(Command command) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Runnable task = () -> {
+            try {
+                super.execute(command);
+                future.complete(null);
+            } catch (Throwable throwable) {
+                future.completeExceptionally(throwable);
+            } finally {
+                next();
+            }
+        };
+
+        if (permits.tryAcquire()) {
+            start(task);
+        } else {
+            queued.add(task);
+            waiting.incrementAndGet();
+
+            // a slot might have been freed meanwhile
+            drain();
+        }
+
+        return future;
+    }
+
+    /**
+     * Passes the slot of a finished command over to a queued one, or frees it
+     */
+    private void next() {
+        Runnable task = queued.poll();
+        if (task != null) {
+            waiting.decrementAndGet();
+            start(task);
+            return;
+        }
+
+        permits.release();
+        drain();
+    }
+
+    /**
+     * Starts queued commands while there are free slots
+     */
+    private void drain() {
+        while (!queued.isEmpty() && permits.tryAcquire()) {
+            Runnable task = queued.poll();
+            if (task == null) {
+                permits.release();
+                continue;
+            }
+
+            waiting.decrementAndGet();
+            start(task);
+        }
+    }
+
+    /**
+     * @param task task holding a slot
+     */
+    private void start(Runnable task) {
+        executorService.execute(task);
+    }
+}
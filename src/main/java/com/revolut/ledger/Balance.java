@@ -89,6 +89,17 @@ public class Balance {
         }
     }
 
+    /**
+     * Copy the state of another balance
+     *
+     * @param other balance to copy from
+     */
+    void set(Balance other) {
+        this.actual = other.actual;
+        this.obligating = other.obligating;
+        this.receiving = other.receiving;
+    }
+
     /**
      * @return actual amount of available funds
      */
@@ -109,4 +120,28 @@ public class Balance {
     public long getReceiving() {
         return receiving;
     }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if ((null == obj) || (obj.getClass() != this.getClass())) return false;
+
+        Balance other = (Balance) obj;
+
+        return (
+            (this.actual == other.actual) &&
+            (this.obligating == other.obligating) &&
+            (this.receiving == other.receiving)
+        );
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(actual) * 31 * 31 + Long.hashCode(obligating) * 31 + Long.hashCode(receiving);
+    }
+
+    @Override
+    public String toString() {
+        return "actual=" + actual + ", obligating=" + obligating + ", receiving=" + receiving;
+    }
 }
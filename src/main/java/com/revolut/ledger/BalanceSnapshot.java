@@ -0,0 +1,152 @@
+package com.revolut.ledger;
+
+import com.revolut.ledger.Transaction.Exception.UnknownSubtypeException;
+
+import java.util.List;
+
+/**
+ * Versioned balance of a ledger: the balance after applying the first "offset" ledger entries.
+ * Allows to catch up with newly appended entries instead of replaying the whole history
+ */
+public class BalanceSnapshot {
+    /**
+     * Number of ledger entries already applied to the balance
+     */
+    private int offset;
+
+    /**
+     * Balance after applying the first "offset" ledger entries
+     */
+    private Balance balance;
+
+    /**
+     * Empty snapshot, no entries applied
+     */
+    public BalanceSnapshot() {
+        this(0, new Balance(0, 0, 0));
+    }
+
+    /**
+     * @param offset number of ledger entries already applied to the balance
+     * @param balance balance after applying the first "offset" ledger entries
+     */
+    public BalanceSnapshot(int offset, Balance balance) {
+        this.offset = offset;
+        this.balance = balance;
+    }
+
+    /**
+     * @return number of ledger entries already applied to the balance
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return balance after applying the first "offset" ledger entries
+     */
+    public Balance getBalance() {
+        return balance;
+    }
+
+    /**
+     * Applies the entries appended since the last call
+     *
+     * @param ledgerEntries all ledger entries of the ledger, in the append order
+     *
+     * @throws UnknownSubtypeException when an entry has an unknown subtype
+     */
+    public void catchUp(List<LedgerEntry> ledgerEntries) throws UnknownSubtypeException {
+        catchUp(ledgerEntries, 0);
+    }
+
+    /**
+     * Applies the entries appended since the last call
+     *
+     * @param ledgerEntries ledger entries of the ledger starting from the entry number "base", in the append order
+     * @param base number of the first given entry, must not be greater than the offset
+     *
+     * @throws UnknownSubtypeException when an entry has an unknown subtype
+     */
+    public void catchUp(List<LedgerEntry> ledgerEntries, int base) throws UnknownSubtypeException {
+        if (base > offset) throw new IllegalArgumentException("Entries from " + base + " can not be applied at " + offset);
+
+        int size = ledgerEntries.size();
+
+        if (ledgerEntries instanceof PackedLedgerEntries) {
+            // no allocations per entry
+            PackedLedgerEntries packedLedgerEntries = (PackedLedgerEntries) ledgerEntries;
+            LedgerEntryView view = new LedgerEntryView();
+
+            for (int i = offset - base; i < size; i++) {
+                packedLedgerEntries.view(i, view);
+                apply(balance, view.getType(), view.getSubtype(), view.getAmount());
+                offset++;
+            }
+
+            return;
+        }
+
+        for (int i = offset - base; i < size; i++) {
+            apply(balance, ledgerEntries.get(i));
+            offset++;
+        }
+    }
+
+    /**
+     * @return independent copy of this snapshot
+     */
+    public BalanceSnapshot copy() {
+        return new BalanceSnapshot(offset, new Balance(balance.actual, balance.obligating, balance.receiving));
+    }
+
+    /**
+     * Replays all the given entries from scratch
+     *
+     * @param ledgerEntries all ledger entries of the ledger, in the append order
+     *
+     * @return a new snapshot containing all the given entries
+     *
+     * @throws UnknownSubtypeException when an entry has an unknown subtype
+     */
+    public static BalanceSnapshot replay(List<LedgerEntry> ledgerEntries) throws UnknownSubtypeException {
+        BalanceSnapshot snapshot = new BalanceSnapshot();
+        snapshot.catchUp(ledgerEntries);
+
+        return snapshot;
+    }
+
+    /**
+     * Update the balance accordingly to the entry type and subtype
+     *
+     * @param balance balance to update
+     * @param ledgerEntry ledger entry to apply
+     *
+     * @throws UnknownSubtypeException when the entry has an unknown subtype
+     */
+    static void apply(Balance balance, LedgerEntry ledgerEntry) throws UnknownSubtypeException {
+        apply(balance, ledgerEntry.getType(), ledgerEntry.getSubtype(), ledgerEntry.getAmount());
+    }
+
+    /**
+     * Update the balance accordingly to the entry type and subtype
+     *
+     * @param balance balance to update
+     * @param type entry type
+     * @param subtype entry subtype
+     * @param amount entry amount
+     *
+     * @throws UnknownSubtypeException when the entry has an unknown subtype
+     */
+    static void apply(Balance balance, LedgerEntry.Type type, LedgerEntry.Subtype subtype, long amount) throws UnknownSubtypeException {
+        switch (type) {
+            case DEBIT:
+                balance.updateDebit(subtype, amount);
+                break;
+
+            case CREDIT:
+                balance.updateCredit(subtype, amount);
+                break;
+        }
+    }
+}
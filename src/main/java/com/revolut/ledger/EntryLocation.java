@@ -0,0 +1,70 @@
+package com.revolut.ledger;
+
+import java.util.UUID;
+
+/**
+ * Where a ledger entry is stored: the ledger and the number of the entry in it.
+ * Also keeps the entry type and subtype, so the state of a transaction is known without reading its entries
+ */
+public class EntryLocation {
+    /**
+     * Ledger the entry belongs to
+     */
+    private UUID ledgerId;
+
+    /**
+     * Number of the entry in the ledger
+     */
+    private int index;
+
+    /**
+     * Type of the entry
+     */
+    private LedgerEntry.Type type;
+
+    /**
+     * Subtype of the entry
+     */
+    private LedgerEntry.Subtype subtype;
+
+    /**
+     * @param ledgerId ledger the entry belongs to
+     * @param index number of the entry in the ledger
+     * @param type type of the entry
+     * @param subtype subtype of the entry
+     */
+    public EntryLocation(UUID ledgerId, int index, LedgerEntry.Type type, LedgerEntry.Subtype subtype) {
+        this.ledgerId = ledgerId;
+        this.index = index;
+        this.type = type;
+        this.subtype = subtype;
+    }
+
+    /**
+     * @return ledger the entry belongs to
+     */
+    public UUID getLedgerId() {
+        return ledgerId;
+    }
+
+    /**
+     * @return number of the entry in the ledger
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return type of the entry
+     */
+    public LedgerEntry.Type getType() {
+        return type;
+    }
+
+    /**
+     * @return subtype of the entry
+     */
+    public LedgerEntry.Subtype getSubtype() {
+        return subtype;
+    }
+}
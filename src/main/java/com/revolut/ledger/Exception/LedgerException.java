@@ -12,4 +12,12 @@ public abstract class LedgerException extends RevolutException {
     public LedgerException(String message) {
         super(message);
     }
+
+    /**
+     * @param message exception message
+     * @param cause cause
+     */
+    public LedgerException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
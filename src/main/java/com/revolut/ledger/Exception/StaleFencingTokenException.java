@@ -0,0 +1,17 @@
+package com.revolut.ledger.Exception;
+
+import java.util.UUID;
+
+/**
+ * A ledger entry is written under a lock which has already been taken over by someone else
+ */
+public class StaleFencingTokenException extends LedgerException {
+    /**
+     * @param ledgerId ledger id
+     * @param fencingToken token of the writer
+     * @param latestToken latest token seen by the ledger
+     */
+    public StaleFencingTokenException(UUID ledgerId, long fencingToken, long latestToken) {
+        super("Stale fencing token " + fencingToken + " for ledger " + ledgerId + ", latest is " + latestToken);
+    }
+}
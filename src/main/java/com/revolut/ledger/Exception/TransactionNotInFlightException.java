@@ -0,0 +1,20 @@
+package com.revolut.ledger.Exception;
+
+import com.revolut.ledger.LedgerEntry;
+
+import java.util.UUID;
+
+/**
+ * A ledger entry does not fit the state of its transaction: it is completed or cancelled (or is being) in a different
+ * way, or it has not been initiated in the ledger
+ */
+public class TransactionNotInFlightException extends LedgerException {
+    /**
+     * @param ledgerId ledger id
+     * @param globalId global transaction id
+     * @param subtype subtype of the rejected entry
+     */
+    public TransactionNotInFlightException(UUID ledgerId, UUID globalId, LedgerEntry.Subtype subtype) {
+        super("Transaction " + globalId + " is not in flight in ledger " + ledgerId + ", " + subtype + " entry is rejected");
+    }
+}
@@ -0,0 +1,10 @@
+package com.revolut.ledger.Journal;
+
+/**
+ * When an appended journal record is considered to be durable
+ */
+public enum DurabilityMode {
+    SYNC, // Each append forces the journal to the storage device before returning
+    GROUP, // Concurrent appends wait for a shared force, the batch is collected for up to a latency window
+    ASYNC // Appends return immediately, the journal is forced periodically in background
+}
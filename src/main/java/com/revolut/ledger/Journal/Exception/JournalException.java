@@ -0,0 +1,23 @@
+package com.revolut.ledger.Journal.Exception;
+
+import com.revolut.ledger.Exception.LedgerException;
+
+/**
+ * When the ledger journal can not be read or written
+ */
+public class JournalException extends LedgerException {
+    /**
+     * @param message exception message
+     */
+    public JournalException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param message exception message
+     * @param cause cause
+     */
+    public JournalException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
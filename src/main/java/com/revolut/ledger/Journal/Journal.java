@@ -0,0 +1,583 @@
+package com.revolut.ledger.Journal;
+
+import com.revolut.ledger.Exception.LedgerException;
+import com.revolut.ledger.Journal.Exception.JournalException;
+import com.revolut.ledger.LedgerEntry;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only journal of ledger entries.
+ *
+ * Entries are stored as fixed-width binary records in segment files of the same size which are memory-mapped.
+ * Each record gets a sequence number, so its segment and position are known without any lookups and concurrent
+ * appends write to their own slots without locking. A sequence is taken only once its segment exists, so a failed append
+ * never leaves a hole behind. A record is valid once its marker is written - the marker
+ * is written last, so a torn record at the tail is ignored on replay. Records written together get a contiguous range,
+ * and an abort record makes replay skip a range which has failed to be made durable.
+ *
+ * Replay stops at the first invalid record, so a record is safe only when every record before it is written too.
+ * Appends finish out of order, the journal keeps the written watermark - the end of the gap-free prefix of written
+ * records - and awaitWritten() lets a committer wait for it before forcing.
+ *
+ * Record layout, bytes:
+ * <pre>
+ *   0 marker         4 type        5 subtype       6 reserved
+ *   8 ownerLedgerId 24 id         40 globalId     56 fromLedgerId
+ *  72 toLedgerId    88 createdBy 104 amount      112 createdAt
+ * 120 checksum
+ * </pre>
+ * An abort record has the type 127 and stores the first and the last aborted sequences at 8 and 16.
+ */
+public class Journal {
+    /**
+     * Callback for the journal replay
+     */
+    public interface RecordConsumer {
+        /**
+         * @param ownerLedgerId ledger the entry belongs to
+         * @param ledgerEntry ledger entry
+         *
+         * @throws LedgerException
+         */
+        void accept(UUID ownerLedgerId, LedgerEntry ledgerEntry) throws LedgerException;
+    }
+
+    /**
+     * Size of a single record, bytes
+     */
+    public static final int RECORD_SIZE = 128;
+
+    /**
+     * Default size of a segment file, bytes
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Marks a completely written record
+     */
+    private static final int MARKER = 0x4C454447;
+
+    /**
+     * Segment file name extension
+     */
+    private static final String EXTENSION = ".journal";
+
+    /**
+     * Type of an abort record, past the ledger entry types. Its payload is the aborted range of records
+     */
+    private static final byte ABORT = Byte.MAX_VALUE;
+
+    private static final LedgerEntry.Type[] TYPES = LedgerEntry.Type.values();
+
+    private static final LedgerEntry.Subtype[] SUBTYPES = LedgerEntry.Subtype.values();
+
+    /**
+     * Directory with segment files
+     */
+    private Path directory;
+
+    /**
+     * How many records fit into a segment
+     */
+    private int recordsPerSegment;
+
+    /**
+     * Mapped segments, in the sequence order. Only grows, copied on growth
+     */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /**
+     * Sequence number of the next record
+     */
+    private AtomicLong nextSequence = new AtomicLong(0);
+
+    /**
+     * Every record below this sequence has been written
+     */
+    private volatile long writtenSequence = 0;
+
+    /**
+     * Written records above the watermark, guarded by writtenLock
+     */
+    private Set<Long> writtenAhead = new HashSet<>();
+
+    /**
+     * Guards advancing the written watermark
+     */
+    private ReentrantLock writtenLock = new ReentrantLock();
+
+    /**
+     * Signalled when the written watermark has advanced
+     */
+    private Condition writtenAdvanced = writtenLock.newCondition();
+
+    /**
+     * Aborted ranges of records, the first sequence to the last one inclusive. Replay skips them
+     */
+    private ConcurrentSkipListMap<Long, Long> aborted = new ConcurrentSkipListMap<>();
+
+    /**
+     * Opens (or creates) a journal and finds its end
+     *
+     * @param directory directory with segment files
+     * @param segmentSize size of a segment file, bytes. Rounded down to the record size
+     *
+     * @throws JournalException when the journal can not be opened
+     */
+    public Journal(Path directory, int segmentSize) throws JournalException {
+        if (segmentSize < RECORD_SIZE) throw new IllegalArgumentException("Segment size must be at least " + RECORD_SIZE);
+
+        this.directory = directory;
+        this.recordsPerSegment = segmentSize / RECORD_SIZE;
+
+        try {
+            Files.createDirectories(directory);
+
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+                stream.forEach(files::add);
+            }
+            files.sort(null);
+
+            for (int i = 0; i < files.size(); i++) {
+                if (!files.get(i).getFileName().toString().equals(fileName(i))) {
+                    throw new JournalException("Unexpected journal segment " + files.get(i) + ", expected " + fileName(i));
+                }
+                if (Files.size(files.get(i)) != (long) recordsPerSegment * RECORD_SIZE) {
+                    throw new JournalException("Journal segment " + files.get(i) + " has a different segment size");
+                }
+                map(i);
+            }
+
+            recover();
+
+            // records left by the previous run are below the watermark, they must be on the disk as well
+            force();
+        } catch (IOException exception) {
+            throw new JournalException("Failed to open journal in " + directory, exception);
+        }
+    }
+
+    /**
+     * @return how many records fit into a segment
+     */
+    public int getRecordsPerSegment() {
+        return recordsPerSegment;
+    }
+
+    /**
+     * @return number of records in the journal
+     */
+    public long size() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Appends a ledger entry
+     *
+     * @param ownerLedgerId ledger the entry belongs to
+     * @param ledgerEntry ledger entry
+     *
+     * @return sequence number of the record
+     *
+     * @throws JournalException when a new segment can not be created, no sequence is taken then
+     */
+    public long append(UUID ownerLedgerId, LedgerEntry ledgerEntry) throws JournalException {
+        return append(Collections.singletonList(ownerLedgerId), Collections.singletonList(ledgerEntry));
+    }
+
+    /**
+     * Appends ledger entries as a contiguous range of records, in the given order
+     *
+     * @param ownerLedgerIds ledgers the entries belong to
+     * @param ledgerEntries ledger entries
+     *
+     * @return sequence number of the first record
+     *
+     * @throws JournalException when a new segment can not be created, no sequence is taken then
+     */
+    public long append(List<UUID> ownerLedgerIds, List<LedgerEntry> ledgerEntries) throws JournalException {
+        // whatever can fail is done before the sequences are taken: a taken sequence which is never written would end
+        // the journal on the next recovery and take every later record with it
+        UUID[][] uuids = new UUID[ledgerEntries.size()][];
+        for (int i = 0; i < uuids.length; i++) uuids[i] = uuids(ownerLedgerIds.get(i), ledgerEntries.get(i));
+
+        long sequence = reserve(uuids.length);
+        for (int i = 0; i < uuids.length; i++) write(sequence + i, uuids[i], ledgerEntries.get(i));
+
+        return sequence;
+    }
+
+    /**
+     * Appends an abort record: replay skips the given records. For records which have been written but have failed to
+     * be made durable, so they do not come back on the next start
+     *
+     * @param fromSequence first record to skip
+     * @param toSequence last record to skip, inclusive
+     *
+     * @return sequence number of the abort record
+     *
+     * @throws JournalException when a new segment can not be created
+     */
+    public long abort(long fromSequence, long toSequence) throws JournalException {
+        long sequence = reserve(1);
+        MappedByteBuffer segment = segments[(int) (sequence / recordsPerSegment)];
+        int position = (int) (sequence % recordsPerSegment) * RECORD_SIZE;
+
+        segment.putLong(position + 8, fromSequence);
+        segment.putLong(position + 16, toSequence);
+        for (int offset = 24; offset < 120; offset += 8) segment.putLong(position + offset, 0);
+        segment.put(position + 4, ABORT);
+        segment.put(position + 5, (byte) 0);
+        segment.putLong(position + 120, fromSequence ^ toSequence ^ typesChecksum(segment, position));
+        aborted.put(fromSequence, toSequence);
+
+        segment.putInt(position, MARKER);
+        written(sequence);
+
+        return sequence;
+    }
+
+    /**
+     * @param ownerLedgerId ledger the entry belongs to
+     * @param ledgerEntry ledger entry
+     *
+     * @return ids stored in the record, in the record layout order
+     */
+    private static UUID[] uuids(UUID ownerLedgerId, LedgerEntry ledgerEntry) {
+        UUID[] uuids = {
+            ownerLedgerId,
+            ledgerEntry.getId(),
+            ledgerEntry.getGlobalId(),
+            ledgerEntry.getFromLedgerId(),
+            ledgerEntry.getToLedgerId(),
+            ledgerEntry.getCreatedBy()
+        };
+        for (UUID uuid : uuids) {
+            if (uuid == null) throw new IllegalArgumentException("Ledger entry " + ledgerEntry.getId() + " has an empty id");
+        }
+
+        return uuids;
+    }
+
+    /**
+     * Takes a contiguous range of sequences, only once the segments for all of them exist
+     *
+     * @param count number of records
+     *
+     * @return the first sequence of the range
+     *
+     * @throws JournalException when a new segment can not be created, no sequence is taken then
+     */
+    private long reserve(int count) throws JournalException {
+        long sequence;
+        do {
+            sequence = nextSequence.get();
+            segment(sequence + count - 1);
+        } while (!nextSequence.compareAndSet(sequence, sequence + count));
+
+        return sequence;
+    }
+
+    /**
+     * Writes a record into a taken slot
+     *
+     * @param sequence sequence number of the record
+     * @param uuids ids stored in the record
+     * @param ledgerEntry ledger entry
+     */
+    private void write(long sequence, UUID[] uuids, LedgerEntry ledgerEntry) {
+        MappedByteBuffer segment = segments[(int) (sequence / recordsPerSegment)];
+        int position = (int) (sequence % recordsPerSegment) * RECORD_SIZE;
+
+        long checksum = 0;
+        for (int i = 0; i < uuids.length; i++) checksum ^= putUUID(segment, position + 8 + 16 * i, uuids[i]);
+        segment.putLong(position + 104, ledgerEntry.getAmount());
+        segment.putLong(position + 112, ledgerEntry.getCreatedAt());
+        segment.put(position + 4, (byte) ledgerEntry.getType().ordinal());
+        segment.put(position + 5, (byte) ledgerEntry.getSubtype().ordinal());
+        checksum ^= ledgerEntry.getAmount() ^ ledgerEntry.getCreatedAt() ^ typesChecksum(segment, position);
+        segment.putLong(position + 120, checksum);
+
+        // the record becomes visible for the replay only now
+        segment.putInt(position, MARKER);
+        written(sequence);
+    }
+
+    /**
+     * @return every record below this sequence has been written
+     */
+    public long getWrittenSequence() {
+        return writtenSequence;
+    }
+
+    /**
+     * Waits until the given record and every record before it have been written
+     *
+     * @param sequence sequence number of a taken record
+     */
+    public void awaitWritten(long sequence) {
+        if (sequence < writtenSequence) return;
+
+        writtenLock.lock();
+        try {
+            while (sequence >= writtenSequence) writtenAdvanced.awaitUninterruptibly();
+        } finally {
+            writtenLock.unlock();
+        }
+    }
+
+    /**
+     * Advances the written watermark over the given record and the records written ahead of it
+     *
+     * @param sequence sequence number of a written record
+     */
+    private void written(long sequence) {
+        writtenLock.lock();
+        try {
+            if (sequence != writtenSequence) {
+                writtenAhead.add(sequence);
+                return;
+            }
+
+            long watermark = sequence + 1;
+            while (writtenAhead.remove(watermark)) watermark++;
+
+            writtenSequence = watermark;
+            writtenAdvanced.signalAll();
+        } finally {
+            writtenLock.unlock();
+        }
+    }
+
+    /**
+     * Reads all the records in the append order
+     *
+     * @param consumer callback per record
+     *
+     * @throws LedgerException when the callback fails
+     */
+    public void replay(RecordConsumer consumer) throws LedgerException {
+        replay(0, size(), consumer);
+    }
+
+    /**
+     * Reads the given range of records in the append order
+     *
+     * @param fromSequence first record to read
+     * @param toSequence record to stop at, exclusive
+     * @param consumer callback per record
+     *
+     * @throws LedgerException when the callback fails
+     */
+    public void replay(long fromSequence, long toSequence, RecordConsumer consumer) throws LedgerException {
+        long size = Math.min(toSequence, size());
+
+        for (long sequence = fromSequence; sequence < size; sequence++) {
+            MappedByteBuffer segment = segments[(int) (sequence / recordsPerSegment)];
+            int position = (int) (sequence % recordsPerSegment) * RECORD_SIZE;
+
+            if (isSkipped(segment, position, sequence)) continue;
+
+            consumer.accept(getUUID(segment, position + 8), read(segment, position));
+        }
+    }
+
+    /**
+     * Flushes all the mapped segments to the storage device
+     */
+    public void force() {
+        for (MappedByteBuffer segment : segments) segment.force();
+    }
+
+    /**
+     * Flushes the segments holding the given records to the storage device
+     *
+     * @param fromSequence first record to flush
+     * @param toSequence last record to flush, inclusive
+     */
+    public void force(long fromSequence, long toSequence) {
+        if (fromSequence > toSequence) return;
+
+        MappedByteBuffer[] segments = this.segments;
+        int last = Math.min((int) (toSequence / recordsPerSegment), segments.length - 1);
+
+        for (int i = (int) (fromSequence / recordsPerSegment); i <= last; i++) segments[i].force();
+    }
+
+    /**
+     * Finds the first missing or broken record and cleans up everything after it
+     *
+     * @throws IOException when the tail can not be cleaned up
+     */
+    private void recover() throws IOException {
+        MappedByteBuffer[] segments = this.segments;
+        long sequence = 0;
+
+        // find the end, collect the aborted records on the way
+        outer:
+        for (MappedByteBuffer segment : segments) {
+            for (int i = 0; i < recordsPerSegment; i++, sequence++) {
+                int position = i * RECORD_SIZE;
+                if (!isValid(segment, position)) break outer;
+
+                if (segment.get(position + 4) == ABORT) aborted.put(segment.getLong(position + 8), segment.getLong(position + 16));
+            }
+        }
+
+        nextSequence.set(sequence);
+        writtenSequence = sequence;
+
+        // wipe any leftovers of the records written after the first broken one
+        int last = (int) (sequence / recordsPerSegment);
+        if (last < segments.length) {
+            MappedByteBuffer segment = segments[last];
+            for (int i = (int) (sequence % recordsPerSegment); i < recordsPerSegment; i++) {
+                segment.putInt(i * RECORD_SIZE, 0);
+            }
+            segment.force();
+        }
+
+        for (int i = last + 1; i < segments.length; i++) {
+            Files.delete(directory.resolve(fileName(i)));
+        }
+        if (last + 1 < segments.length) this.segments = Arrays.copyOf(segments, last + 1);
+    }
+
+    /**
+     * @param sequence record sequence number
+     *
+     * @return segment for the given record, created if does not exist yet
+     *
+     * @throws JournalException when a new segment can not be created
+     */
+    private MappedByteBuffer segment(long sequence) throws JournalException {
+        int index = (int) (sequence / recordsPerSegment);
+        MappedByteBuffer[] segments = this.segments;
+        if (index < segments.length) return segments[index];
+
+        synchronized (this) {
+            try {
+                while (this.segments.length <= index) map(this.segments.length);
+            } catch (IOException exception) {
+                throw new JournalException("Failed to create journal segment " + fileName(index), exception);
+            }
+
+            return this.segments[index];
+        }
+    }
+
+    /**
+     * Maps the given segment file, creates it if it does not exist
+     *
+     * @param index segment index
+     *
+     * @throws IOException when the file can not be mapped
+     */
+    private synchronized void map(int index) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(fileName(index)).toFile(), "rw")) {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer[] segments = Arrays.copyOf(this.segments, index + 1);
+            segments[index] = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * RECORD_SIZE);
+            this.segments = segments;
+        }
+    }
+
+    /**
+     * @param index segment index
+     *
+     * @return segment file name
+     */
+    private static String fileName(int index) {
+        return String.format("%010d", index) + EXTENSION;
+    }
+
+    /**
+     * @param segment segment
+     * @param position record position
+     * @param sequence record sequence number
+     *
+     * @return true if the record is an abort record or has been aborted
+     */
+    private boolean isSkipped(MappedByteBuffer segment, int position, long sequence) {
+        if (segment.get(position + 4) == ABORT) return true;
+
+        Map.Entry<Long, Long> range = aborted.floorEntry(sequence);
+
+        return (range != null) && (sequence <= range.getValue());
+    }
+
+    /**
+     * @param segment segment
+     * @param position record position
+     *
+     * @return true if the record has been fully written
+     */
+    private static boolean isValid(MappedByteBuffer segment, int position) {
+        if (segment.getInt(position) != MARKER) return false;
+
+        byte type = segment.get(position + 4);
+        byte subtype = segment.get(position + 5);
+        boolean isAbort = (type == ABORT) && (subtype == 0);
+        if (!isAbort && ((type < 0) || (type >= TYPES.length) || (subtype < 0) || (subtype >= SUBTYPES.length))) return false;
+
+        long checksum = typesChecksum(segment, position);
+        for (int offset = 8; offset < 120; offset += 8) checksum ^= segment.getLong(position + offset);
+
+        return checksum == segment.getLong(position + 120);
+    }
+
+    /**
+     * @param segment segment
+     * @param position record position
+     *
+     * @return ledger entry stored in the record
+     */
+    private static LedgerEntry read(MappedByteBuffer segment, int position) {
+        return new LedgerEntry(
+            getUUID(segment, position + 24),
+            getUUID(segment, position + 40),
+            getUUID(segment, position + 56),
+            getUUID(segment, position + 72),
+            segment.getLong(position + 104),
+            TYPES[segment.get(position + 4)],
+            SUBTYPES[segment.get(position + 5)],
+            segment.getLong(position + 112),
+            getUUID(segment, position + 88)
+        );
+    }
+
+    private static long typesChecksum(MappedByteBuffer segment, int position) {
+        return ((long) segment.get(position + 4) << 8) | segment.get(position + 5);
+    }
+
+    private static long putUUID(MappedByteBuffer segment, int position, UUID uuid) {
+        segment.putLong(position, uuid.getMostSignificantBits());
+        segment.putLong(position + 8, uuid.getLeastSignificantBits());
+
+        return uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+    }
+
+    private static UUID getUUID(MappedByteBuffer segment, int position) {
+        return new UUID(segment.getLong(position), segment.getLong(position + 8));
+    }
+}
@@ -0,0 +1,564 @@
+package com.revolut.ledger.Journal;
+
+import com.revolut.ledger.Journal.Exception.JournalException;
+import com.revolut.ledger.LedgerEntry;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Appends records to the journal and makes them durable according to the durability mode. @see DurabilityMode
+ *
+ * In the GROUP mode the first appender which finds no force in progress becomes the leader: it waits for other
+ * appenders up to the latency window (or until the batch is full), forces the journal once and wakes up everyone
+ * whose record has been covered by that force. Others simply wait for the leader.
+ *
+ * Sequences are claimed before the bytes are copied, so a record with a lower sequence may still be in the middle of
+ * its write when a higher one is forced. Recovery stops at the first broken record, so a commit first waits for every
+ * record up to its own to be written (@see Journal::awaitWritten()) and forces from the durable watermark, not from its
+ * own records: an acknowledged record never sits behind a record which is not on the disk. A record is covered only by
+ * a force which has started after the record has been registered, i.e. after its write, and not by any force which has
+ * reached its sequence.
+ */
+public class JournalCommitter {
+    /**
+     * Throughput and latency of the committer, to compare durability modes on a deployment
+     */
+    public static final class Summary {
+        /**
+         * Durability mode
+         */
+        final DurabilityMode mode;
+
+        /**
+         * Number of records appended one by one, with append()
+         */
+        final long appends;
+
+        /**
+         * Number of records written for a batch, with write()
+         */
+        final long writes;
+
+        /**
+         * Number of batch commits, commit() calls
+         */
+        final long commits;
+
+        /**
+         * Number of forces of the journal
+         */
+        final long forces;
+
+        /**
+         * Records per second since the committer has been created
+         */
+        final long recordsPerSecond;
+
+        /**
+         * Average latency of an append, including waiting for the durability, microseconds
+         */
+        final long averageAppendLatencyMicros;
+
+        /**
+         * Maximum latency of an append, microseconds
+         */
+        final long maxAppendLatencyMicros;
+
+        /**
+         * Average latency of a batch commit, microseconds
+         */
+        final long averageCommitLatencyMicros;
+
+        /**
+         * Maximum latency of a batch commit, microseconds
+         */
+        final long maxCommitLatencyMicros;
+
+        /**
+         * @param committer journal committer
+         */
+        Summary(JournalCommitter committer) {
+            this.mode = committer.getMode();
+            this.appends = committer.getAppends();
+            this.writes = committer.getWrites();
+            this.commits = committer.getCommits();
+            this.forces = committer.getForces();
+            this.recordsPerSecond = committer.getRecordsPerSecond();
+            this.averageAppendLatencyMicros = TimeUnit.NANOSECONDS.toMicros(committer.getAverageLatencyNanos());
+            this.maxAppendLatencyMicros = TimeUnit.NANOSECONDS.toMicros(committer.getMaxLatencyNanos());
+            this.averageCommitLatencyMicros = TimeUnit.NANOSECONDS.toMicros(committer.getAverageCommitLatencyNanos());
+            this.maxCommitLatencyMicros = TimeUnit.NANOSECONDS.toMicros(committer.getMaxCommitLatencyNanos());
+        }
+    }
+
+    /**
+     * Journal
+     */
+    private Journal journal;
+
+    /**
+     * Durability mode
+     */
+    private DurabilityMode mode;
+
+    /**
+     * GROUP: for how long the leader collects a batch, nanoseconds.
+     * ASYNC: how often the journal is forced, nanoseconds
+     */
+    private long windowNanos;
+
+    /**
+     * GROUP: the leader does not wait for the window to end when there are that many appenders waiting
+     */
+    private int maxBatch;
+
+    /**
+     * Guards the group commit state
+     */
+    private ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a force has finished
+     */
+    private Condition forced = lock.newCondition();
+
+    /**
+     * Signalled when the batch is full
+     */
+    private Condition batchFull = lock.newCondition();
+
+    /**
+     * Minimum sequence of the written records waiting for a force, Long.MAX_VALUE if none
+     */
+    private long pendingFrom = Long.MAX_VALUE;
+
+    /**
+     * Maximum sequence of the written records waiting for a force, -1 if none
+     */
+    private long pendingTo = -1;
+
+    /**
+     * Number of forces started by the leaders, the generation of the latest one
+     */
+    private long startedForces = 0;
+
+    /**
+     * Generation of the latest successfully finished force, every record registered before it has started is durable
+     */
+    private long finishedForces = 0;
+
+    /**
+     * Number of appenders waiting for a force
+     */
+    private int waiting = 0;
+
+    /**
+     * Whether there is a leader collecting a batch or forcing
+     */
+    private boolean forcing = false;
+
+    /**
+     * Every record below this sequence has been forced after it had been written
+     */
+    private AtomicLong durableSequence;
+
+    /**
+     * ASYNC: background flusher
+     */
+    private ScheduledExecutorService flusher;
+
+    /**
+     * When the committer has been created, System.nanoTime()
+     */
+    private long createdAt = System.nanoTime();
+
+    /**
+     * Number of appends
+     */
+    private LongAdder appends = new LongAdder();
+
+    /**
+     * Number of records written for a batch
+     */
+    private LongAdder writes = new LongAdder();
+
+    /**
+     * Number of batch commits
+     */
+    private LongAdder commits = new LongAdder();
+
+    /**
+     * Number of forces of the journal
+     */
+    private AtomicLong forces = new AtomicLong();
+
+    /**
+     * Total time appends spent in the journal, including waiting for the force, nanoseconds
+     */
+    private LongAdder totalLatencyNanos = new LongAdder();
+
+    /**
+     * Maximum time an append spent in the journal, nanoseconds
+     */
+    private AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Total time batch commits spent waiting for the durability, nanoseconds
+     */
+    private LongAdder totalCommitLatencyNanos = new LongAdder();
+
+    /**
+     * Maximum time a batch commit spent waiting for the durability, nanoseconds
+     */
+    private AtomicLong maxCommitLatencyNanos = new AtomicLong();
+
+    /**
+     * @param journal journal
+     * @param mode durability mode
+     * @param windowMicros GROUP: maximum time to collect a batch, ASYNC: how often to force the journal, microseconds
+     * @param maxBatch GROUP: maximum size of a batch
+     */
+    public JournalCommitter(Journal journal, DurabilityMode mode, long windowMicros, int maxBatch) {
+        this.journal = journal;
+        this.mode = mode;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatch = maxBatch;
+        this.durableSequence = new AtomicLong(journal.getWrittenSequence());
+
+        if (mode == DurabilityMode.ASYNC) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::forceAll, windowNanos, windowNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return journal
+     */
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return durability mode
+     */
+    public DurabilityMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Appends a ledger entry and waits until it is durable according to the durability mode
+     *
+     * @param ownerLedgerId ledger the entry belongs to
+     * @param ledgerEntry ledger entry
+     *
+     * @return sequence number of the record
+     *
+     * @throws JournalException when the entry can not be written
+     */
+    public long append(UUID ownerLedgerId, LedgerEntry ledgerEntry) throws JournalException {
+        long started = System.nanoTime();
+        long sequence = journal.append(ownerLedgerId, ledgerEntry);
+
+        awaitDurable(sequence, sequence);
+
+        long latency = System.nanoTime() - started;
+        appends.increment();
+        totalLatencyNanos.add(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+
+        return sequence;
+    }
+
+    /**
+     * Appends a ledger entry without waiting for it to be durable, commit() has to be called afterwards.
+     * Many entries written this way are made durable with a single commit()
+     *
+     * @param ownerLedgerId ledger the entry belongs to
+     * @param ledgerEntry ledger entry
+     *
+     * @return sequence number of the record
+     *
+     * @throws JournalException when the entry can not be written
+     */
+    public long write(UUID ownerLedgerId, LedgerEntry ledgerEntry) throws JournalException {
+        long sequence = journal.append(ownerLedgerId, ledgerEntry);
+        writes.increment();
+
+        return sequence;
+    }
+
+    /**
+     * Appends ledger entries as a contiguous range of records without waiting for them to be durable, commit() has to
+     * be called afterwards
+     *
+     * @param ownerLedgerIds ledgers the entries belong to
+     * @param ledgerEntries ledger entries
+     *
+     * @return sequence number of the first record
+     *
+     * @throws JournalException when the entries can not be written, none of them is written then
+     */
+    public long write(List<UUID> ownerLedgerIds, List<LedgerEntry> ledgerEntries) throws JournalException {
+        long sequence = journal.append(ownerLedgerIds, ledgerEntries);
+        writes.add(ledgerEntries.size());
+
+        return sequence;
+    }
+
+    /**
+     * Makes replay skip written records which have failed to be committed, waits until the abort is durable according
+     * to the durability mode
+     *
+     * @param fromSequence first one of the written records
+     * @param toSequence last one of the written records, inclusive
+     *
+     * @throws JournalException when the abort can not be written
+     */
+    public void abort(long fromSequence, long toSequence) throws JournalException {
+        long sequence = journal.abort(fromSequence, toSequence);
+        awaitDurable(sequence, sequence);
+    }
+
+    /**
+     * Waits until the given record is durable according to the durability mode
+     *
+     * @param sequence sequence number of an already written record
+     */
+    public void commit(long sequence) {
+        commit(sequence, sequence);
+    }
+
+    /**
+     * Waits until the given records are durable according to the durability mode
+     *
+     * @param fromSequence first one of already written records
+     * @param toSequence last one of already written records, inclusive
+     */
+    public void commit(long fromSequence, long toSequence) {
+        long started = System.nanoTime();
+
+        awaitDurable(fromSequence, toSequence);
+
+        long latency = System.nanoTime() - started;
+        commits.increment();
+        totalCommitLatencyNanos.add(latency);
+        maxCommitLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * @param fromSequence first one of already written records
+     * @param toSequence last one of already written records, inclusive
+     */
+    private void awaitDurable(long fromSequence, long toSequence) {
+        switch (mode) {
+            case SYNC:
+                // records before ours which are still being copied would end the journal on recovery
+                journal.awaitWritten(toSequence);
+                force(fromSequence, toSequence);
+                break;
+
+            case GROUP:
+                journal.awaitWritten(toSequence);
+                groupCommit(fromSequence, toSequence);
+                break;
+
+            case ASYNC:
+                break;
+        }
+    }
+
+    /**
+     * Stops the background flusher, if any, and forces everything written so far
+     */
+    public void close() {
+        if (flusher != null) flusher.shutdown();
+        forceAll();
+    }
+
+    /**
+     * @return number of appends, records written for batches are not included
+     */
+    public long getAppends() {
+        return appends.sum();
+    }
+
+    /**
+     * @return number of records written for batches
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /**
+     * @return number of batch commits
+     */
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    /**
+     * @return appended and written records per second since the committer has been created
+     */
+    public long getRecordsPerSecond() {
+        long elapsed = System.nanoTime() - createdAt;
+        return (elapsed <= 0) ? 0 : (appends.sum() + writes.sum()) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /**
+     * @return number of forces of the journal
+     */
+    public long getForces() {
+        return forces.get();
+    }
+
+    /**
+     * @return average time of an append including waiting for the durability, nanoseconds
+     */
+    public long getAverageLatencyNanos() {
+        long appends = this.appends.sum();
+        return (appends == 0) ? 0 : totalLatencyNanos.sum() / appends;
+    }
+
+    /**
+     * @return maximum time of an append including waiting for the durability, nanoseconds
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+
+    /**
+     * @return average time of a batch commit, nanoseconds
+     */
+    public long getAverageCommitLatencyNanos() {
+        long commits = this.commits.sum();
+        return (commits == 0) ? 0 : totalCommitLatencyNanos.sum() / commits;
+    }
+
+    /**
+     * @return maximum time of a batch commit, nanoseconds
+     */
+    public long getMaxCommitLatencyNanos() {
+        return maxCommitLatencyNanos.get();
+    }
+
+    /**
+     * @return summary of the committer
+     */
+    public Summary summarize() {
+        return new Summary(this);
+    }
+
+    /**
+     * Waits for a shared force covering the given records, leads the batch if there is no leader
+     *
+     * @param fromSequence first one of already written records
+     * @param toSequence last one of already written records, inclusive
+     */
+    private void groupCommit(long fromSequence, long toSequence) {
+        lock.lock();
+        try {
+            if (fromSequence < pendingFrom) pendingFrom = fromSequence;
+            if (toSequence > pendingTo) pendingTo = toSequence;
+
+            // the records have been written already, the next force to start covers them
+            long generation = startedForces + 1;
+            if (++waiting >= maxBatch) batchFull.signal();
+
+            while (finishedForces < generation) {
+                if (forcing) {
+                    forced.awaitUninterruptibly();
+                    continue;
+                }
+
+                // leading the batch
+                forcing = true;
+                try {
+                    long remaining = windowNanos;
+                    try {
+                        while ((waiting < maxBatch) && (remaining > 0)) remaining = batchFull.awaitNanos(remaining);
+                    } catch (InterruptedException exception) {
+                        // stop collecting the batch, but still force it
+                        Thread.currentThread().interrupt();
+                    }
+
+                    // everything registered so far has been written already, so one force covers all of them
+                    long from = pendingFrom;
+                    long to = pendingTo;
+                    long started = ++startedForces;
+                    pendingFrom = Long.MAX_VALUE;
+                    pendingTo = -1;
+
+                    boolean isForced = false;
+                    lock.unlock();
+                    try {
+                        force(from, to);
+                        isForced = true;
+                    } finally {
+                        lock.lock();
+
+                        if (isForced) {
+                            finishedForces = started;
+                        } else {
+                            // the next leader forces these records again
+                            if (from < pendingFrom) pendingFrom = from;
+                            if (to > pendingTo) pendingTo = to;
+                        }
+                    }
+                } finally {
+                    forcing = false;
+                    forced.signalAll();
+                }
+            }
+        } finally {
+            waiting--;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the given written records and everything written before them which is not durable yet
+     *
+     * @param fromSequence first one of already written records
+     * @param toSequence last one of already written records, inclusive
+     */
+    private void force(long fromSequence, long toSequence) {
+        journal.force(Math.min(fromSequence, durableSequence.get()), toSequence);
+        forces.incrementAndGet();
+        durableSequence.accumulateAndGet(toSequence + 1, Math::max);
+    }
+
+    /**
+     * Forces everything written since the previous call
+     */
+    private synchronized void forceAll() {
+        long target = journal.getWrittenSequence() - 1;
+
+        // the segment with the previous end is forced again - records there might have been written after that call
+        force(Math.max(target, 0), target);
+    }
+
+    @Override
+    public String toString() {
+        return mode + ": appends=" + getAppends()
+            + ", writes=" + getWrites()
+            + ", commits=" + getCommits()
+            + ", forces=" + getForces()
+            + ", recordsPerSecond=" + getRecordsPerSecond()
+            + ", avgLatencyUs=" + TimeUnit.NANOSECONDS.toMicros(getAverageLatencyNanos())
+            + ", maxLatencyUs=" + TimeUnit.NANOSECONDS.toMicros(getMaxLatencyNanos())
+            + ", avgCommitLatencyUs=" + TimeUnit.NANOSECONDS.toMicros(getAverageCommitLatencyNanos())
+            + ", maxCommitLatencyUs=" + TimeUnit.NANOSECONDS.toMicros(getMaxCommitLatencyNanos());
+    }
+}
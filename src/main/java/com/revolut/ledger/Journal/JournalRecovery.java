@@ -0,0 +1,277 @@
+package com.revolut.ledger.Journal;
+
+import com.revolut.ledger.Exception.LedgerException;
+import com.revolut.ledger.Journal.Exception.JournalException;
+import com.revolut.ledger.LedgerEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Rebuilds ledgers from the journal in parallel.
+ *
+ * Phases:
+ *  read - segments are decoded in parallel, records of each segment are split by the owner ledger
+ *  replay - ledgers are rebuilt in parallel: their parts are concatenated in the segment order and the replay
+ *           callback (for example balance calculation) is called
+ *  publish - nothing is published until every ledger has been replayed, then all of them are published at once
+ */
+public class JournalRecovery {
+    /**
+     * Called for every recovered ledger, in parallel for different ledgers
+     */
+    public interface LedgerReplay {
+        /**
+         * @param ledgerId ledger id
+         * @param ledgerEntries all entries of the ledger in the append order
+         *
+         * @throws LedgerException
+         */
+        void replay(UUID ledgerId, List<LedgerEntry> ledgerEntries) throws LedgerException;
+    }
+
+    /**
+     * Timings of the recovery phases
+     */
+    public static class Report {
+        private long records;
+        private int ledgers;
+        private int parallelism;
+        private long readNanos;
+        private long replayNanos;
+        private long publishNanos;
+
+        /**
+         * @return number of records read
+         */
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * @return number of ledgers rebuilt
+         */
+        public int getLedgers() {
+            return ledgers;
+        }
+
+        /**
+         * @return time spent reading and splitting records, milliseconds
+         */
+        public long getReadMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(readNanos);
+        }
+
+        /**
+         * @return time spent rebuilding ledgers, milliseconds
+         */
+        public long getReplayMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(replayNanos);
+        }
+
+        /**
+         * @return time spent publishing ledgers, milliseconds
+         */
+        public long getPublishMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(publishNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "records=" + records
+                + ", ledgers=" + ledgers
+                + ", parallelism=" + parallelism
+                + ", readMs=" + getReadMillis()
+                + ", replayMs=" + getReplayMillis()
+                + ", publishMs=" + getPublishMillis();
+        }
+    }
+
+    /**
+     * Action over an index, may fail with a ledger exception
+     */
+    private interface IndexAction {
+        void run(int index) throws LedgerException;
+    }
+
+    /**
+     * Ledgers are replayed in tasks of up to that many ledgers
+     */
+    private static final int LEDGERS_PER_TASK = 64;
+
+    /**
+     * Runs an action for every index in the range splitting the range in halves
+     */
+    private static class RangeTask extends RecursiveAction {
+        private int from;
+        private int to;
+        private int threshold;
+        private IndexAction action;
+        private AtomicReference<LedgerException> failure;
+
+        RangeTask(int from, int to, int threshold, IndexAction action, AtomicReference<LedgerException> failure) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.action = action;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                    new RangeTask(from, middle, threshold, action, failure),
+                    new RangeTask(middle, to, threshold, action, failure)
+                );
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                if (failure.get() != null) return;
+
+                try {
+                    action.run(i);
+                } catch (LedgerException exception) {
+                    failure.compareAndSet(null, exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * Journal
+     */
+    private Journal journal;
+
+    /**
+     * Pool to run the phases on
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * Creates storage for the entries of a ledger
+     */
+    private Supplier<List<LedgerEntry>> ledgerEntriesFactory;
+
+    /**
+     * Timings of the last recovery
+     */
+    private Report report = new Report();
+
+    /**
+     * @param journal journal
+     * @param pool pool to run the phases on
+     * @param ledgerEntriesFactory creates storage for the entries of a ledger
+     */
+    public JournalRecovery(Journal journal, ForkJoinPool pool, Supplier<List<LedgerEntry>> ledgerEntriesFactory) {
+        this.journal = journal;
+        this.pool = pool;
+        this.ledgerEntriesFactory = ledgerEntriesFactory;
+    }
+
+    /**
+     * @return timings of the last recovery
+     */
+    public Report getReport() {
+        return report;
+    }
+
+    /**
+     * Reads the whole journal and rebuilds all the ledgers
+     *
+     * @param ledgerReplay called for every recovered ledger
+     * @param publish called once with entries per ledger id after all the ledgers have been replayed
+     *
+     * @throws LedgerException when the journal can not be read or the callback fails
+     */
+    public void recover(LedgerReplay ledgerReplay, Consumer<Map<UUID, List<LedgerEntry>>> publish) throws LedgerException {
+        long size = journal.size();
+        int recordsPerSegment = journal.getRecordsPerSegment();
+        int segments = (int) ((size + recordsPerSegment - 1) / recordsPerSegment);
+
+        report = new Report();
+        report.records = size;
+        report.parallelism = pool.getParallelism();
+
+        // read: records of every segment split by ledger
+        long started = System.nanoTime();
+        List<Map<UUID, List<LedgerEntry>>> parts = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) parts.add(new HashMap<>());
+
+        run(segments, 1, segment -> {
+            Map<UUID, List<LedgerEntry>> part = parts.get(segment);
+            long from = (long) segment * recordsPerSegment;
+
+            journal.replay(from, from + recordsPerSegment, (ownerLedgerId, ledgerEntry) ->
+                part.computeIfAbsent(ownerLedgerId, ledgerId -> new ArrayList<>()).add(ledgerEntry)
+            );
+        });
+
+        Set<UUID> ledgerIdsSet = new HashSet<>();
+        for (Map<UUID, List<LedgerEntry>> part : parts) ledgerIdsSet.addAll(part.keySet());
+        List<UUID> ledgerIds = new ArrayList<>(ledgerIdsSet);
+        report.readNanos = System.nanoTime() - started;
+
+        // replay: ledgers are rebuilt independently
+        started = System.nanoTime();
+        List<List<LedgerEntry>> rebuilt = new ArrayList<>(ledgerIds.size());
+        for (int i = 0; i < ledgerIds.size(); i++) rebuilt.add(null);
+
+        run(ledgerIds.size(), LEDGERS_PER_TASK, index -> {
+            UUID ledgerId = ledgerIds.get(index);
+            List<LedgerEntry> ledgerEntries = ledgerEntriesFactory.get();
+
+            for (Map<UUID, List<LedgerEntry>> part : parts) {
+                List<LedgerEntry> partEntries = part.get(ledgerId);
+                if (partEntries != null) ledgerEntries.addAll(partEntries);
+            }
+
+            ledgerReplay.replay(ledgerId, ledgerEntries);
+            rebuilt.set(index, ledgerEntries);
+        });
+
+        Map<UUID, List<LedgerEntry>> ledgersEntries = new HashMap<>();
+        for (int i = 0; i < ledgerIds.size(); i++) ledgersEntries.put(ledgerIds.get(i), rebuilt.get(i));
+        report.ledgers = ledgerIds.size();
+        report.replayNanos = System.nanoTime() - started;
+
+        // publish: all at once
+        started = System.nanoTime();
+        publish.accept(ledgersEntries);
+        report.publishNanos = System.nanoTime() - started;
+    }
+
+    /**
+     * Runs the action for every index in [0, count) on the pool and waits for all of them
+     *
+     * @param count number of indexes
+     * @param threshold maximum number of indexes per task
+     * @param action action per index
+     *
+     * @throws LedgerException the first failure of the action
+     */
+    private void run(int count, int threshold, IndexAction action) throws LedgerException {
+        AtomicReference<LedgerException> failure = new AtomicReference<>();
+
+        try {
+            pool.invoke(new RangeTask(0, count, threshold, action, failure));
+        } catch (RuntimeException exception) {
+            throw new JournalException("Failed to recover the journal", exception);
+        }
+
+        if (failure.get() != null) throw failure.get();
+    }
+}
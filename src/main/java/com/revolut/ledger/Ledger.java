@@ -1,8 +1,8 @@
 package com.revolut.ledger;
 
+import com.revolut.ledger.Exception.LedgerException;
 import com.revolut.ledger.Transaction.CreditTransaction;
 import com.revolut.ledger.Transaction.DebitTransaction;
-import com.revolut.ledger.Transaction.Exception.TransactionException;
 import com.revolut.ledger.Transaction.Exception.UnknownSubtypeException;
 import com.revolut.ledger.Transaction.Transaction;
 
@@ -46,6 +46,12 @@ public class Ledger {
      */
     private Balance balance;
 
+    /**
+     * Balance built from the ledger entries seen so far.
+     * Keeps the number of applied entries so only newly appended ones have to be applied
+     */
+    private BalanceSnapshot snapshot = new BalanceSnapshot();
+
     /**
      * @param ledgerService ledger service. Ledger object will apply operations in the Ledger immediately
      * @param id unique id
@@ -69,27 +75,61 @@ public class Ledger {
     }
 
     /**
-     * Recalculates ledger balance, for example, when just loading ledger entries
+     * @return ledger type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return ledger owner
+     */
+    public UUID getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * Recalculates ledger balance, for example, when just loading ledger entries.
+     * Only the entries appended since the previous call are applied
      *
-     * @param ledgerEntries ledger entries for this ledger
+     * @param ledgerEntries ledger entries for this ledger, in the append order
      *
      * @throws UnknownSubtypeException
      */
     public void updateBalance(List<LedgerEntry> ledgerEntries) throws UnknownSubtypeException {
-        balance.actual = balance.obligating = balance.receiving = 0;
+        snapshot.catchUp(ledgerEntries);
+        balance.set(snapshot.getBalance());
+    }
 
-        // go thru all ledger entries and update the balance accordingly
-        for (LedgerEntry ledgerEntry : ledgerEntries) {
-            switch (ledgerEntry.getType()) {
-                case DEBIT:
-                    balance.updateDebit(ledgerEntry.getSubtype(), ledgerEntry.getAmount());
-                    break;
+    /**
+     * Recalculates ledger balance from a checkpoint and the entries appended after it.
+     * Only the entries not seen by the previous call are applied
+     *
+     * @param checkpoint balance of the entries before the given ones
+     * @param ledgerEntries ledger entries appended after the checkpoint, in the append order
+     *
+     * @throws UnknownSubtypeException
+     */
+    public void updateBalance(BalanceSnapshot checkpoint, List<LedgerEntry> ledgerEntries) throws UnknownSubtypeException {
+        if (snapshot.getOffset() < checkpoint.getOffset()) snapshot = checkpoint.copy();
+
+        snapshot.catchUp(ledgerEntries, checkpoint.getOffset());
+        balance.set(snapshot.getBalance());
+    }
+
+    /**
+     * Checks the incrementally built balance against a full replay of the ledger entries
+     *
+     * @param ledgerEntries ledger entries for this ledger, in the append order
+     *
+     * @return true if the full replay of the entries seen so far gives the same balance
+     *
+     * @throws UnknownSubtypeException
+     */
+    public boolean verifyBalance(List<LedgerEntry> ledgerEntries) throws UnknownSubtypeException {
+        BalanceSnapshot replayed = BalanceSnapshot.replay(ledgerEntries.subList(0, snapshot.getOffset()));
 
-                case CREDIT:
-                    balance.updateCredit(ledgerEntry.getSubtype(), ledgerEntry.getAmount());
-                    break;
-            }
-        }
+        return replayed.getBalance().equals(snapshot.getBalance());
     }
 
     /**
@@ -108,10 +148,25 @@ public class Ledger {
      *
      * @return new debit transaction
      */
-    public DebitTransaction createDebitTransaction(UUID createdBy, Ledger to, long amount) throws UnknownSubtypeException {
+    public DebitTransaction createDebitTransaction(UUID createdBy, Ledger to, long amount) throws LedgerException {
+        return createDebitTransaction(createdBy, to, amount, LedgerService.UNFENCED);
+    }
+
+    /**
+     * Creates new debit transaction (DEBIT ledger entry with the OBLIGATING subtype) under an account lock
+     *
+     * @param createdBy who requested this transaction
+     * @param to ledger of the target
+     * @param amount transaction amount
+     * @param fencingToken fencing token of the account lock
+     *
+     * @return new debit transaction
+     */
+    public DebitTransaction createDebitTransaction(UUID createdBy, Ledger to, long amount, long fencingToken) throws LedgerException {
         DebitTransaction debitTransaction = new DebitTransaction(
             ledgerService.initiateTransaction(
-                    id, to.id, id, UUID.randomUUID(), amount, LedgerEntry.Type.DEBIT, LedgerEntry.Subtype.OBLIGATION, createdBy
+                    id, to.id, id, UUID.randomUUID(), amount, LedgerEntry.Type.DEBIT, LedgerEntry.Subtype.OBLIGATION, createdBy,
+                    fencingToken
             )
         );
 
@@ -129,10 +184,11 @@ public class Ledger {
      *
      * @return new credit transaction
      */
-    public CreditTransaction createCreditTransaction(UUID createdBy, Ledger from, long amount, UUID globalId) throws UnknownSubtypeException {
+    public CreditTransaction createCreditTransaction(UUID createdBy, Ledger from, long amount, UUID globalId) throws LedgerException {
         CreditTransaction creditTransaction = new CreditTransaction(
             ledgerService.initiateTransaction(
-                from.getId(), id, id, globalId, amount, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.RECEIVING, createdBy
+                from.getId(), id, id, globalId, amount, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.RECEIVING, createdBy,
+                LedgerService.UNFENCED
             )
         );
 
@@ -145,8 +201,18 @@ public class Ledger {
      *
      * @param transaction transaction
      */
-    public void completeTransaction(Transaction transaction) throws TransactionException {
-        LedgerEntry ledgerEntry = ledgerService.completeTransaction(transaction);
+    public void completeTransaction(Transaction transaction) throws LedgerException {
+        completeTransaction(transaction, LedgerService.UNFENCED);
+    }
+
+    /**
+     * Finishes a successful transaction (creates a ledger entry with the ACTUAL subtype) under an account lock
+     *
+     * @param transaction transaction
+     * @param fencingToken fencing token of the account lock
+     */
+    public void completeTransaction(Transaction transaction, long fencingToken) throws LedgerException {
+        LedgerEntry ledgerEntry = ledgerService.completeTransaction(transaction, fencingToken);
         transaction.updateBalance(balance, ledgerEntry.getSubtype(), ledgerEntry.getAmount());
     }
 
@@ -155,8 +221,18 @@ public class Ledger {
      *
      * @param transaction transaction to cancel
      */
-    public void cancelTransaction(Transaction transaction) throws TransactionException {
-        LedgerEntry ledgerEntry = ledgerService.cancelTransaction(transaction);
+    public void cancelTransaction(Transaction transaction) throws LedgerException {
+        cancelTransaction(transaction, LedgerService.UNFENCED);
+    }
+
+    /**
+     * Cancels transaction under an account lock
+     *
+     * @param transaction transaction to cancel
+     * @param fencingToken fencing token of the account lock
+     */
+    public void cancelTransaction(Transaction transaction, long fencingToken) throws LedgerException {
+        LedgerEntry ledgerEntry = ledgerService.cancelTransaction(transaction, fencingToken);
         transaction.updateBalance(balance, ledgerEntry.getSubtype(), ledgerEntry.getAmount());
     }
 }
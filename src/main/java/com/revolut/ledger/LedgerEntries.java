@@ -0,0 +1,291 @@
+package com.revolut.ledger;
+
+import com.revolut.ledger.Transaction.Exception.UnknownSubtypeException;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Entries of a single ledger split into settled and in-flight parts.
+ *
+ * New entries are appended to the lock-free LedgerEntryLog, so many threads can append to the same ledger at once
+ * (for example concurrent credits of a popular receiver). Compaction folds the entries appended since the previous
+ * compaction into the checkpoint balance, copies them into an immutable settled segment and releases them from the log,
+ * so a balance read only has to apply the entries appended after the last compaction. Transactions which have been
+ * initiated but neither completed nor cancelled yet are additionally kept in the in-flight index by their global id.
+ *
+ * Appends do not take any lock, reads and compaction are serialized between themselves.
+ */
+public class LedgerEntries {
+    /**
+     * Creates storage for the settled segments
+     */
+    private Supplier<List<LedgerEntry>> ledgerEntriesFactory;
+
+    /**
+     * Sealed immutable segments of entries, in the append order
+     */
+    private List<List<LedgerEntry>> settled = new ArrayList<>();
+
+    /**
+     * Number of the first entry of every settled segment
+     */
+    private int[] settledStarts = new int[0];
+
+    /**
+     * Entries appended after the construction, the older ones are released on compaction
+     */
+    private LedgerEntryLog log = new LedgerEntryLog();
+
+    /**
+     * Number of the first entry of the log
+     */
+    private int logBase;
+
+    /**
+     * Balance of all the settled entries
+     */
+    private BalanceSnapshot checkpoint = new BalanceSnapshot();
+
+    /**
+     * Initial entries of the in-flight transactions, by global id
+     */
+    private Map<UUID, LedgerEntry> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param ledgerEntriesFactory creates storage for the settled segments
+     */
+    public LedgerEntries(Supplier<List<LedgerEntry>> ledgerEntriesFactory) {
+        this.ledgerEntriesFactory = ledgerEntriesFactory;
+    }
+
+    /**
+     * @param ledgerEntriesFactory creates storage for the settled segments
+     * @param ledgerEntries already existing entries, become the first settled segment
+     *
+     * @throws UnknownSubtypeException
+     */
+    public LedgerEntries(Supplier<List<LedgerEntry>> ledgerEntriesFactory, List<LedgerEntry> ledgerEntries) throws UnknownSubtypeException {
+        this(ledgerEntriesFactory);
+
+        for (LedgerEntry ledgerEntry : ledgerEntries) track(ledgerEntry);
+
+        if (!ledgerEntries.isEmpty()) {
+            checkpoint = BalanceSnapshot.replay(ledgerEntries);
+            seal(0, ledgerEntries);
+            logBase = ledgerEntries.size();
+        }
+    }
+
+    /**
+     * Safe to call from many threads, does not block
+     *
+     * @param ledgerEntry new entry
+     *
+     * @return number of the entry in the ledger
+     */
+    public int append(LedgerEntry ledgerEntry) {
+        int index = logBase + log.append(ledgerEntry);
+        track(ledgerEntry);
+
+        return index;
+    }
+
+    /**
+     * @param index number of the entry in the ledger
+     *
+     * @return the entry
+     */
+    public synchronized LedgerEntry get(int index) {
+        if (index >= checkpoint.getOffset()) return log.get(index - logBase);
+        if (index < 0) throw new IndexOutOfBoundsException("Index: " + index);
+
+        int segment = Arrays.binarySearch(settledStarts, 0, settled.size(), index);
+        if (segment < 0) segment = -segment - 2;
+
+        return settled.get(segment).get(index - settledStarts[segment]);
+    }
+
+    /**
+     * @return total number of entries
+     */
+    public int size() {
+        return logBase + log.size();
+    }
+
+    /**
+     * @return number of the entries appended after the last compaction
+     */
+    public synchronized int getHotSize() {
+        return size() - checkpoint.getOffset();
+    }
+
+    /**
+     * @return initial entries of the in-flight transactions
+     */
+    public List<LedgerEntry> getInFlight() {
+        return new ArrayList<>(inFlight.values());
+    }
+
+    /**
+     * @param globalId global transaction id
+     *
+     * @return true if the transaction has been initiated in this ledger but neither completed nor cancelled yet
+     */
+    public boolean isInFlight(UUID globalId) {
+        return inFlight.containsKey(globalId);
+    }
+
+    /**
+     * @return all the entries, in the append order. A read-only view, it does not see entries appended later
+     */
+    public synchronized List<LedgerEntry> getAll() {
+        List<LedgerEntry> hot = log.snapshot(checkpoint.getOffset() - logBase);
+
+        return new History(new ArrayList<>(settled), hot, hot.size());
+    }
+
+    /**
+     * Brings the ledger balance up to date, only the entries appended after the checkpoint are applied
+     *
+     * @param ledger ledger of these entries
+     *
+     * @throws UnknownSubtypeException
+     */
+    public synchronized void updateBalance(Ledger ledger) throws UnknownSubtypeException {
+        ledger.updateBalance(checkpoint, log.snapshot(checkpoint.getOffset() - logBase));
+    }
+
+    /**
+     * Brings the balance of a new ledger up to date with these entries followed by entries which are not appended yet
+     *
+     * @param ledger new ledger of these entries, its balance has never been updated
+     * @param pending entries to apply after these ones
+     *
+     * @throws UnknownSubtypeException
+     */
+    public synchronized void updateBalance(Ledger ledger, List<LedgerEntry> pending) throws UnknownSubtypeException {
+        List<LedgerEntry> hot = log.snapshot(checkpoint.getOffset() - logBase);
+        List<LedgerEntry> all = new ArrayList<>(hot.size() + pending.size());
+        all.addAll(hot);
+        all.addAll(pending);
+
+        ledger.updateBalance(checkpoint, all);
+    }
+
+    /**
+     * Folds the entries appended since the previous compaction into the checkpoint, seals them as a settled segment
+     * and releases them from the log
+     *
+     * @param minEntries do nothing if there are fewer new entries, to not produce tiny segments
+     *
+     * @return number of folded entries
+     *
+     * @throws UnknownSubtypeException
+     */
+    public synchronized int compact(int minEntries) throws UnknownSubtypeException {
+        List<LedgerEntry> hot = log.snapshot(checkpoint.getOffset() - logBase);
+        int size = hot.size();
+        if ((size == 0) || (size < minEntries)) return 0;
+
+        List<LedgerEntry> segment = ledgerEntriesFactory.get();
+        segment.addAll(hot);
+
+        BalanceSnapshot folded = checkpoint.copy();
+        folded.catchUp(segment, checkpoint.getOffset());
+
+        seal(checkpoint.getOffset(), segment);
+        checkpoint = folded;
+        log.release(checkpoint.getOffset() - logBase);
+
+        return size;
+    }
+
+    /**
+     * Adds a settled segment
+     *
+     * @param start number of the first entry of the segment
+     * @param segment entries to seal
+     */
+    private void seal(int start, List<LedgerEntry> segment) {
+        if (settledStarts.length == settled.size()) settledStarts = Arrays.copyOf(settledStarts, settled.size() * 2 + 1);
+        settledStarts[settled.size()] = start;
+        settled.add(Collections.unmodifiableList(segment));
+    }
+
+    /**
+     * Updates the in-flight index
+     *
+     * @param ledgerEntry new entry
+     */
+    private void track(LedgerEntry ledgerEntry) {
+        switch (ledgerEntry.getSubtype()) {
+            case OBLIGATION:
+            case RECEIVING:
+                inFlight.put(ledgerEntry.getGlobalId(), ledgerEntry);
+                break;
+
+            case ACTUAL:
+            case CANCEL:
+                inFlight.remove(ledgerEntry.getGlobalId());
+                break;
+        }
+    }
+
+    /**
+     * Settled segments followed by the hot entries
+     */
+    private static class History extends AbstractList<LedgerEntry> {
+        private List<List<LedgerEntry>> segments;
+
+        /**
+         * Number of the first entry of every segment
+         */
+        private int[] starts;
+
+        private int size;
+
+        /**
+         * @param settled settled segments
+         * @param hot hot entries
+         * @param hotSize number of the hot entries to include
+         */
+        History(List<List<LedgerEntry>> settled, List<LedgerEntry> hot, int hotSize) {
+            this.segments = settled;
+            this.segments.add(hot);
+            this.starts = new int[segments.size()];
+
+            for (int i = 0; i < segments.size() - 1; i++) {
+                starts[i] = size;
+                size += segments.get(i).size();
+            }
+            starts[segments.size() - 1] = size;
+            size += hotSize;
+        }
+
+        @Override
+        public LedgerEntry get(int index) {
+            if ((index < 0) || (index >= size)) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+            int segment = Arrays.binarySearch(starts, index);
+            if (segment < 0) segment = -segment - 2;
+
+            // skip empty segments starting at the same index
+            while ((segment + 1 < starts.length) && (starts[segment + 1] == index)) segment++;
+
+            return segments.get(segment).get(index - starts[segment]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -102,6 +102,13 @@ public class LedgerEntry {
         this.createdBy = createdBy;
     }
 
+    /**
+     * @return unique id
+     */
+    public UUID getId() {
+        return id;
+    }
+
     /**
      * @return global transaction id, unique across the relevant entries
      */
@@ -145,7 +152,14 @@ public class LedgerEntry {
     }
 
     /**
-     * @return Timestamp of creation, milliseconds
+     * @return timestamp of creation, milliseconds
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return who requested this transaction
      */
     public UUID getCreatedBy() {
         return this.createdBy;
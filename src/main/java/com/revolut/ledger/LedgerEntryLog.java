@@ -0,0 +1,262 @@
+package com.revolut.ledger;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of ledger entries for many concurrent writers.
+ *
+ * A writer claims the next index with a single atomic increment and publishes the entry by storing it into its slot.
+ * Writers never wait for each other: the size is a watermark over the gap-free prefix of published slots, moved by
+ * whichever writer finds the next slot published, so readers always see a gap-free prefix of the log and never an empty
+ * slot, while a stalled writer only holds the watermark back. Entries are stored in fixed size chunks, a new chunk is
+ * allocated under a lock once per CHUNK_SIZE appends - all the other appends do not take any lock. Chunks can be
+ * released once the entries have been copied somewhere else, @see release()
+ */
+public class LedgerEntryLog {
+    /**
+     * log2 of the number of entries per chunk
+     */
+    static final int CHUNK_SHIFT = 10;
+
+    /**
+     * Entries per chunk
+     */
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    /**
+     * Position of an entry in the chunk
+     */
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Chunks of entries, a slot is null until its entry is published, released chunks are null. Replaced as a whole on
+     * any change
+     */
+    private volatile AtomicReferenceArray<LedgerEntry>[] chunks = newChunks(0);
+
+    /**
+     * Guards chunks allocation and release
+     */
+    private ReentrantLock chunksLock = new ReentrantLock();
+
+    /**
+     * Next index to claim
+     */
+    private AtomicInteger claimed = new AtomicInteger();
+
+    /**
+     * Number of entries in the gap-free prefix of published slots, all the entries before it are readable
+     */
+    private AtomicInteger published = new AtomicInteger();
+
+    /**
+     * Number of released chunks
+     */
+    private int released;
+
+    /**
+     * Appends an entry. Safe to call from many threads, does not wait for the other writers
+     *
+     * @param ledgerEntry new entry
+     *
+     * @return index of the entry, readable with get() right away. It is counted in size() once every entry before it
+     *         is published as well
+     */
+    public int append(LedgerEntry ledgerEntry) {
+        int index = claim();
+        publish(index, ledgerEntry);
+
+        return index;
+    }
+
+    /**
+     * @return index of a new slot, it holds the readers back until publish() is called for it
+     */
+    int claim() {
+        return claimed.getAndIncrement();
+    }
+
+    /**
+     * @param index claimed slot
+     * @param ledgerEntry entry to publish into the slot
+     */
+    void publish(int index, LedgerEntry ledgerEntry) {
+        chunk(index >>> CHUNK_SHIFT).set(index & CHUNK_MASK, ledgerEntry);
+
+        advance();
+    }
+
+    /**
+     * Moves the watermark over the published slots. A writer which finds the previous slot empty leaves its own one to
+     * the previous writer, which comes here after publishing and finds it published
+     */
+    private void advance() {
+        int size = published.get();
+
+        while (size < claimed.get()) {
+            AtomicReferenceArray<LedgerEntry>[] directory = chunks;
+            int chunk = size >>> CHUNK_SHIFT;
+            if ((chunk >= directory.length) || (directory[chunk] == null) || (directory[chunk].get(size & CHUNK_MASK) == null)) return;
+
+            published.compareAndSet(size, size + 1);
+            size = published.get();
+        }
+    }
+
+    /**
+     * @return number of entries in the gap-free prefix of published ones
+     */
+    public int size() {
+        return published.get();
+    }
+
+    /**
+     * @param index entry index
+     *
+     * @return published entry, possibly past the gap-free prefix
+     */
+    public LedgerEntry get(int index) {
+        // the size is read before the chunks: a chunk of an entry below it has been allocated by then
+        int size = published.get();
+        if ((index < 0) || (index >= claimed.get())) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+        AtomicReferenceArray<LedgerEntry>[] directory = chunks;
+        int chunk = index >>> CHUNK_SHIFT;
+        LedgerEntry ledgerEntry = null;
+        if ((chunk < directory.length) && (directory[chunk] != null)) {
+            ledgerEntry = directory[chunk].get(index & CHUNK_MASK);
+        } else if (index < size) {
+            // only chunks of the gap-free prefix are released
+            throw new IllegalStateException("Entry " + index + " has been released");
+        }
+
+        if (ledgerEntry == null) throw new IndexOutOfBoundsException("Entry " + index + " has not been published yet");
+
+        return ledgerEntry;
+    }
+
+    /**
+     * @param from index of the first entry, must not be released
+     *
+     * @return read-only view of the entries published so far starting from the given one. Stays readable after
+     *         the entries are released, does not see entries appended later
+     */
+    public List<LedgerEntry> snapshot(int from) {
+        int to = published.get();
+        AtomicReferenceArray<LedgerEntry>[] directory = chunks;
+
+        int firstChunk = from >>> CHUNK_SHIFT;
+        int lastChunk = (to == from) ? firstChunk - 1 : (to - 1) >>> CHUNK_SHIFT;
+        AtomicReferenceArray<LedgerEntry>[] captured = newChunks(Math.max(lastChunk - firstChunk + 1, 0));
+
+        for (int i = 0; i < captured.length; i++) {
+            captured[i] = directory[firstChunk + i];
+            if (captured[i] == null) throw new IllegalStateException("Entry " + ((firstChunk + i) << CHUNK_SHIFT) + " has been released");
+        }
+
+        return new Snapshot(captured, from, to);
+    }
+
+    /**
+     * Drops the chunks which contain only entries before the given index. Such entries can not be read anymore,
+     * except through already taken snapshots
+     *
+     * @param upTo index of the first entry to keep, must not be greater than the number of published entries
+     */
+    public void release(int upTo) {
+        int size = published.get();
+        if (upTo > size) throw new IllegalArgumentException("Can not release " + upTo + " entries, only " + size + " are published");
+
+        chunksLock.lock();
+
+        try {
+            int fullChunks = upTo >>> CHUNK_SHIFT;
+            if (fullChunks <= released) return;
+
+            AtomicReferenceArray<LedgerEntry>[] directory = chunks.clone();
+            for (int i = released; i < fullChunks; i++) directory[i] = null;
+
+            chunks = directory;
+            released = fullChunks;
+        } finally {
+            chunksLock.unlock();
+        }
+    }
+
+    /**
+     * @param chunk chunk number
+     *
+     * @return the chunk, allocated if needed
+     */
+    private AtomicReferenceArray<LedgerEntry> chunk(int chunk) {
+        AtomicReferenceArray<LedgerEntry>[] directory = chunks;
+        if ((chunk < directory.length) && (directory[chunk] != null)) return directory[chunk];
+
+        chunksLock.lock();
+
+        try {
+            directory = chunks;
+            if ((chunk < directory.length) && (directory[chunk] != null)) return directory[chunk];
+
+            directory = Arrays.copyOf(directory, (chunk < directory.length) ? directory.length : Math.max(chunk + 1, directory.length * 2));
+            for (int i = released; i <= chunk; i++) {
+                if (directory[i] == null) directory[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+            }
+
+            chunks = directory;
+
+            return directory[chunk];
+        } finally {
+            chunksLock.unlock();
+        }
+    }
+
+    /**
+     * @param length number of chunks
+     *
+     * @return new directory of chunks
+     */
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<LedgerEntry>[] newChunks(int length) {
+        return (AtomicReferenceArray<LedgerEntry>[]) new AtomicReferenceArray[length];
+    }
+
+    /**
+     * Published entries in a range, holds the chunks it reads from
+     */
+    private static class Snapshot extends AbstractList<LedgerEntry> {
+        private AtomicReferenceArray<LedgerEntry>[] chunks;
+        private int from;
+        private int size;
+
+        /**
+         * @param chunks chunks of the range, the first one contains the first entry
+         * @param from index of the first entry
+         * @param to index after the last entry
+         */
+        Snapshot(AtomicReferenceArray<LedgerEntry>[] chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.size = to - from;
+        }
+
+        @Override
+        public LedgerEntry get(int index) {
+            if ((index < 0) || (index >= size)) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+            int absolute = from + index;
+
+            return chunks[(absolute >>> CHUNK_SHIFT) - (from >>> CHUNK_SHIFT)].get(absolute & CHUNK_MASK);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
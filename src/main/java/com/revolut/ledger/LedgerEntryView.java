@@ -0,0 +1,140 @@
+package com.revolut.ledger;
+
+import java.util.UUID;
+
+/**
+ * Reusable read-only flyweight over an entry of PackedLedgerEntries. @see PackedLedgerEntries.view()
+ *
+ * Reads like LedgerEntry. Primitive getters do not allocate, UUID getters create a UUID object - use
+ * the most/least significant bits getters on hot paths.
+ */
+public class LedgerEntryView {
+    /**
+     * Fields of the chunk the entry belongs to
+     */
+    private long[] fields;
+
+    /**
+     * Types of the chunk the entry belongs to
+     */
+    private byte[] types;
+
+    /**
+     * Position of the entry in the chunk
+     */
+    private int position;
+
+    /**
+     * @param entries packed entries
+     * @param index entry index
+     */
+    void moveTo(PackedLedgerEntries entries, int index) {
+        fields = entries.fields[index / PackedLedgerEntries.CHUNK_SIZE];
+        types = entries.types[index / PackedLedgerEntries.CHUNK_SIZE];
+        position = index % PackedLedgerEntries.CHUNK_SIZE;
+    }
+
+    /**
+     * @return unique id
+     */
+    public UUID getId() {
+        return uuid(PackedLedgerEntries.ID);
+    }
+
+    /**
+     * @return most significant bits of the global transaction id
+     */
+    public long getGlobalIdMostSignificantBits() {
+        return fields[position * PackedLedgerEntries.STRIDE + PackedLedgerEntries.GLOBAL_ID];
+    }
+
+    /**
+     * @return least significant bits of the global transaction id
+     */
+    public long getGlobalIdLeastSignificantBits() {
+        return fields[position * PackedLedgerEntries.STRIDE + PackedLedgerEntries.GLOBAL_ID + 1];
+    }
+
+    /**
+     * @return global transaction id, unique across the relevant entries
+     */
+    public UUID getGlobalId() {
+        return uuid(PackedLedgerEntries.GLOBAL_ID);
+    }
+
+    /**
+     * @return ledger id of the source
+     */
+    public UUID getFromLedgerId() {
+        return uuid(PackedLedgerEntries.FROM_LEDGER_ID);
+    }
+
+    /**
+     * @return ledger id of the target
+     */
+    public UUID getToLedgerId() {
+        return uuid(PackedLedgerEntries.TO_LEDGER_ID);
+    }
+
+    /**
+     * @return who requested this transaction
+     */
+    public UUID getCreatedBy() {
+        return uuid(PackedLedgerEntries.CREATED_BY);
+    }
+
+    /**
+     * @return transaction amount
+     */
+    public long getAmount() {
+        return fields[position * PackedLedgerEntries.STRIDE + PackedLedgerEntries.AMOUNT];
+    }
+
+    /**
+     * @return timestamp of creation, milliseconds
+     */
+    public long getCreatedAt() {
+        return fields[position * PackedLedgerEntries.STRIDE + PackedLedgerEntries.CREATED_AT];
+    }
+
+    /**
+     * @return type
+     */
+    public LedgerEntry.Type getType() {
+        return PackedLedgerEntries.TYPES[types[position * 2]];
+    }
+
+    /**
+     * @return subtype
+     */
+    public LedgerEntry.Subtype getSubtype() {
+        return PackedLedgerEntries.SUBTYPES[types[position * 2 + 1]];
+    }
+
+    /**
+     * @return a new ledger entry object with the same fields
+     */
+    public LedgerEntry toLedgerEntry() {
+        return new LedgerEntry(
+            getId(),
+            getGlobalId(),
+            getFromLedgerId(),
+            getToLedgerId(),
+            getAmount(),
+            getType(),
+            getSubtype(),
+            getCreatedAt(),
+            getCreatedBy()
+        );
+    }
+
+    /**
+     * @param field index of the most significant bits field
+     *
+     * @return UUID stored in the field
+     */
+    private UUID uuid(int field) {
+        int offset = position * PackedLedgerEntries.STRIDE + field;
+        return new UUID(fields[offset], fields[offset + 1]);
+    }
+}
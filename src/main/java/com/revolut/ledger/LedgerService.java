@@ -1,14 +1,22 @@
 package com.revolut.ledger;
 
+import com.revolut.ledger.Exception.LedgerException;
 import com.revolut.ledger.Transaction.Exception.TransactionException;
 import com.revolut.ledger.Transaction.Transaction;
+import com.revolut.ledger.Transaction.TransactionState;
 
+import java.util.List;
 import java.util.UUID;
 
 /**
  * Ledger service to manage ledgers
  */
 public interface LedgerService {
+    /**
+     * Fencing token of writes which are not done under an account lock
+     */
+    long UNFENCED = 0;
+
     /**
      * @param accountId account id
      *
@@ -18,6 +26,20 @@ public interface LedgerService {
      */
     Ledger getByAccountId(UUID accountId) throws TransactionException;
 
+    /**
+     * @param globalId global transaction id
+     *
+     * @return all the ledger entries of the transaction across the relevant ledgers, empty if there are none
+     */
+    List<LedgerEntry> getByGlobalId(UUID globalId);
+
+    /**
+     * @param globalId global transaction id
+     *
+     * @return state of the transaction
+     */
+    TransactionState getTransactionState(UUID globalId);
+
     /**
      * @param fromLedgerId ledger id of the source
      * @param toLedgerId ledger id of the target
@@ -27,8 +49,12 @@ public interface LedgerService {
      * @param type type of the transaction. @see LedgerEntry.Type
      * @param subtype subtype of the ledger entry. @see LedgerEntry.Subtype
      * @param createdBy who requested this transaction
+     * @param fencingToken fencing token of the account lock the write is done under, UNFENCED if none
      *
      * @return initial transaction
+     *
+     * @throws LedgerException when the entry can not be stored or the fencing token is stale. TransactionNotInFlightException
+     *         when the transaction has been completed or cancelled already
      */
     LedgerEntry initiateTransaction(
         UUID fromLedgerId,
@@ -38,24 +64,50 @@ public interface LedgerService {
         long amount,
         LedgerEntry.Type type,
         LedgerEntry.Subtype subtype,
-        UUID createdBy
-    );
+        UUID createdBy,
+        long fencingToken
+    ) throws LedgerException;
 
     /**
      * Complete transaction
      *
      * @param transaction original transaction
+     * @param fencingToken fencing token of the account lock the write is done under, UNFENCED if none
      *
      * @return the second stage of a successful transaction
+     *
+     * @throws LedgerException when the entry can not be stored or the fencing token is stale. TransactionNotInFlightException
+     *         when the transaction is not in flight in the ledger or has been cancelled in another one
      */
-    LedgerEntry completeTransaction(Transaction transaction);
+    LedgerEntry completeTransaction(Transaction transaction, long fencingToken) throws LedgerException;
 
     /**
      * Cancel transaction
      *
      * @param transaction original transaction
+     * @param fencingToken fencing token of the account lock the write is done under, UNFENCED if none
      *
      * @return cancellation ledger entry
+     *
+     * @throws LedgerException when the entry can not be stored or the fencing token is stale. TransactionNotInFlightException
+     *         when the transaction is not in flight in the ledger or has been completed in another one
+     */
+    LedgerEntry cancelTransaction(Transaction transaction, long fencingToken) throws LedgerException;
+
+    /**
+     * Starts a batch of writes of the current thread: entries are checked right away, but stored, made durable and
+     * visible to other threads all at once by endBatch(); the thread of the batch sees them already. Batches may be
+     * nested, only the outermost one waits
+     */
+    void beginBatch();
+
+    /**
+     * Ends a batch of writes of the current thread, returns once all its entries are durable according to the
+     * durability mode and visible. If they can not be stored or made durable, none of them is kept and the failure is
+     * thrown
+     *
+     * @throws LedgerException when the entries can not be stored, one of them no longer fits the state of its
+     *         transaction or a fencing token has become stale
      */
-    LedgerEntry cancelTransaction(Transaction transaction);
+    void endBatch() throws LedgerException;
 }
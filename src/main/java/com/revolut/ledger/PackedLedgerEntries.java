@@ -0,0 +1,119 @@
+package com.revolut.ledger;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Ledger entries packed into primitive arrays instead of a LedgerEntry object (plus 4 UUID objects) per entry.
+ *
+ * Entries are stored in chunks, so appending never copies already stored entries. Each entry takes 12 longs
+ * (UUIDs as most/least significant bits pairs, amount and timestamp) and 2 bytes (type and subtype).
+ * get() materializes a LedgerEntry, use view() with a reusable LedgerEntryView to read entries without allocations.
+ */
+public class PackedLedgerEntries extends AbstractList<LedgerEntry> {
+    /**
+     * Entries per chunk
+     */
+    static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Longs per entry
+     */
+    static final int STRIDE = 12;
+
+    static final int ID = 0;
+    static final int GLOBAL_ID = 2;
+    static final int FROM_LEDGER_ID = 4;
+    static final int TO_LEDGER_ID = 6;
+    static final int CREATED_BY = 8;
+    static final int AMOUNT = 10;
+    static final int CREATED_AT = 11;
+
+    static final LedgerEntry.Type[] TYPES = LedgerEntry.Type.values();
+
+    static final LedgerEntry.Subtype[] SUBTYPES = LedgerEntry.Subtype.values();
+
+    /**
+     * Fields of the entries, STRIDE longs per entry
+     */
+    long[][] fields = new long[0][];
+
+    /**
+     * Type and subtype ordinals of the entries, 2 bytes per entry
+     */
+    byte[][] types = new byte[0][];
+
+    /**
+     * Number of entries
+     */
+    private int size = 0;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(LedgerEntry ledgerEntry) {
+        int chunk = size / CHUNK_SIZE;
+        if (chunk == fields.length) {
+            fields = Arrays.copyOf(fields, chunk + 1);
+            fields[chunk] = new long[CHUNK_SIZE * STRIDE];
+            types = Arrays.copyOf(types, chunk + 1);
+            types[chunk] = new byte[CHUNK_SIZE * 2];
+        }
+
+        long[] chunkFields = fields[chunk];
+        int position = (size % CHUNK_SIZE) * STRIDE;
+        put(chunkFields, position + ID, ledgerEntry.getId());
+        put(chunkFields, position + GLOBAL_ID, ledgerEntry.getGlobalId());
+        put(chunkFields, position + FROM_LEDGER_ID, ledgerEntry.getFromLedgerId());
+        put(chunkFields, position + TO_LEDGER_ID, ledgerEntry.getToLedgerId());
+        put(chunkFields, position + CREATED_BY, ledgerEntry.getCreatedBy());
+        chunkFields[position + AMOUNT] = ledgerEntry.getAmount();
+        chunkFields[position + CREATED_AT] = ledgerEntry.getCreatedAt();
+
+        byte[] chunkTypes = types[chunk];
+        chunkTypes[(size % CHUNK_SIZE) * 2] = (byte) ledgerEntry.getType().ordinal();
+        chunkTypes[(size % CHUNK_SIZE) * 2 + 1] = (byte) ledgerEntry.getSubtype().ordinal();
+
+        size++;
+        modCount++;
+
+        return true;
+    }
+
+    /**
+     * Materializes an entry. Allocates, @see view()
+     *
+     * @param index entry index
+     *
+     * @return a new ledger entry object
+     */
+    @Override
+    public LedgerEntry get(int index) {
+        return view(index, new LedgerEntryView()).toLedgerEntry();
+    }
+
+    /**
+     * Points the flyweight to an entry
+     *
+     * @param index entry index
+     * @param view reusable flyweight
+     *
+     * @return the given flyweight pointing to the entry
+     */
+    public LedgerEntryView view(int index, LedgerEntryView view) {
+        if ((index < 0) || (index >= size)) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+        view.moveTo(this, index);
+
+        return view;
+    }
+
+    private static void put(long[] chunkFields, int position, UUID uuid) {
+        chunkFields[position] = uuid.getMostSignificantBits();
+        chunkFields[position + 1] = uuid.getLeastSignificantBits();
+    }
+}
@@ -0,0 +1,43 @@
+package com.revolut.ledger.Transaction;
+
+import com.revolut.ledger.EntryLocation;
+
+/**
+ * State of a global transaction across all the relevant ledgers
+ */
+public enum TransactionState {
+    UNKNOWN, // No entries with such global id
+    IN_FLIGHT, // Initiated, not all the sides are completed yet
+    COMPLETED, // All the sides are completed
+    CANCELLED; // At least one side is cancelled
+
+    /**
+     * @param locations locations of all the entries of the transaction, in any order
+     *
+     * @return state of the transaction
+     */
+    public static TransactionState of(EntryLocation[] locations) {
+        if ((locations == null) || (locations.length == 0)) return UNKNOWN;
+
+        int initiated = 0;
+        int completed = 0;
+
+        for (EntryLocation location : locations) {
+            switch (location.getSubtype()) {
+                case OBLIGATION:
+                case RECEIVING:
+                    initiated++;
+                    break;
+
+                case ACTUAL:
+                    completed++;
+                    break;
+
+                case CANCEL:
+                    return CANCELLED;
+            }
+        }
+
+        return (completed >= initiated) ? COMPLETED : IN_FLIGHT;
+    }
+}
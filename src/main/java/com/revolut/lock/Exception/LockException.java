@@ -12,4 +12,12 @@ public abstract class LockException extends RevolutException {
     public LockException(String message) {
         super(message);
     }
+
+    /**
+     * @param message exception message
+     * @param cause cause
+     */
+    public LockException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,21 @@
+package com.revolut.lock.Exception;
+
+/**
+ * When the lock server can not be reached or does not answer in time
+ */
+public class LockServerException extends LockException {
+    /**
+     * @param message exception message
+     */
+    public LockServerException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param message exception message
+     * @param cause cause
+     */
+    public LockServerException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
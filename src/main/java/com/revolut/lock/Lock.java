@@ -3,12 +3,28 @@ package com.revolut.lock;
 import com.revolut.lock.Exception.LockException;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Represents a distributed lock.
  * It is not implementing java Lock interface because semantic of distributed locks is a bit different. IMHO
  */
 public class Lock {
+    /**
+     * Lock modes
+     */
+    public enum Mode {
+        /**
+         * Single holder, for changes
+         */
+        EXCLUSIVE,
+
+        /**
+         * Many holders at once, for consistent reads
+         */
+        SHARED
+    }
+
     /**
      * Lock service
      */
@@ -24,19 +40,51 @@ public class Lock {
      */
     private UUID ownerId;
 
+    /**
+     * Lock mode
+     */
+    private Mode mode;
+
     /**
      * Locked flag
      */
     private boolean isLocked;
 
+    /**
+     * Fencing token of the current acquisition, grows with every acquisition. 0 when not locked
+     */
+    private long fencingToken;
+
     /**
      * @param lockService lock service
      * @param id id
      */
     public Lock(LockService lockService, UUID id) {
+        this(lockService, id, Mode.EXCLUSIVE);
+    }
+
+    /**
+     * @param lockService lock service
+     * @param id id
+     * @param mode lock mode
+     */
+    public Lock(LockService lockService, UUID id, Mode mode) {
+        this(lockService, id, mode, UUID.randomUUID());
+    }
+
+    /**
+     * A lock of an already known owner, for example of a remote client
+     *
+     * @param lockService lock service
+     * @param id id
+     * @param mode lock mode
+     * @param ownerId lock owner
+     */
+    public Lock(LockService lockService, UUID id, Mode mode, UUID ownerId) {
         this.lockService = lockService;
         this.id = id;
-        this.ownerId = UUID.randomUUID();
+        this.mode = mode;
+        this.ownerId = ownerId;
     }
 
     /**
@@ -53,6 +101,13 @@ public class Lock {
         return ownerId;
     }
 
+    /**
+     * @return lock mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
     /**
      * @return locked flag
      */
@@ -67,6 +122,20 @@ public class Lock {
         this.isLocked = isLocked;
     }
 
+    /**
+     * @return fencing token of the current acquisition, grows with every acquisition. 0 when not locked
+     */
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    /**
+     * @param fencingToken fencing token of the current acquisition
+     */
+    public void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+
     /**
      * Try to acquire the lock
      *
@@ -81,6 +150,31 @@ public class Lock {
         return lockService.tryLock(this, waitingTime, acquiringTime);
     }
 
+    /**
+     * Acquire the lock without blocking the calling thread
+     *
+     * @param waitingTime maximum time to wait, if lock is already acquired, milliseconds
+     * @param acquiringTime for how long to acquire lock, milliseconds
+     *
+     * @return future completed with true when the lock is acquired, with false when the waiting time is over
+     *
+     * @throws LockException
+     */
+    public CompletableFuture<Boolean> lockAsync(long waitingTime, long acquiringTime) throws LockException {
+        return lockService.lockAsync(this, waitingTime, acquiringTime);
+    }
+
+    /**
+     * Extends the lease of the lock, the fencing token stays the same
+     *
+     * @param acquiringTime for how long to extend the lease from now, milliseconds
+     *
+     * @throws LockException when the lock is not held anymore
+     */
+    public void renew(long acquiringTime) throws LockException {
+        lockService.renew(this, acquiringTime);
+    }
+
     /**
      * Try to unlock the lock
      *
@@ -1,8 +1,16 @@
 package com.revolut.lock;
 
+import com.revolut.lock.Exception.AlreadyLockedException;
+import com.revolut.lock.Exception.ExpiredLockException;
 import com.revolut.lock.Exception.LockException;
+import com.revolut.lock.Exception.LostLockException;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Lock service to manage locks
@@ -11,10 +19,19 @@ public interface LockService {
     /**
      * @param id lock id
      *
-     * @return new lock
+     * @return new exclusive lock
      */
     Lock create(UUID id);
 
+    /**
+     * @param id lock id
+     * @param mode lock mode. Shared locks of the same id are held together, an exclusive one excludes all the others.
+     *             Waiting exclusive locks are not overtaken by new shared ones
+     *
+     * @return new lock
+     */
+    Lock create(UUID id, Lock.Mode mode);
+
     /**
      * Try to acquire a lock
      *
@@ -22,12 +39,52 @@ public interface LockService {
      * @param waitingTime maximum time to wait, if lock is already acquired, milliseconds
      * @param acquiringTime for how long to acquire lock, milliseconds
      *
-     * @return true if managed to acquire lock within the given waiting time, false otherwise
+     * @return true if managed to acquire lock within the given waiting time, false otherwise. An acquired lock gets
+     *         a new fencing token
      *
      * @throws LockException
      */
     boolean tryLock(Lock lock, long waitingTime, long acquiringTime) throws LockException;
 
+    /**
+     * Acquire a lock without blocking the calling thread
+     *
+     * @param lock lock to acquire
+     * @param waitingTime maximum time to wait, if lock is already acquired, milliseconds
+     * @param acquiringTime for how long to acquire lock, milliseconds
+     *
+     * @return future completed with true when the lock is acquired, with false when the waiting time is over.
+     *         Cancel it to stop waiting
+     *
+     * @throws LockException
+     */
+    CompletableFuture<Boolean> lockAsync(Lock lock, long waitingTime, long acquiringTime) throws LockException;
+
+    /**
+     * Try to acquire all the locks, all or nothing. Locks are acquired in the canonical order (by id), so callers
+     * locking overlapping sets of ids do not deadlock
+     *
+     * @param locks locks to acquire, with different ids
+     * @param waitingTime maximum time to wait for all the locks together, milliseconds
+     * @param acquiringTime for how long to acquire locks, milliseconds
+     *
+     * @return true if managed to acquire all the locks within the given waiting time and all of them are still held
+     *         then, for the acquiring time from that moment; false otherwise - then none of them is acquired
+     *
+     * @throws LockException
+     */
+    boolean tryLockAll(Collection<Lock> locks, long waitingTime, long acquiringTime) throws LockException;
+
+    /**
+     * Extends the lease of a held lock, the fencing token stays the same
+     *
+     * @param lock lock to renew
+     * @param acquiringTime for how long to extend the lease from now, milliseconds
+     *
+     * @throws LockException when the lock is not held anymore: expired, lost or unlocked
+     */
+    void renew(Lock lock, long acquiringTime) throws LockException;
+
     /**
      * Try to unlock a lock.
      *
@@ -38,4 +95,64 @@ public interface LockService {
      * @throws LockException
      */
     void tryUnlock(Lock lock, boolean allowLost) throws LockException;
+
+    /**
+     * Checks the locks of tryLockAll() and puts them in the canonical order
+     *
+     * @param locks locks to acquire
+     *
+     * @return the locks ordered by id
+     *
+     * @throws AlreadyLockedException when one of the locks is held already
+     */
+    static List<Lock> inOrder(Collection<Lock> locks) throws AlreadyLockedException {
+        List<Lock> ordered = new ArrayList<>(locks);
+        ordered.sort(Comparator.comparing(Lock::getId));
+
+        for (int i = 1; i < ordered.size(); i++) {
+            if (ordered.get(i).getId().equals(ordered.get(i - 1).getId())) {
+                throw new IllegalArgumentException("Lock " + ordered.get(i).getId() + " is requested twice");
+            }
+        }
+
+        for (Lock lock : ordered) {
+            if (lock.getIsLocked()) throw new AlreadyLockedException(lock.getId());
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Extends the leases of the locks taken by tryLockAll() from now. They are taken one by one, so waiting for the
+     * later ones could have outlived the leases of the earlier ones
+     *
+     * @param acquired taken locks
+     * @param acquiringTime for how long to extend the leases from now, milliseconds
+     *
+     * @return false if one of the locks is not held anymore - expired or lost
+     *
+     * @throws LockException
+     */
+    default boolean renewAll(Collection<Lock> acquired, long acquiringTime) throws LockException {
+        for (Lock lock : acquired) {
+            try {
+                renew(lock, acquiringTime);
+            } catch (ExpiredLockException | LostLockException exception) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Releases the locks taken by tryLockAll() which has failed
+     *
+     * @param acquired already taken locks
+     *
+     * @throws LockException
+     */
+    default void unlockAll(Collection<Lock> acquired) throws LockException {
+        for (Lock lock : acquired) tryUnlock(lock, true);
+    }
 }
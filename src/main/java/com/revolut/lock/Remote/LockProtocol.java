@@ -0,0 +1,265 @@
+package com.revolut.lock.Remote;
+
+import com.revolut.lock.Exception.*;
+import com.revolut.lock.Lock;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Binary protocol between RemoteLockService and LockServer.
+ *
+ * Both requests and responses are fixed size frames, big endian. A connection carries many requests at once
+ * (pipelining): every request has an id chosen by the client and the server answers with the same id, in any order.
+ *
+ * Request:  id (int), operation (byte), mode (byte), flags (byte), lock id (2 longs), owner id (2 longs),
+ *           waiting time (long), acquiring time (long)
+ * Response: id (int), status (byte), fencing token (long)
+ *
+ * TRY_LOCK_ALL takes several locks in one round trip: it is a frame per lock, all with the same id, every one but the
+ * last flagged with MORE. The server answers with a frame per lock in the order of ids if all of them are acquired,
+ * with a single NOT_ACQUIRED or error frame otherwise
+ */
+public final class LockProtocol {
+    public static final byte TRY_LOCK = 1;
+    public static final byte TRY_UNLOCK = 2;
+    public static final byte RENEW = 3;
+    public static final byte TRY_LOCK_ALL = 4;
+
+    /**
+     * TRY_UNLOCK: do not fail if the lock has been lost
+     */
+    public static final byte ALLOW_LOST = 1;
+
+    /**
+     * TRY_LOCK_ALL: another lock of the same request follows
+     */
+    public static final byte MORE = 2;
+
+    public static final byte OK = 0;
+    public static final byte NOT_ACQUIRED = 1;
+    public static final byte ALREADY_LOCKED = 2;
+    public static final byte ALREADY_UNLOCKED = 3;
+    public static final byte EXPIRED = 4;
+    public static final byte LOST = 5;
+    public static final byte ERROR = 6;
+
+    /**
+     * Request frame size, bytes
+     */
+    public static final int REQUEST_SIZE = 4 + 3 + 16 + 16 + 8 + 8;
+
+    /**
+     * Response frame size, bytes
+     */
+    public static final int RESPONSE_SIZE = 4 + 1 + 8;
+
+    /**
+     * Maximum number of locks of a TRY_LOCK_ALL request
+     */
+    public static final int MAX_LOCKS = 1024;
+
+    private static final Lock.Mode[] MODES = Lock.Mode.values();
+
+    /**
+     * A request to the lock server
+     */
+    static final class Request {
+        final int id;
+        final byte operation;
+        final Lock.Mode mode;
+        final boolean allowLost;
+        final boolean more;
+        final UUID lockId;
+        final UUID ownerId;
+        final long waitingTime;
+        final long acquiringTime;
+
+        /**
+         * @param id request id, unique within the connection
+         * @param operation TRY_LOCK, TRY_UNLOCK or RENEW
+         * @param lock the lock
+         * @param allowLost TRY_UNLOCK: do not fail if the lock has been lost
+         * @param waitingTime TRY_LOCK: maximum time to wait, milliseconds
+         * @param acquiringTime TRY_LOCK, RENEW: for how long to acquire the lock, milliseconds
+         */
+        Request(int id, byte operation, Lock lock, boolean allowLost, long waitingTime, long acquiringTime) {
+            this(id, operation, lock.getMode(), allowLost, false, lock.getId(), lock.getOwnerId(), waitingTime, acquiringTime);
+        }
+
+        /**
+         * A frame of TRY_LOCK_ALL
+         *
+         * @param id request id, unique within the connection
+         * @param lock the lock
+         * @param more another lock of the same request follows
+         * @param waitingTime maximum time to wait for all the locks together, milliseconds
+         * @param acquiringTime for how long to acquire the locks, milliseconds
+         */
+        Request(int id, Lock lock, boolean more, long waitingTime, long acquiringTime) {
+            this(id, TRY_LOCK_ALL, lock.getMode(), false, more, lock.getId(), lock.getOwnerId(), waitingTime, acquiringTime);
+        }
+
+        private Request(
+            int id,
+            byte operation,
+            Lock.Mode mode,
+            boolean allowLost,
+            boolean more,
+            UUID lockId,
+            UUID ownerId,
+            long waitingTime,
+            long acquiringTime
+        ) {
+            this.id = id;
+            this.operation = operation;
+            this.mode = mode;
+            this.allowLost = allowLost;
+            this.more = more;
+            this.lockId = lockId;
+            this.ownerId = ownerId;
+            this.waitingTime = waitingTime;
+            this.acquiringTime = acquiringTime;
+        }
+
+        /**
+         * @param buffer buffer with at least REQUEST_SIZE bytes remaining
+         */
+        void write(ByteBuffer buffer) {
+            buffer.putInt(id);
+            buffer.put(operation);
+            buffer.put((byte) mode.ordinal());
+            buffer.put((byte) ((allowLost ? ALLOW_LOST : 0) | (more ? MORE : 0)));
+            putUUID(buffer, lockId);
+            putUUID(buffer, ownerId);
+            buffer.putLong(waitingTime);
+            buffer.putLong(acquiringTime);
+        }
+
+        /**
+         * @param buffer buffer with at least REQUEST_SIZE bytes remaining, stays as is
+         *
+         * @return true if the frame can be decoded: the operation and the mode are known
+         */
+        static boolean isValid(ByteBuffer buffer) {
+            int at = buffer.position();
+            byte operation = buffer.get(at + 4);
+            byte mode = buffer.get(at + 5);
+
+            return (operation >= TRY_LOCK) && (operation <= TRY_LOCK_ALL) && (mode >= 0) && (mode < MODES.length);
+        }
+
+        /**
+         * @param buffer buffer with at least REQUEST_SIZE bytes remaining, a valid frame. @see isValid()
+         *
+         * @return decoded request
+         */
+        static Request read(ByteBuffer buffer) {
+            int id = buffer.getInt();
+            byte operation = buffer.get();
+            Lock.Mode mode = MODES[buffer.get()];
+            byte flags = buffer.get();
+
+            return new Request(
+                id,
+                operation,
+                mode,
+                (flags & ALLOW_LOST) != 0,
+                (flags & MORE) != 0,
+                getUUID(buffer),
+                getUUID(buffer),
+                buffer.getLong(),
+                buffer.getLong()
+            );
+        }
+    }
+
+    /**
+     * An answer of the lock server
+     */
+    static final class Response {
+        final int id;
+        final byte status;
+        final long token;
+
+        /**
+         * @param id id of the request
+         * @param status OK, NOT_ACQUIRED or an error status
+         * @param token TRY_LOCK: fencing token of the acquired lock
+         */
+        Response(int id, byte status, long token) {
+            this.id = id;
+            this.status = status;
+            this.token = token;
+        }
+
+        /**
+         * @param buffer buffer with at least RESPONSE_SIZE bytes remaining
+         */
+        void write(ByteBuffer buffer) {
+            buffer.putInt(id);
+            buffer.put(status);
+            buffer.putLong(token);
+        }
+
+        /**
+         * @param buffer buffer with at least RESPONSE_SIZE bytes remaining
+         *
+         * @return decoded response
+         */
+        static Response read(ByteBuffer buffer) {
+            return new Response(buffer.getInt(), buffer.get(), buffer.getLong());
+        }
+    }
+
+    private LockProtocol() {}
+
+    /**
+     * @param exception exception thrown by the lock service
+     *
+     * @return status to send back
+     */
+    static byte status(LockException exception) {
+        if (exception instanceof AlreadyLockedException) return ALREADY_LOCKED;
+        if (exception instanceof AlreadyUnlockedException) return ALREADY_UNLOCKED;
+        if (exception instanceof ExpiredLockException) return EXPIRED;
+        if (exception instanceof LostLockException) return LOST;
+
+        return ERROR;
+    }
+
+    /**
+     * @param response error response
+     * @param lock the lock of the request
+     *
+     * @return exception to throw to the caller
+     */
+    static LockException exception(Response response, Lock lock) {
+        switch (response.status) {
+            case ALREADY_LOCKED:
+                return new AlreadyLockedException(lock.getId());
+
+            case ALREADY_UNLOCKED:
+                return new AlreadyUnlockedException(lock.getId());
+
+            case EXPIRED:
+                return new ExpiredLockException(lock.getId());
+
+            case LOST:
+                // the server does not tell who holds it now
+                return new LostLockException(lock.getId(), lock.getOwnerId(), null);
+
+            default:
+                return new LockServerException("Lock server has failed to handle lock " + lock.getId());
+        }
+    }
+
+    private static void putUUID(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID getUUID(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
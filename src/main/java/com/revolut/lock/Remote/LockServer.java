@@ -0,0 +1,435 @@
+package com.revolut.lock.Remote;
+
+import com.revolut.lock.Exception.LockException;
+import com.revolut.lock.Exception.LockServerException;
+import com.revolut.lock.Lock;
+import com.revolut.lock.LockService;
+import com.revolut.transfer.LocalLockService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Standalone lock server: serves a lock service to RemoteLockService clients over TCP on localhost. @see LockProtocol
+ *
+ * Every connection has a reader and a writer thread. The reader decodes requests one by one: unlocks and renewals are
+ * handled right away, lock requests wait with lockAsync() without occupying a thread, so one slow lock never holds up
+ * the other requests of the connection. The writer sends all the responses ready by then with a single flush. Locks of
+ * a TRY_LOCK_ALL request are taken one after another in the order of ids, each one once the previous is acquired.
+ *
+ * A frame which can not be decoded is answered with ERROR. A connection which breaks the protocol any other way, or
+ * fails to be served, is closed.
+ *
+ * Locks of a client which has gone away are not released, they expire with their leases.
+ */
+public class LockServer {
+    /**
+     * Maximum number of responses per flush
+     */
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * Lock service to serve
+     */
+    private LockService lockService;
+
+    /**
+     * Logger
+     */
+    private Logger logger;
+
+    /**
+     * Listening socket
+     */
+    private ServerSocket serverSocket;
+
+    /**
+     * Open client connections
+     */
+    private Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A client connection
+     */
+    private class Connection {
+        /**
+         * Client socket
+         */
+        private Socket socket;
+
+        /**
+         * Responses waiting to be sent
+         */
+        private LinkedBlockingQueue<LockProtocol.Response> responses = new LinkedBlockingQueue<>();
+
+        /**
+         * Frames of TRY_LOCK_ALL requests which have not been read in full yet, by request id. Used by the reader only
+         */
+        private Map<Integer, List<LockProtocol.Request>> groups = new HashMap<>();
+
+        /**
+         * Number of frames in groups. Used by the reader only
+         */
+        private int grouped;
+
+        /**
+         * @param socket client socket
+         */
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Starts the reader and the writer threads
+         */
+        void start() {
+            daemon(this::read, "lock-server-reader").start();
+            daemon(this::write, "lock-server-writer").start();
+        }
+
+        /**
+         * Decodes and handles requests until the client goes away
+         */
+        private void read() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                byte[] frame = new byte[LockProtocol.REQUEST_SIZE];
+
+                while (true) {
+                    in.readFully(frame);
+
+                    ByteBuffer buffer = ByteBuffer.wrap(frame);
+                    if (LockProtocol.Request.isValid(buffer)) {
+                        handle(this, LockProtocol.Request.read(buffer));
+                    } else {
+                        respond(new LockProtocol.Response(buffer.getInt(0), LockProtocol.ERROR, 0));
+                    }
+                }
+            } catch (IOException exception) {
+                close();
+            } catch (Throwable throwable) {
+                logger.error("Failed to serve a lock client", throwable);
+                close();
+            }
+        }
+
+        /**
+         * Sends responses, all the ready ones at once
+         */
+        private void write() {
+            try {
+                OutputStream out = socket.getOutputStream();
+                List<LockProtocol.Response> batch = new ArrayList<>();
+                ByteBuffer buffer = ByteBuffer.allocate(MAX_BATCH * LockProtocol.RESPONSE_SIZE);
+
+                while (true) {
+                    batch.add(responses.take());
+                    responses.drainTo(batch, MAX_BATCH - 1);
+
+                    buffer.clear();
+                    for (LockProtocol.Response response : batch) response.write(buffer);
+                    out.write(buffer.array(), 0, buffer.position());
+                    out.flush();
+
+                    batch.clear();
+                }
+            } catch (IOException | InterruptedException exception) {
+                close();
+            } catch (Throwable throwable) {
+                logger.error("Failed to answer a lock client", throwable);
+                close();
+            }
+        }
+
+        /**
+         * @param request a frame of TRY_LOCK_ALL
+         *
+         * @return all the frames of the request once the last one is read, null before that
+         *
+         * @throws IllegalStateException when the client sends more frames than any request may have
+         */
+        List<LockProtocol.Request> group(LockProtocol.Request request) {
+            if (++grouped > LockProtocol.MAX_LOCKS) throw new IllegalStateException("Too many TRY_LOCK_ALL frames");
+            groups.computeIfAbsent(request.id, id -> new ArrayList<>()).add(request);
+            if (request.more) return null;
+
+            List<LockProtocol.Request> group = groups.remove(request.id);
+            grouped -= group.size();
+
+            return group;
+        }
+
+        /**
+         * @param response response to send
+         */
+        void respond(LockProtocol.Response response) {
+            responses.add(response);
+        }
+
+        /**
+         * Closes the socket, both threads stop on that
+         */
+        void close() {
+            if (!connections.remove(this)) return;
+
+            try {
+                socket.close();
+            } catch (IOException ignore) {}
+
+            // wakes up the writer
+            responses.add(new LockProtocol.Response(0, LockProtocol.ERROR, 0));
+        }
+    }
+
+    /**
+     * @param lockService lock service to serve
+     * @param logger logger
+     */
+    public LockServer(LockService lockService, Logger logger) {
+        this.lockService = lockService;
+        this.logger = logger;
+    }
+
+    /**
+     * Starts accepting clients
+     *
+     * @param port port to listen on localhost, 0 for any free one
+     *
+     * @throws LockServerException when the port can not be listened on
+     */
+    public void start(int port) throws LockServerException {
+        try {
+            serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException exception) {
+            throw new LockServerException("Failed to listen on port " + port, exception);
+        }
+
+        // keeps a standalone server running
+        new Thread(this::accept, "lock-server").start();
+    }
+
+    /**
+     * Stops accepting clients and closes all the connections
+     */
+    public void stop() {
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignore) {}
+
+        for (Connection connection : connections) connection.close();
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return number of open client connections
+     */
+    public int getConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Accepts clients until stopped
+     */
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                connection.start();
+            } catch (IOException exception) {
+                if (!serverSocket.isClosed()) logger.error("Failed to accept a lock client", exception);
+            }
+        }
+    }
+
+    /**
+     * Handles a request on behalf of the client
+     *
+     * @param connection client connection
+     * @param request request
+     */
+    private void handle(Connection connection, LockProtocol.Request request) {
+        Lock lock = new Lock(lockService, request.lockId, request.mode, request.ownerId);
+
+        try {
+            switch (request.operation) {
+                case LockProtocol.TRY_LOCK:
+                    lockService.lockAsync(lock, request.waitingTime, request.acquiringTime).whenComplete((acquired, failure) -> {
+                        if (failure != null) {
+                            logger.error("Failed to acquire lock " + lock.getId(), failure);
+                            connection.respond(new LockProtocol.Response(request.id, LockProtocol.ERROR, 0));
+                        } else if (acquired) {
+                            connection.respond(new LockProtocol.Response(request.id, LockProtocol.OK, lock.getFencingToken()));
+                        } else {
+                            connection.respond(new LockProtocol.Response(request.id, LockProtocol.NOT_ACQUIRED, 0));
+                        }
+                    });
+                    return;
+
+                case LockProtocol.TRY_LOCK_ALL:
+                    List<LockProtocol.Request> group = connection.group(request);
+                    if (group != null) lockAll(connection, group);
+                    return;
+
+                case LockProtocol.TRY_UNLOCK:
+                    lock.setIsLocked(true);
+                    lockService.tryUnlock(lock, request.allowLost);
+                    break;
+
+                case LockProtocol.RENEW:
+                    lock.setIsLocked(true);
+                    lockService.renew(lock, request.acquiringTime);
+                    break;
+
+                default:
+                    connection.respond(new LockProtocol.Response(request.id, LockProtocol.ERROR, 0));
+                    return;
+            }
+
+            connection.respond(new LockProtocol.Response(request.id, LockProtocol.OK, 0));
+        } catch (LockException exception) {
+            connection.respond(new LockProtocol.Response(request.id, LockProtocol.status(exception), 0));
+        }
+    }
+
+    /**
+     * Handles a TRY_LOCK_ALL request
+     *
+     * @param connection client connection
+     * @param group all the frames of the request
+     */
+    private void lockAll(Connection connection, List<LockProtocol.Request> group) {
+        LockProtocol.Request first = group.get(0);
+        List<Lock> locks = new ArrayList<>(group.size());
+        for (LockProtocol.Request request : group) locks.add(new Lock(lockService, request.lockId, request.mode, request.ownerId));
+
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(first.waitingTime);
+            lockNext(connection, first.id, LockService.inOrder(locks), 0, deadline, first.acquiringTime);
+        } catch (LockException exception) {
+            connection.respond(new LockProtocol.Response(first.id, LockProtocol.status(exception), 0));
+        } catch (IllegalArgumentException exception) {
+            connection.respond(new LockProtocol.Response(first.id, LockProtocol.ERROR, 0));
+        }
+    }
+
+    /**
+     * Acquires the next lock of a TRY_LOCK_ALL request once the previous ones are acquired, renews all of them to the
+     * same lease after the last one. On a failure already taken ones are released
+     *
+     * @param connection client connection
+     * @param id request id
+     * @param ordered locks of the request in the order of ids
+     * @param index the lock to acquire
+     * @param deadline when to stop waiting, System.nanoTime()
+     * @param acquiringTime for how long to acquire the locks, milliseconds
+     */
+    private void lockNext(Connection connection, int id, List<Lock> ordered, int index, long deadline, long acquiringTime) {
+        if (index == ordered.size()) {
+            try {
+                // waiting for the later locks could have outlived the leases of the earlier ones
+                if (!lockService.renewAll(ordered, acquiringTime)) {
+                    rollBack(connection, id, ordered, LockProtocol.NOT_ACQUIRED);
+                    return;
+                }
+            } catch (LockException exception) {
+                rollBack(connection, id, ordered, LockProtocol.status(exception));
+                return;
+            }
+
+            for (Lock lock : ordered) connection.respond(new LockProtocol.Response(id, LockProtocol.OK, lock.getFencingToken()));
+            return;
+        }
+
+        Lock lock = ordered.get(index);
+        long waitingTime = Math.max(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 0);
+
+        try {
+            lockService.lockAsync(lock, waitingTime, acquiringTime).whenComplete((acquired, failure) -> {
+                if (failure != null) {
+                    logger.error("Failed to acquire lock " + lock.getId(), failure);
+                    rollBack(connection, id, ordered.subList(0, index), LockProtocol.ERROR);
+                } else if (acquired) {
+                    lockNext(connection, id, ordered, index + 1, deadline, acquiringTime);
+                } else {
+                    rollBack(connection, id, ordered.subList(0, index), LockProtocol.NOT_ACQUIRED);
+                }
+            });
+        } catch (LockException exception) {
+            rollBack(connection, id, ordered.subList(0, index), LockProtocol.status(exception));
+        }
+    }
+
+    /**
+     * Releases the locks of a failed TRY_LOCK_ALL request and answers it
+     *
+     * @param connection client connection
+     * @param id request id
+     * @param acquired already taken locks
+     * @param status status to answer with
+     */
+    private void rollBack(Connection connection, int id, List<Lock> acquired, byte status) {
+        try {
+            lockService.unlockAll(acquired);
+        } catch (LockException exception) {
+            logger.error("Failed to release the locks of request " + id, exception);
+        }
+
+        connection.respond(new LockProtocol.Response(id, status, 0));
+    }
+
+    /**
+     * @param runnable what to run
+     * @param name thread name
+     *
+     * @return new daemon thread
+     */
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+
+        return thread;
+    }
+
+    /**
+     * Entrypoint of a standalone lock server
+     *
+     * System properties:
+     *  lock.server.port - port to listen on localhost, 7070 by default
+     */
+    public static void main(String[] args) throws LockServerException {
+        final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass().getSimpleName());
+
+        LocalLockService lockService = new LocalLockService(Clock.systemUTC());
+        lockService.start(10);
+
+        LockServer lockServer = new LockServer(lockService, logger);
+        lockServer.start(Integer.getInteger("lock.server.port", 7070));
+
+        logger.info("Lock server is listening on port " + lockServer.getPort());
+    }
+}
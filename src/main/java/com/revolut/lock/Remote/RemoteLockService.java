@@ -0,0 +1,588 @@
+package com.revolut.lock.Remote;
+
+import com.revolut.lock.Exception.*;
+import com.revolut.lock.Lock;
+import com.revolut.lock.LockService;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock service backed by a LockServer. @see LockProtocol
+ *
+ * Calls of many threads share a few connections: requests are pipelined (a connection does not wait for a response
+ * before sending the next request) and batched (a writer thread sends all the requests queued by then with a single
+ * flush). Requests of a lock id always go through the same connection. tryLockAll() is a single TRY_LOCK_ALL request:
+ * the server takes the locks in the order of ids, one round trip for all of them.
+ *
+ * A call which has not been answered in time fails with LockServerException. If the server acquires such a lock
+ * afterwards, it is released right away. A closed connection is opened again by the next call of its lock ids.
+ */
+public class RemoteLockService implements LockService {
+    /**
+     * Maximum number of requests per flush
+     */
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * Connections to the server, a closed one is replaced on the next call
+     */
+    private AtomicReferenceArray<Connection> connections;
+
+    /**
+     * Lock server host
+     */
+    private String host;
+
+    /**
+     * Lock server port
+     */
+    private int port;
+
+    /**
+     * Whether stop() has been called
+     */
+    private volatile boolean isStopped = false;
+
+    /**
+     * Fails the calls which have not been answered in time
+     */
+    private ScheduledThreadPoolExecutor timeouts = new ScheduledThreadPoolExecutor(1, runnable -> daemon(runnable, "lock-client-timeouts"));
+
+    /**
+     * Ids of the requests
+     */
+    private AtomicInteger requestIds = new AtomicInteger();
+
+    /**
+     * How long to wait for the server on top of the lock waiting time, milliseconds
+     */
+    private long requestTimeout;
+
+    /**
+     * Number of sent requests
+     */
+    private LongAdder requests = new LongAdder();
+
+    /**
+     * Number of flushes, each one sends a batch of requests
+     */
+    private LongAdder flushes = new LongAdder();
+
+    /**
+     * A request waiting for its responses
+     */
+    private static final class Call {
+        /**
+         * Completed with the responses
+         */
+        final CompletableFuture<List<LockProtocol.Response>> responses = new CompletableFuture<>();
+
+        /**
+         * Frames of the request, a response per frame to a successful request
+         */
+        final List<LockProtocol.Request> frames;
+
+        /**
+         * Responses received so far. Used by the reader only
+         */
+        final List<LockProtocol.Response> received;
+
+        /**
+         * Abandoned calls are forgotten after this time if the server has not answered them, System.nanoTime()
+         */
+        volatile long abandonedUntil;
+
+        /**
+         * @param frames frames of the request
+         */
+        Call(List<LockProtocol.Request> frames) {
+            this.frames = frames;
+            this.received = new ArrayList<>(frames.size());
+        }
+
+        /**
+         * @param response a response to the request
+         *
+         * @return true if the request is answered in full: all the responses have come, or a failed one
+         */
+        boolean add(LockProtocol.Response response) {
+            received.add(response);
+
+            return (response.status != LockProtocol.OK) || (received.size() == frames.size());
+        }
+    }
+
+    /**
+     * A connection to the server
+     */
+    private class Connection {
+        /**
+         * Server socket
+         */
+        private Socket socket;
+
+        /**
+         * Requests waiting to be sent
+         */
+        private LinkedBlockingQueue<LockProtocol.Request> outgoing = new LinkedBlockingQueue<>();
+
+        /**
+         * Requests waiting for responses, by request id
+         */
+        private ConcurrentHashMap<Integer, Call> pending = new ConcurrentHashMap<>();
+
+        /**
+         * Requests which have not been answered in time, by request id. Kept until the server answers them, so locks
+         * acquired too late are released
+         */
+        private ConcurrentHashMap<Integer, Call> abandoned = new ConcurrentHashMap<>();
+
+        /**
+         * Sends the queued requests
+         */
+        private Thread writer;
+
+        /**
+         * Why the connection has been closed, null while open
+         */
+        private volatile IOException failure;
+
+        /**
+         * @param host server host
+         * @param port server port
+         *
+         * @throws IOException
+         */
+        Connection(String host, int port) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+
+            writer = daemon(this::write, "lock-client-writer");
+            writer.start();
+            daemon(this::read, "lock-client-reader").start();
+        }
+
+        /**
+         * @param frames frames of a request, all with the same id
+         * @param timeout how long to wait for the responses, milliseconds
+         *
+         * @return completed with the responses, or with LockServerException if they have not come in time
+         */
+        CompletableFuture<List<LockProtocol.Response>> send(List<LockProtocol.Request> frames, long timeout) {
+            int id = frames.get(0).id;
+            Call call = new Call(frames);
+            pending.put(id, call);
+
+            // closed meanwhile, nobody is going to complete it
+            if (failure != null) {
+                pending.remove(id);
+                call.responses.completeExceptionally(failure);
+                return call.responses;
+            }
+
+            outgoing.addAll(frames);
+            requests.increment();
+
+            ScheduledFuture<?> timer = timeouts.schedule(() -> abandon(id, call, timeout), timeout, TimeUnit.MILLISECONDS);
+            call.responses.whenComplete((responses, exception) -> timer.cancel(false));
+
+            return call.responses;
+        }
+
+        /**
+         * Fails a request which has not been answered in time and keeps it aside until the server answers it
+         *
+         * @param id request id
+         * @param call the request
+         * @param timeout how long the request has waited, the server gets as long again to answer, milliseconds
+         */
+        private void abandon(int id, Call call, long timeout) {
+            if (!pending.remove(id, call)) return;
+
+            long now = System.nanoTime();
+            abandoned.values().removeIf(forgotten -> forgotten.abandonedUntil - now < 0);
+            call.abandonedUntil = now + TimeUnit.MILLISECONDS.toNanos(timeout);
+            abandoned.put(id, call);
+
+            call.responses.completeExceptionally(
+                new LockServerException("Lock server has not answered in time for lock " + call.frames.get(0).lockId)
+            );
+        }
+
+        /**
+         * Releases the locks acquired for a request which has already failed on the client
+         *
+         * @param call the request
+         */
+        private void release(Call call) {
+            for (int i = 0; i < call.received.size(); i++) {
+                LockProtocol.Request frame = call.frames.get(i);
+                boolean isLock = (frame.operation == LockProtocol.TRY_LOCK) || (frame.operation == LockProtocol.TRY_LOCK_ALL);
+                if (!isLock || (call.received.get(i).status != LockProtocol.OK)) continue;
+
+                Lock lock = new Lock(RemoteLockService.this, frame.lockId, frame.mode, frame.ownerId);
+                send(Collections.singletonList(
+                    new LockProtocol.Request(requestIds.incrementAndGet(), LockProtocol.TRY_UNLOCK, lock, true, 0, 0)
+                ), requestTimeout);
+            }
+        }
+
+        /**
+         * Sends requests, all the queued ones at once
+         */
+        private void write() {
+            try {
+                OutputStream out = socket.getOutputStream();
+                List<LockProtocol.Request> batch = new ArrayList<>();
+                ByteBuffer buffer = ByteBuffer.allocate(MAX_BATCH * LockProtocol.REQUEST_SIZE);
+
+                while (failure == null) {
+                    batch.add(outgoing.take());
+                    outgoing.drainTo(batch, MAX_BATCH - 1);
+
+                    buffer.clear();
+                    for (LockProtocol.Request request : batch) request.write(buffer);
+                    out.write(buffer.array(), 0, buffer.position());
+                    out.flush();
+                    flushes.increment();
+
+                    batch.clear();
+                }
+            } catch (IOException exception) {
+                close(exception);
+            } catch (InterruptedException exception) {
+                close(new InterruptedIOException("Lock client writer has been interrupted"));
+            } catch (Throwable throwable) {
+                close(new IOException("Lock client writer has failed", throwable));
+            }
+        }
+
+        /**
+         * Completes pending requests with their responses
+         */
+        private void read() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                byte[] frame = new byte[LockProtocol.RESPONSE_SIZE];
+
+                while (true) {
+                    in.readFully(frame);
+                    LockProtocol.Response response = LockProtocol.Response.read(ByteBuffer.wrap(frame));
+
+                    Call call = pending.get(response.id);
+                    if (call == null) call = abandoned.get(response.id);
+                    if ((call == null) || !call.add(response)) continue;
+
+                    pending.remove(response.id, call);
+                    abandoned.remove(response.id, call);
+
+                    // has timed out meanwhile
+                    if (!call.responses.complete(call.received)) release(call);
+                }
+            } catch (IOException exception) {
+                close(exception);
+            } catch (Throwable throwable) {
+                close(new IOException("Lock client reader has failed", throwable));
+            }
+        }
+
+        /**
+         * Closes the socket and fails the pending requests
+         *
+         * @param exception why
+         */
+        void close(IOException exception) {
+            if (failure != null) return;
+            failure = exception;
+
+            try {
+                socket.close();
+            } catch (IOException ignore) {}
+
+            for (Integer id : pending.keySet()) {
+                Call call = pending.remove(id);
+                if (call != null) call.responses.completeExceptionally(exception);
+            }
+            abandoned.clear();
+
+            writer.interrupt();
+        }
+    }
+
+    /**
+     * @param host lock server host
+     * @param port lock server port
+     * @param connections number of connections to open
+     * @param requestTimeout how long to wait for the server on top of the lock waiting time, milliseconds
+     *
+     * @throws LockServerException when the server can not be connected
+     */
+    public RemoteLockService(String host, int port, int connections, long requestTimeout) throws LockServerException {
+        this.connections = new AtomicReferenceArray<>(connections);
+        this.host = host;
+        this.port = port;
+        this.requestTimeout = requestTimeout;
+        this.timeouts.setRemoveOnCancelPolicy(true);
+
+        try {
+            for (int i = 0; i < connections; i++) this.connections.set(i, new Connection(host, port));
+        } catch (IOException exception) {
+            stop();
+            throw new LockServerException("Failed to connect to the lock server " + host + ":" + port, exception);
+        }
+    }
+
+    /**
+     * Closes all the connections
+     */
+    public void stop() {
+        isStopped = true;
+
+        for (int i = 0; i < connections.length(); i++) {
+            Connection connection = connections.get(i);
+            if (connection != null) connection.close(new EOFException("Lock client has been stopped"));
+        }
+
+        timeouts.shutdownNow();
+    }
+
+    /**
+     * @return number of sent requests
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return number of flushes, each one sends a batch of requests
+     */
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    @Override
+    public Lock create(UUID id) {
+        return new Lock(this, id);
+    }
+
+    @Override
+    public Lock create(UUID id, Lock.Mode mode) {
+        return new Lock(this, id, mode);
+    }
+
+    @Override
+    public boolean tryLock(Lock lock, long waitingTime, long acquiringTime) throws LockException {
+        if (lock.getIsLocked()) throw new AlreadyLockedException(lock.getId());
+
+        return acquired(lock, call(lock, LockProtocol.TRY_LOCK, false, waitingTime, acquiringTime));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> lockAsync(Lock lock, long waitingTime, long acquiringTime) throws LockException {
+        if (lock.getIsLocked()) throw new AlreadyLockedException(lock.getId());
+
+        return send(lock, LockProtocol.TRY_LOCK, false, waitingTime, acquiringTime).thenApply(responses -> {
+            try {
+                return acquired(lock, responses.get(0));
+            } catch (LockException exception) {
+                throw new CompletionException(exception);
+            }
+        });
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * A single request: the server takes the locks one by one in the order of ids sharing a single deadline, on a
+     * failure it releases already taken ones
+     */
+    @Override
+    public boolean tryLockAll(Collection<Lock> locks, long waitingTime, long acquiringTime) throws LockException {
+        List<Lock> ordered = LockService.inOrder(locks);
+        if (ordered.isEmpty()) return true;
+        if (ordered.size() > LockProtocol.MAX_LOCKS) {
+            throw new IllegalArgumentException("At most " + LockProtocol.MAX_LOCKS + " locks may be taken together");
+        }
+
+        int id = requestIds.incrementAndGet();
+        List<LockProtocol.Request> frames = new ArrayList<>(ordered.size());
+        for (int i = 0; i < ordered.size(); i++) {
+            frames.add(new LockProtocol.Request(id, ordered.get(i), i < ordered.size() - 1, waitingTime, acquiringTime));
+        }
+
+        // a frame per lock if all of them are acquired, a single one otherwise
+        List<LockProtocol.Response> responses = await(
+            ordered.get(0), connectionOf(ordered.get(0)).send(frames, waitingTime + requestTimeout)
+        );
+        for (int i = 0; i < responses.size(); i++) {
+            if (!acquired(ordered.get(i), responses.get(i))) return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public void renew(Lock lock, long acquiringTime) throws LockException {
+        if (!lock.getIsLocked()) throw new AlreadyUnlockedException(lock.getId());
+
+        LockProtocol.Response response = call(lock, LockProtocol.RENEW, false, 0, acquiringTime);
+        if (response.status != LockProtocol.OK) throw LockProtocol.exception(response, lock);
+    }
+
+    @Override
+    public void tryUnlock(Lock lock, boolean allowLost) throws LockException {
+        if (!lock.getIsLocked()) {
+            if (allowLost) return;
+            throw new AlreadyUnlockedException(lock.getId());
+        }
+
+        LockProtocol.Response response = call(lock, LockProtocol.TRY_UNLOCK, allowLost, 0, 0);
+        if (response.status != LockProtocol.OK) throw LockProtocol.exception(response, lock);
+
+        lock.setIsLocked(false);
+        lock.setFencingToken(0);
+    }
+
+    /**
+     * @param lock the lock
+     * @param response response to a lock request
+     *
+     * @return true if acquired
+     *
+     * @throws LockException when the server has failed
+     */
+    private boolean acquired(Lock lock, LockProtocol.Response response) throws LockException {
+        if (response.status == LockProtocol.NOT_ACQUIRED) return false;
+        if (response.status != LockProtocol.OK) throw LockProtocol.exception(response, lock);
+
+        lock.setIsLocked(true);
+        lock.setFencingToken(response.token);
+
+        return true;
+    }
+
+    /**
+     * Sends a request and waits for the response
+     *
+     * @param lock the lock
+     * @param operation operation
+     * @param allowLost TRY_UNLOCK: do not fail if the lock has been lost
+     * @param waitingTime TRY_LOCK: maximum time to wait, milliseconds
+     * @param acquiringTime TRY_LOCK, RENEW: for how long to acquire the lock, milliseconds
+     *
+     * @return response
+     *
+     * @throws LockServerException when the server is not available or has not answered in time
+     */
+    private LockProtocol.Response call(
+        Lock lock,
+        byte operation,
+        boolean allowLost,
+        long waitingTime,
+        long acquiringTime
+    ) throws LockServerException {
+        return await(lock, send(lock, operation, allowLost, waitingTime, acquiringTime)).get(0);
+    }
+
+    /**
+     * Waits for the responses to a request
+     *
+     * @param lock the (first) lock of the request
+     * @param responses completed with the responses
+     *
+     * @return responses
+     *
+     * @throws LockServerException when the server is not available or has not answered in time
+     */
+    private List<LockProtocol.Response> await(
+        Lock lock,
+        CompletableFuture<List<LockProtocol.Response>> responses
+    ) throws LockServerException {
+        try {
+            return responses.get();
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof LockServerException) throw (LockServerException) exception.getCause();
+            throw new LockServerException("Lock server is not available", exception.getCause());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new LockServerException("Interrupted while waiting for lock " + lock.getId(), exception);
+        }
+    }
+
+    /**
+     * Queues a request on the connection of the lock id
+     *
+     * @param lock the lock
+     * @param operation operation
+     * @param allowLost TRY_UNLOCK: do not fail if the lock has been lost
+     * @param waitingTime TRY_LOCK: maximum time to wait, milliseconds
+     * @param acquiringTime TRY_LOCK, RENEW: for how long to acquire the lock, milliseconds
+     *
+     * @return completed with the single response, or with LockServerException if it has not come in time
+     *
+     * @throws LockServerException when the server can not be connected
+     */
+    private CompletableFuture<List<LockProtocol.Response>> send(
+        Lock lock,
+        byte operation,
+        boolean allowLost,
+        long waitingTime,
+        long acquiringTime
+    ) throws LockServerException {
+        return connectionOf(lock).send(Collections.singletonList(
+            new LockProtocol.Request(requestIds.incrementAndGet(), operation, lock, allowLost, waitingTime, acquiringTime)
+        ), waitingTime + requestTimeout);
+    }
+
+    /**
+     * @param lock the lock
+     *
+     * @return connection the requests of the lock id go through, opened again if it has been closed
+     *
+     * @throws LockServerException when the server can not be connected
+     */
+    private Connection connectionOf(Lock lock) throws LockServerException {
+        int index = Math.floorMod(lock.getId().hashCode(), connections.length());
+        Connection connection = connections.get(index);
+        if (connection.failure == null) return connection;
+
+        synchronized (connections) {
+            connection = connections.get(index);
+            if (connection.failure == null) return connection;
+            if (isStopped) throw new LockServerException("Lock client has been stopped", connection.failure);
+
+            try {
+                connection = new Connection(host, port);
+            } catch (IOException exception) {
+                throw new LockServerException("Failed to connect to the lock server " + host + ":" + port, exception);
+            }
+            connections.set(index, connection);
+
+            return connection;
+        }
+    }
+
+    /**
+     * @param runnable what to run
+     * @param name thread name
+     *
+     * @return new daemon thread
+     */
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+
+        return thread;
+    }
+}
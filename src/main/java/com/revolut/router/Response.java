@@ -12,7 +12,8 @@ public class Response {
         INTERNAL_ERROR(1), // internal errors like unhandled exceptions
         MISSING_PARAMETER(2), // a parameter is missing in the request
         WRONG_PARAMETER(3), // the format of a parameter is wrong
-        INVALID_VALUE(4); // the value of a parameter is invalid
+        INVALID_VALUE(4), // the value of a parameter is invalid
+        OVERLOADED(5); // too many requests in flight, the request has not been executed
 
         /**
          * DEC code
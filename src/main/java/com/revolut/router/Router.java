@@ -2,11 +2,15 @@ package com.revolut.router;
 
 import com.revolut.exception.RevolutException;
 import org.apache.logging.log4j.ThreadContext;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.slf4j.Logger;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
 import java.util.UUID;
 
 import static com.revolut.utils.JsonUtil.json;
+import static com.revolut.utils.JsonUtil.toJson;
 import static spark.Spark.*;
 
 /**
@@ -22,6 +26,15 @@ public class Router {
         this.logger = logger;
     }
 
+    /**
+     * Runs the requests on the given thread pool instead of the Spark one. Must be called before the first route
+     *
+     * @param threadPool Jetty thread pool
+     */
+    public void runOn(ThreadPool threadPool) {
+        EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new EmbeddedJettyFactory().withThreadPool(threadPool));
+    }
+
     /**
      * Add a new handler for POST request
      *
@@ -55,4 +68,44 @@ public class Router {
 
         logger.info("Registered " + path + " route");
     }
+
+    /**
+     * Add a new handler for GET request.
+     * A returned Response is rendered as JSON. A handler may also write the body directly to the raw response output
+     * stream (for example to stream a long list), then it must return an empty string
+     *
+     * @param path URL
+     * @param route spark route with handler
+     */
+    public void handleGET(String path, spark.Route route) {
+        // Force all responses to be JSON
+        after((request, response) -> response.type("application/json"));
+
+        get(path, (spark.Request request, spark.Response response) -> {
+            UUID traceId = UUID.randomUUID();
+
+            try {
+                // Add trace id
+                ThreadContext.put(com.revolut.logger.Logger.FIELD_TRACE_ID, traceId.toString());
+                logger.info("Matched " + path + " route");
+
+                Object result = route.handle(request, response);
+                return (result instanceof Response) ? toJson(result) : result;
+            } catch (RevolutException exception) {
+                // Revolut exception might have additional displayable data
+                logger.error("Uncaught revolut exception", exception);
+                response.status(200);
+                return toJson(
+                    new Response(Response.ResponseCode.INTERNAL_ERROR, traceId.toString()).setData(exception.toDisplayable())
+                );
+            } catch (Exception exception) {
+                // All other exceptions are plain 500 internal server error
+                logger.error("Uncaught exception", exception);
+                response.status(500);
+                return toJson(new Response(Response.ResponseCode.INTERNAL_ERROR, traceId.toString()));
+            }
+        });
+
+        logger.info("Registered " + path + " route");
+    }
 }
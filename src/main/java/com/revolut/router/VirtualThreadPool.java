@@ -0,0 +1,59 @@
+package com.revolut.router;
+
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jetty thread pool starting a new virtual thread per task: a request blocked on a lock or on the ledger journal holds
+ * only a virtual thread. @see com.revolut.utils.VirtualThreadUtil::newExecutor()
+ */
+public class VirtualThreadPool implements ThreadPool {
+    /**
+     * Starts the threads
+     */
+    private ExecutorService executorService;
+
+    /**
+     * @param executorService executor starting a new virtual thread per task
+     */
+    public VirtualThreadPool(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        executorService.execute(runnable);
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Threads are not pooled, there are as many as running tasks
+     */
+    @Override
+    public int getThreads() {
+        return 0;
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * A new thread is always available
+     */
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
@@ -0,0 +1,77 @@
+package com.revolut.transfer;
+
+import com.revolut.ledger.Transaction.Exception.TransactionException;
+import org.slf4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically folds new ledger entries into the checkpoint balances. @see LedgerEntries
+ */
+public class LedgerCompactor {
+    /**
+     * Ledger service
+     */
+    private LocalLedgerService ledgerService;
+
+    /**
+     * Logger
+     */
+    private Logger logger;
+
+    /**
+     * Ledgers with fewer new entries are skipped
+     */
+    private int minEntries;
+
+    /**
+     * Runs the compaction
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param ledgerService ledger service
+     * @param logger logger
+     * @param minEntries ledgers with fewer new entries are skipped
+     */
+    public LedgerCompactor(LocalLedgerService ledgerService, Logger logger, int minEntries) {
+        this.ledgerService = ledgerService;
+        this.logger = logger;
+        this.minEntries = minEntries;
+    }
+
+    /**
+     * Starts the periodic compaction
+     *
+     * @param period delay between compactions, milliseconds
+     */
+    public void start(long period) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::compact, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic compaction
+     */
+    public void stop() {
+        if (scheduler != null) scheduler.shutdown();
+    }
+
+    /**
+     * Single compaction run
+     */
+    void compact() {
+        try {
+            int folded = ledgerService.compact(minEntries);
+            if (folded > 0) logger.debug("Compacted " + folded + " ledger entries");
+        } catch (TransactionException | RuntimeException exception) {
+            logger.error("Ledger compaction has failed", exception);
+        }
+    }
+}
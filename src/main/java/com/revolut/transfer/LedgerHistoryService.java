@@ -0,0 +1,184 @@
+package com.revolut.transfer;
+
+import com.google.gson.stream.JsonWriter;
+import com.revolut.ledger.LedgerEntry;
+import com.revolut.router.Response;
+import com.revolut.utils.UUIDUtil;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Handle ledger history requests.
+ *
+ * Entries are returned in the append order, page by page. A page is written to the response output stream entry by
+ * entry, so memory use does not depend on the page size or the history length. The response contains an opaque cursor
+ * of the next page, null on the last page
+ */
+public class LedgerHistoryService {
+    /**
+     * Page size when no limit is given
+     */
+    public static final int DEFAULT_LIMIT = 100;
+
+    /**
+     * Maximum page size
+     */
+    public static final int MAX_LIMIT = 1000;
+
+    /**
+     * Ledger service
+     */
+    private LocalLedgerService ledgerService;
+
+    /**
+     * @param ledgerService ledger service
+     */
+    public LedgerHistoryService(LocalLedgerService ledgerService) {
+        this.ledgerService = ledgerService;
+    }
+
+    /**
+     * Handle ledger history requests
+     *
+     * @param request incoming request
+     * @param sparkResponse spark response
+     * @return response object on errors, empty string when the page has been streamed
+     */
+    public Object entriesAction(spark.Request request, spark.Response sparkResponse) throws Exception {
+        String idParameter = request.params(":id");
+        String cursorParameter = request.queryParams("cursor");
+        String limitParameter = request.queryParams("limit");
+
+        UUID ledgerId = UUIDUtil.parse(idParameter);
+        if (ledgerId == null)
+            return new Response(Response.ResponseCode.WRONG_PARAMETER, "Wrong \"id\" format");
+
+        int limit = DEFAULT_LIMIT;
+        if (limitParameter != null) {
+            try {
+                limit = Integer.parseInt(limitParameter);
+            } catch (NumberFormatException numberFormatException) {
+                return new Response(Response.ResponseCode.WRONG_PARAMETER, "Wrong \"limit\" format");
+            }
+
+            if ((limit <= 0) || (limit > MAX_LIMIT))
+                return new Response(Response.ResponseCode.INVALID_VALUE, "\"limit\" must be between 1 and " + MAX_LIMIT);
+        }
+
+        int from = 0;
+        if (cursorParameter != null) {
+            from = decodeCursor(ledgerId, cursorParameter);
+            if (from < 0)
+                return new Response(Response.ResponseCode.WRONG_PARAMETER, "Wrong \"cursor\" format");
+        }
+
+        List<LedgerEntry> ledgerEntries = ledgerService.getEntries(ledgerId);
+        if (ledgerEntries == null)
+            return new Response(Response.ResponseCode.INVALID_VALUE, "ledger does not exist");
+
+        sparkResponse.status(200);
+        sparkResponse.type("application/json");
+        write(ledgerId, ledgerEntries, from, limit, sparkResponse.raw().getOutputStream());
+
+        return "";
+    }
+
+    /**
+     * Writes a page as a NO_ERROR response: entries and the cursor of the next page
+     *
+     * @param ledgerId ledger id
+     * @param ledgerEntries all the entries of the ledger
+     * @param from number of the first entry of the page
+     * @param limit maximum number of entries in the page
+     * @param outputStream where to write
+     *
+     * @throws IOException
+     */
+    static void write(UUID ledgerId, List<LedgerEntry> ledgerEntries, int from, int limit, OutputStream outputStream) throws IOException {
+        int to = (int) Math.min((long) from + limit, ledgerEntries.size());
+
+        JsonWriter jsonWriter = new JsonWriter(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
+        jsonWriter.beginObject();
+        jsonWriter.name("responseCode").value(Response.ResponseCode.NO_ERROR.name());
+        jsonWriter.name("msg").value("");
+        jsonWriter.name("data").beginObject();
+
+        jsonWriter.name("entries").beginArray();
+        for (int i = from; i < to; i++) write(jsonWriter, ledgerEntries.get(i));
+        jsonWriter.endArray();
+
+        jsonWriter.name("next");
+        if (to < ledgerEntries.size()) jsonWriter.value(encodeCursor(ledgerId, to));
+        else jsonWriter.nullValue();
+
+        jsonWriter.endObject();
+        jsonWriter.endObject();
+        jsonWriter.flush();
+    }
+
+    /**
+     * @param jsonWriter where to write
+     * @param ledgerEntry entry to write
+     *
+     * @throws IOException
+     */
+    private static void write(JsonWriter jsonWriter, LedgerEntry ledgerEntry) throws IOException {
+        jsonWriter.beginObject();
+        jsonWriter.name("id").value(ledgerEntry.getId().toString());
+        jsonWriter.name("globalId").value(ledgerEntry.getGlobalId().toString());
+        jsonWriter.name("fromLedgerId").value(ledgerEntry.getFromLedgerId().toString());
+        jsonWriter.name("toLedgerId").value(ledgerEntry.getToLedgerId().toString());
+        jsonWriter.name("amount").value(ledgerEntry.getAmount());
+        jsonWriter.name("type").value(ledgerEntry.getType().name());
+        jsonWriter.name("subtype").value(ledgerEntry.getSubtype().name());
+        jsonWriter.name("createdAt").value(ledgerEntry.getCreatedAt());
+        jsonWriter.name("createdBy").value(ledgerEntry.getCreatedBy().toString());
+        jsonWriter.endObject();
+    }
+
+    /**
+     * @param ledgerId ledger id, a cursor is valid only for its ledger
+     * @param index number of the first entry of the next page
+     *
+     * @return opaque cursor
+     */
+    static String encodeCursor(UUID ledgerId, int index) {
+        ByteBuffer buffer = ByteBuffer.allocate(20);
+        buffer.putLong(ledgerId.getMostSignificantBits());
+        buffer.putLong(ledgerId.getLeastSignificantBits());
+        buffer.putInt(index);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * @param ledgerId ledger id
+     * @param cursor opaque cursor
+     *
+     * @return number of the first entry of the page, -1 if the cursor is malformed or belongs to another ledger
+     */
+    static int decodeCursor(UUID ledgerId, String cursor) {
+        byte[] bytes;
+
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException illegalArgumentException) {
+            return -1;
+        }
+
+        if (bytes.length != 20) return -1;
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (!new UUID(buffer.getLong(), buffer.getLong()).equals(ledgerId)) return -1;
+
+        return Math.max(buffer.getInt(), -1);
+    }
+}
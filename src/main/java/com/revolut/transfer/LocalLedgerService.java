@@ -1,17 +1,32 @@
 package com.revolut.transfer;
 
 import com.revolut.ledger.Balance;
+import com.revolut.ledger.EntryLocation;
+import com.revolut.ledger.Exception.LedgerException;
+import com.revolut.ledger.Exception.StaleFencingTokenException;
+import com.revolut.ledger.Exception.TransactionNotInFlightException;
+import com.revolut.ledger.Journal.JournalCommitter;
+import com.revolut.ledger.Journal.JournalRecovery;
 import com.revolut.ledger.Ledger;
+import com.revolut.ledger.LedgerEntries;
 import com.revolut.ledger.LedgerEntry;
 import com.revolut.ledger.LedgerService;
+import com.revolut.ledger.PackedLedgerEntries;
 import com.revolut.ledger.Transaction.Exception.TransactionException;
 import com.revolut.ledger.Transaction.Transaction;
+import com.revolut.ledger.Transaction.TransactionState;
 
 import java.time.Clock;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
 /**
- * Ledger service with local static storage and a few predefined ledgers with entries
+ * Ledger service with local static storage and a few predefined ledgers with entries.
+ * Optionally backed by a journal - then all the entries are persisted and loaded back on start
  */
 public class LocalLedgerService implements LedgerService {
     /**
@@ -19,10 +34,32 @@ public class LocalLedgerService implements LedgerService {
      */
     private static HashMap<UUID, Ledger> ledgers = new HashMap<>();
 
+    /**
+     * Ledgers storage by ledger id
+     */
+    private static HashMap<UUID, Ledger> ledgersById = new HashMap<>();
+
     /**
      * Ledgers entries storage
      */
-    private static HashMap<UUID, List<LedgerEntry>> ledgersEntries = new HashMap<>();
+    private static ConcurrentHashMap<UUID, LedgerEntries> ledgersEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Locations of the ledger entries by global transaction id, across all the ledgers
+     */
+    private static ConcurrentHashMap<UUID, EntryLocation[]> globalIndex = new ConcurrentHashMap<>();
+
+    /**
+     * Entries which are being stored but are not in the global index yet, by global transaction id. An entry is checked
+     * against the state of its transaction and claimed at once, so two writers can not resolve a transaction in
+     * different ways
+     */
+    private static ConcurrentHashMap<UUID, EntryLocation[]> claims = new ConcurrentHashMap<>();
+
+    /**
+     * The highest fencing token seen by every ledger
+     */
+    private static ConcurrentHashMap<UUID, Fence> fences = new ConcurrentHashMap<>();
 
     /**
      * "Owner/Author" of the predefined ledger entries
@@ -30,47 +67,625 @@ public class LocalLedgerService implements LedgerService {
     private static UUID GodUUID = UUID.fromString("00000000-0000-0000-0000-000000000001");
 
     /**
-     * Helper method to create a predefined ledger with some predefined entries
+     * Fence of a ledger. A lock rather than a monitor: a fenced write waits for the journal while holding it, and a
+     * virtual thread parked on a monitor pins its carrier
+     */
+    private static final class Fence {
+        /**
+         * Serializes fenced writes of the ledger
+         */
+        final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * The highest fencing token seen, guarded by the lock
+         */
+        long token;
+    }
+
+    /**
+     * A batch of writes of a thread
+     */
+    private static final class Batch {
+        /**
+         * Nesting depth
+         */
+        int depth;
+
+        /**
+         * Entries written in the batch, in order. Journaled and published by endBatch() in this order
+         */
+        final List<LedgerEntry> entries = new ArrayList<>();
+
+        /**
+         * Owner ledger ids of the entries
+         */
+        final List<UUID> owners = new ArrayList<>();
+
+        /**
+         * Fencing tokens of the entries, UNFENCED if none
+         */
+        final List<Long> fencingTokens = new ArrayList<>();
+
+        /**
+         * @param ledgerId ledger id
+         *
+         * @return entries of the ledger written in the batch, in order
+         */
+        List<LedgerEntry> pending(UUID ledgerId) {
+            List<LedgerEntry> pending = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                if (owners.get(i).equals(ledgerId)) pending.add(entries.get(i));
+            }
+
+            return pending;
+        }
+    }
+
+    /**
+     * Open batch of the current thread, if any
+     */
+    private ThreadLocal<Batch> batches = new ThreadLocal<>();
+
+    /**
+     * Called after every stored entry with the owner ledger id and the entry
+     */
+    private List<BiConsumer<UUID, LedgerEntry>> appendListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Helper method to create a predefined ledger
      *
      * @param ledger ledger UUID to create
      * @param account account UUID of the ledger
-     * @param amount balance of the ledger
      */
-    private void createLedgerAndDebitTransaction(String ledger, String account, int amount) {
+    private void createLedger(String ledger, String account) {
         UUID ledgerId = UUID.fromString(ledger);
         UUID accountId = UUID.fromString(account);
-        ledgers.put(
-            accountId,
-            new Ledger(this, ledgerId, accountId, Ledger.Type.INTERNAL, new Balance(amount, 0, 0))
-        );
+        Ledger newLedger = new Ledger(this, ledgerId, accountId, Ledger.Type.INTERNAL, new Balance(0, 0, 0));
+        ledgers.put(accountId, newLedger);
+        ledgersById.put(ledgerId, newLedger);
+        ledgersEntries.put(ledgerId, new LedgerEntries(this::newLedgerEntries));
+    }
 
+    /**
+     * Helper method to create predefined entries for the initial balance of a ledger
+     *
+     * @param ledger ledger UUID
+     * @param amount balance of the ledger
+     *
+     * @throws LedgerException when entries can not be stored
+     */
+    private void createDebitTransaction(String ledger, int amount) throws LedgerException {
+        UUID ledgerId = UUID.fromString(ledger);
         UUID globalId = UUID.randomUUID();
-        ledgersEntries.put(ledgerId, new ArrayList<>(Arrays.asList(
-            new LedgerEntry(UUID.randomUUID(), globalId, GodUUID, ledgerId, amount, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.RECEIVING, clock.millis(), GodUUID),
-            new LedgerEntry(UUID.randomUUID(), globalId, GodUUID, ledgerId, amount, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.ACTUAL, clock.millis(), GodUUID)
-        )));
+
+        append(ledgerId, new LedgerEntry(UUID.randomUUID(), globalId, GodUUID, ledgerId, amount, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.RECEIVING, clock.millis(), GodUUID));
+        append(ledgerId, new LedgerEntry(UUID.randomUUID(), globalId, GodUUID, ledgerId, amount, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.ACTUAL, clock.millis(), GodUUID));
     }
 
     private Clock clock;
 
     /**
-     * Create ledger service
+     * Persists entries to the journal, null when entries are kept only in memory
+     */
+    private JournalCommitter journalCommitter;
+
+    /**
+     * Rebuilds ledgers from the journal, null when nothing has been rebuilt
+     */
+    private JournalRecovery journalRecovery;
+
+    /**
+     * Whether to keep settled ledger entries packed into primitive arrays. @see PackedLedgerEntries
+     */
+    private boolean packedEntries;
+
+    /**
+     * Create in-memory ledger service
      */
     public LocalLedgerService(Clock clock) {
+        this(clock, false);
+    }
+
+    /**
+     * Create in-memory ledger service
+     *
+     * @param clock clock
+     * @param packedEntries whether to keep settled ledger entries packed into primitive arrays
+     */
+    public LocalLedgerService(Clock clock, boolean packedEntries) {
+        this.clock = clock;
+        this.packedEntries = packedEntries;
+
+        try {
+            createPredefinedLedgers();
+        } catch (LedgerException exception) {
+            // nothing is persisted, can not happen
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Create ledger service backed by a journal. Ledgers entries are loaded from the journal,
+     * predefined entries are created only if the journal is empty
+     *
+     * @param clock clock
+     * @param journalCommitter persists entries to the journal
+     *
+     * @throws LedgerException when the journal can not be read or written
+     */
+    public LocalLedgerService(Clock clock, JournalCommitter journalCommitter) throws LedgerException {
+        this(clock, journalCommitter, false);
+    }
+
+    /**
+     * Create ledger service backed by a journal. Ledgers entries are loaded from the journal,
+     * predefined entries are created only if the journal is empty
+     *
+     * @param clock clock
+     * @param journalCommitter persists entries to the journal
+     * @param packedEntries whether to keep settled ledger entries packed into primitive arrays
+     *
+     * @throws LedgerException when the journal can not be read or written
+     */
+    public LocalLedgerService(Clock clock, JournalCommitter journalCommitter, boolean packedEntries) throws LedgerException {
         this.clock = clock;
+        this.journalCommitter = journalCommitter;
+        this.packedEntries = packedEntries;
+
+        createPredefinedLedgers();
+    }
+
+    /**
+     * Creates predefined ledgers and their entries. Entries are loaded from the journal if there is anything
+     *
+     * @throws LedgerException when the journal can not be read or written
+     */
+    private void createPredefinedLedgers() throws LedgerException {
+        globalIndex.clear();
+        claims.clear();
+        fences.clear();
+
+        createLedger("326608e5-5fbf-4505-871d-d0ec830e1994", "326608e5-5fbf-4505-871d-d0ec830e1994");
+        createLedger("ef43bea7-8723-4f14-bab1-6b48ef8cb4fb", "5ab59fdf-997f-4a20-ab33-67272b840a19");
+        createLedger("530d0897-36dd-4045-bc1c-89f9dc41c0f2", "d2febbaf-0edb-4f19-824e-588b712c8c29");
+
+        if ((journalCommitter != null) && (journalCommitter.getJournal().size() > 0)) {
+            Map<UUID, LedgerEntries> recovered = new ConcurrentHashMap<>();
+
+            journalRecovery = new JournalRecovery(journalCommitter.getJournal(), ForkJoinPool.commonPool(), this::newLedgerEntries);
+            journalRecovery.recover(
+                (ledgerId, ledgerEntries) -> {
+                    LedgerEntries entries = new LedgerEntries(this::newLedgerEntries, ledgerEntries);
+                    recovered.put(ledgerId, entries);
+
+                    for (int i = 0; i < ledgerEntries.size(); i++) index(ledgerId, i, ledgerEntries.get(i));
+
+                    Ledger ledger = ledgersById.get(ledgerId);
+                    if (ledger != null) entries.updateBalance(ledger);
+                },
+                published -> ledgersEntries.putAll(recovered)
+            );
+
+            return;
+        }
+
+        createDebitTransaction("326608e5-5fbf-4505-871d-d0ec830e1994", 1000);
+        createDebitTransaction("ef43bea7-8723-4f14-bab1-6b48ef8cb4fb", 500);
+        createDebitTransaction("530d0897-36dd-4045-bc1c-89f9dc41c0f2", 50);
+    }
+
+    /**
+     * @return empty storage for entries of a ledger
+     */
+    private List<LedgerEntry> newLedgerEntries() {
+        return packedEntries ? new PackedLedgerEntries() : new ArrayList<>();
+    }
+
+    /**
+     * Stores a new entry: writes it to the journal (if any) and to the ledger's entries.
+     * Returns once the entry is durable according to the journal durability mode
+     *
+     * @param ownerLedgerId ledger the entry belongs to
+     * @param ledgerEntry new entry
+     *
+     * @throws LedgerException when the entry can not be persisted or does not fit the state of its transaction
+     */
+    private void append(UUID ownerLedgerId, LedgerEntry ledgerEntry) throws LedgerException {
+        EntryLocation claim = claim(ownerLedgerId, ledgerEntry);
+        try {
+            if (journalCommitter != null) journalCommitter.append(ownerLedgerId, ledgerEntry);
+            publish(ownerLedgerId, ledgerEntry);
+        } finally {
+            // the entry is in the global index by now, unless it has failed
+            unclaim(ledgerEntry.getGlobalId(), claim);
+        }
+    }
+
+    /**
+     * Checks an entry against the stored and the claimed entries of its transaction and claims it, at once
+     *
+     * @param ownerLedgerId ledger the entry belongs to
+     * @param ledgerEntry new entry
+     *
+     * @return the claim, to be dropped with unclaim() once the entry is published or has failed
+     *
+     * @throws TransactionNotInFlightException when the entry does not fit the state of its transaction
+     */
+    private EntryLocation claim(UUID ownerLedgerId, LedgerEntry ledgerEntry) throws TransactionNotInFlightException {
+        EntryLocation claim = new EntryLocation(ownerLedgerId, -1, ledgerEntry.getType(), ledgerEntry.getSubtype());
+        boolean[] isClaimed = {false};
+
+        claims.compute(ledgerEntry.getGlobalId(), (globalId, claimed) -> {
+            List<EntryLocation> locations = locations(globalId, null);
+            if (claimed != null) locations.addAll(Arrays.asList(claimed));
+
+            isClaimed[0] = fits(ownerLedgerId, ledgerEntry.getSubtype(), locations);
+
+            return isClaimed[0] ? add(claimed, claim) : claimed;
+        });
+
+        if (!isClaimed[0]) throw new TransactionNotInFlightException(ownerLedgerId, ledgerEntry.getGlobalId(), ledgerEntry.getSubtype());
+
+        return claim;
+    }
+
+    /**
+     * @param globalId global transaction id
+     * @param claim claim to drop
+     */
+    private static void unclaim(UUID globalId, EntryLocation claim) {
+        claims.computeIfPresent(globalId, (id, claimed) -> {
+            EntryLocation[] rest = Arrays.stream(claimed).filter(location -> location != claim).toArray(EntryLocation[]::new);
+
+            return (rest.length == 0) ? null : rest;
+        });
+    }
+
+    /**
+     * An initial entry fits while the transaction is neither completed nor cancelled anywhere. A completion or a
+     * cancellation fits if the transaction has been initiated in the ledger, has not been resolved there yet and has
+     * not been resolved the other way in any ledger: a transaction is either completed or cancelled everywhere
+     *
+     * @param ownerLedgerId ledger of the new entry
+     * @param subtype subtype of the new entry
+     * @param locations the other entries of the transaction
+     *
+     * @return true if the entry fits the state of its transaction
+     */
+    private static boolean fits(UUID ownerLedgerId, LedgerEntry.Subtype subtype, List<EntryLocation> locations) {
+        boolean isInitiated = false;
+        boolean isResolved = false;
+        boolean isCompleted = false;
+        boolean isCancelled = false;
+
+        for (EntryLocation location : locations) {
+            boolean isOwner = location.getLedgerId().equals(ownerLedgerId);
+
+            switch (location.getSubtype()) {
+                case OBLIGATION:
+                case RECEIVING:
+                    isInitiated |= isOwner;
+                    break;
+
+                case ACTUAL:
+                    isCompleted = true;
+                    isResolved |= isOwner;
+                    break;
+
+                case CANCEL:
+                    isCancelled = true;
+                    isResolved |= isOwner;
+                    break;
+            }
+        }
+
+        switch (subtype) {
+            case ACTUAL:
+                return isInitiated && !isResolved && !isCancelled;
+
+            case CANCEL:
+                return isInitiated && !isResolved && !isCompleted;
+
+            default:
+                return !isCompleted && !isCancelled;
+        }
+    }
+
+    /**
+     * @param globalId global transaction id
+     * @param batch batch of the current thread, null to leave its entries out
+     *
+     * @return locations of the published entries of the transaction, followed by its entries written in the batch
+     */
+    private static List<EntryLocation> locations(UUID globalId, Batch batch) {
+        List<EntryLocation> locations = new ArrayList<>();
+        EntryLocation[] published = globalIndex.get(globalId);
+        if (published != null) locations.addAll(Arrays.asList(published));
+
+        if (batch != null) {
+            for (int i = 0; i < batch.entries.size(); i++) {
+                LedgerEntry ledgerEntry = batch.entries.get(i);
+                if (ledgerEntry.getGlobalId().equals(globalId)) {
+                    locations.add(new EntryLocation(batch.owners.get(i), -1, ledgerEntry.getType(), ledgerEntry.getSubtype()));
+                }
+            }
+        }
+
+        return locations;
+    }
+
+    /**
+     * @param locations locations, null if none
+     * @param location location to add
+     *
+     * @return a copy of the locations with the location added
+     */
+    private static EntryLocation[] add(EntryLocation[] locations, EntryLocation location) {
+        if (locations == null) return new EntryLocation[] {location};
+
+        EntryLocation[] added = Arrays.copyOf(locations, locations.length + 1);
+        added[locations.length] = location;
 
-        // Create some predefined ledgers
-        createLedgerAndDebitTransaction("326608e5-5fbf-4505-871d-d0ec830e1994", "326608e5-5fbf-4505-871d-d0ec830e1994", 1000);
-        createLedgerAndDebitTransaction("ef43bea7-8723-4f14-bab1-6b48ef8cb4fb", "5ab59fdf-997f-4a20-ab33-67272b840a19", 500);
-        createLedgerAndDebitTransaction("530d0897-36dd-4045-bc1c-89f9dc41c0f2", "d2febbaf-0edb-4f19-824e-588b712c8c29", 50);
+        return added;
     }
 
+    /**
+     * Makes a durable entry visible: adds it to the ledger's entries and to the global index, notifies the listeners
+     *
+     * @param ownerLedgerId ledger the entry belongs to
+     * @param ledgerEntry the entry
+     */
+    private void publish(UUID ownerLedgerId, LedgerEntry ledgerEntry) {
+        int index = ledgersEntries.get(ownerLedgerId).append(ledgerEntry);
+        index(ownerLedgerId, index, ledgerEntry);
+
+        for (BiConsumer<UUID, LedgerEntry> appendListener : appendListeners) appendListener.accept(ownerLedgerId, ledgerEntry);
+    }
+
+    /**
+     * Stores a new entry written under an account lock. A writer whose token is lower than the highest token seen by
+     * the ledger has lost its lock and is rejected. Fenced writes of a ledger are serialized, so a stale writer can not
+     * slip in between the check and the append; unfenced writes stay lock-free.
+     * Within a batch the entry is only checked and kept aside, endBatch() checks it again and stores it
+     *
+     * @param ownerLedgerId ledger the entry belongs to
+     * @param ledgerEntry new entry
+     * @param fencingToken fencing token of the account lock, UNFENCED if none
+     *
+     * @throws LedgerException when the entry can not be persisted, does not fit the state of its transaction or the
+     *         fencing token is stale
+     */
+    private void append(UUID ownerLedgerId, LedgerEntry ledgerEntry, long fencingToken) throws LedgerException {
+        Batch batch = batches.get();
+
+        if (batch != null) {
+            // entries of the batch are not visible to other threads, nobody else can resolve their transactions
+            List<EntryLocation> locations = locations(ledgerEntry.getGlobalId(), batch);
+            EntryLocation[] claimed = claims.get(ledgerEntry.getGlobalId());
+            if (claimed != null) locations.addAll(Arrays.asList(claimed));
+            if (!fits(ownerLedgerId, ledgerEntry.getSubtype(), locations)) {
+                throw new TransactionNotInFlightException(ownerLedgerId, ledgerEntry.getGlobalId(), ledgerEntry.getSubtype());
+            }
+
+            if (fencingToken != UNFENCED) {
+                Fence fence = fences.computeIfAbsent(ownerLedgerId, ledgerId -> new Fence());
+                fence.lock.lock();
+                try {
+                    checkFence(ownerLedgerId, fence, fencingToken);
+                } finally {
+                    fence.lock.unlock();
+                }
+            }
+
+            batch.entries.add(ledgerEntry);
+            batch.owners.add(ownerLedgerId);
+            batch.fencingTokens.add(fencingToken);
+            return;
+        }
+
+        if (fencingToken == UNFENCED) {
+            append(ownerLedgerId, ledgerEntry);
+            return;
+        }
+
+        Fence fence = fences.computeIfAbsent(ownerLedgerId, ledgerId -> new Fence());
+        fence.lock.lock();
+        try {
+            checkFence(ownerLedgerId, fence, fencingToken);
+
+            fence.token = fencingToken;
+            append(ownerLedgerId, ledgerEntry);
+        } finally {
+            fence.lock.unlock();
+        }
+    }
+
+    /**
+     * @param ownerLedgerId ledger id
+     * @param fence fence of the ledger, locked
+     * @param fencingToken fencing token of the writer
+     *
+     * @throws StaleFencingTokenException when the ledger has seen a higher token
+     */
+    private static void checkFence(UUID ownerLedgerId, Fence fence, long fencingToken) throws StaleFencingTokenException {
+        if (fence.token > fencingToken) throw new StaleFencingTokenException(ownerLedgerId, fencingToken, fence.token);
+    }
+
+    /**
+     * @param appendListener called after every stored entry with the owner ledger id and the entry, on the appending thread
+     */
+    public void addAppendListener(BiConsumer<UUID, LedgerEntry> appendListener) {
+        appendListeners.add(appendListener);
+    }
+
+    /**
+     * Adds the location of an entry to the global index. Transactions have a few entries, so locations are kept
+     * in a small array which is copied on update
+     *
+     * @param ownerLedgerId ledger the entry belongs to
+     * @param index number of the entry in the ledger
+     * @param ledgerEntry the entry
+     */
+    private void index(UUID ownerLedgerId, int index, LedgerEntry ledgerEntry) {
+        EntryLocation location = new EntryLocation(ownerLedgerId, index, ledgerEntry.getType(), ledgerEntry.getSubtype());
+
+        globalIndex.merge(ledgerEntry.getGlobalId(), new EntryLocation[] {location}, (locations, added) -> add(locations, location));
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Within a batch the entries written in it are included
+     */
+    @Override
+    public List<LedgerEntry> getByGlobalId(UUID globalId) {
+        EntryLocation[] locations = globalIndex.get(globalId);
+        Batch batch = batches.get();
+        if ((locations == null) && (batch == null)) return Collections.emptyList();
+
+        List<LedgerEntry> result = new ArrayList<>();
+        if (locations != null) {
+            for (EntryLocation location : locations) {
+                result.add(ledgersEntries.get(location.getLedgerId()).get(location.getIndex()));
+            }
+        }
+
+        if (batch != null) {
+            for (LedgerEntry ledgerEntry : batch.entries) {
+                if (ledgerEntry.getGlobalId().equals(globalId)) result.add(ledgerEntry);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Within a batch the entries written in it are included
+     */
+    @Override
+    public TransactionState getTransactionState(UUID globalId) {
+        Batch batch = batches.get();
+        if (batch == null) return TransactionState.of(globalIndex.get(globalId));
+
+        return TransactionState.of(locations(globalId, batch).toArray(new EntryLocation[0]));
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Within a batch it is a new ledger of the batch: its balance includes the entries written in the batch, while the
+     * shared one only has durable entries
+     */
     @Override
     public Ledger getByAccountId(UUID accountId) throws TransactionException {
         Ledger ledger = ledgers.getOrDefault(accountId, null);
-        if (ledger != null) ledger.updateBalance(ledgersEntries.get(ledger.getId()));
+        if (ledger == null) return null;
+
+        Batch batch = batches.get();
+        if (batch == null) {
+            ledgersEntries.get(ledger.getId()).updateBalance(ledger);
+            return ledger;
+        }
+
+        Ledger view = new Ledger(this, ledger.getId(), ledger.getAccountId(), ledger.getType(), new Balance(0, 0, 0));
+        ledgersEntries.get(ledger.getId()).updateBalance(view, batch.pending(ledger.getId()));
+
+        return view;
+    }
+
+    /**
+     * @param ledgerId ledger id
+     *
+     * @return a provisioned ledger for the given ledger id, null if such does not exist
+     *
+     * @throws TransactionException
+     */
+    public Ledger getByLedgerId(UUID ledgerId) throws TransactionException {
+        Ledger ledger = ledgersById.getOrDefault(ledgerId, null);
+
+        return (ledger == null) ? null : getByAccountId(ledger.getAccountId());
+    }
+
+    /**
+     * @param ledgerId ledger id
+     *
+     * @return all the entries of the ledger in the append order, null if there is no such ledger. A read-only view,
+     *         it does not see entries appended later
+     */
+    public List<LedgerEntry> getEntries(UUID ledgerId) {
+        LedgerEntries entries = ledgersEntries.get(ledgerId);
+
+        return (entries == null) ? null : entries.getAll();
+    }
+
+    /**
+     * @return ids of all the ledgers
+     */
+    public Set<UUID> getLedgerIds() {
+        return Collections.unmodifiableSet(ledgersById.keySet());
+    }
+
+    /**
+     * @return timings of rebuilding ledgers from the journal, null when nothing has been rebuilt
+     */
+    public JournalRecovery.Report getRecoveryReport() {
+        return (journalRecovery == null) ? null : journalRecovery.getReport();
+    }
+
+    /**
+     * Checks the incrementally maintained balance of a ledger against a full replay of its entries
+     *
+     * @param accountId account id
+     *
+     * @return true if balances match, false otherwise or if there is no such ledger
+     *
+     * @throws TransactionException
+     */
+    public boolean verifyBalance(UUID accountId) throws TransactionException {
+        Ledger ledger = ledgers.getOrDefault(accountId, null);
+
+        return (ledger != null) && ledger.verifyBalance(ledgersEntries.get(ledger.getId()).getAll());
+    }
+
+    /**
+     * Folds the entries appended since the previous compaction into the checkpoint balance of every ledger
+     *
+     * @param minEntries ledgers with fewer new entries are skipped
+     *
+     * @return number of folded entries
+     *
+     * @throws TransactionException
+     */
+    public int compact(int minEntries) throws TransactionException {
+        int folded = 0;
+        for (LedgerEntries entries : ledgersEntries.values()) folded += entries.compact(minEntries);
+
+        return folded;
+    }
+
+    /**
+     * @param ledgerId ledger id
+     *
+     * @return initial entries of the transactions of the ledger which are neither completed nor cancelled yet
+     */
+    public List<LedgerEntry> getInFlight(UUID ledgerId) {
+        LedgerEntries entries = ledgersEntries.get(ledgerId);
+
+        return (entries == null) ? Collections.emptyList() : entries.getInFlight();
+    }
+
+    /**
+     * @param ledgerId ledger id
+     * @param globalId global transaction id
+     *
+     * @return true if the transaction has been initiated in the ledger but neither completed nor cancelled yet
+     */
+    public boolean isInFlight(UUID ledgerId, UUID globalId) {
+        LedgerEntries entries = ledgersEntries.get(ledgerId);
 
-        return ledger;
+        return (entries != null) && entries.isInFlight(globalId);
     }
 
     @Override
@@ -82,19 +697,20 @@ public class LocalLedgerService implements LedgerService {
         long amount,
         LedgerEntry.Type type,
         LedgerEntry.Subtype subtype,
-        UUID createdBy
-    ) {
+        UUID createdBy,
+        long fencingToken
+    ) throws LedgerException {
         LedgerEntry ledgerEntry = new LedgerEntry(
             UUID.randomUUID(), globalId, fromLedgerId, toLedgerId, amount, type, subtype, clock.millis(), createdBy
         );
 
-        ledgersEntries.get(ownerLedgerId).add(ledgerEntry);
+        append(ownerLedgerId, ledgerEntry, fencingToken);
 
         return ledgerEntry;
     }
 
     @Override
-    public LedgerEntry completeTransaction(Transaction transaction) {
+    public LedgerEntry completeTransaction(Transaction transaction, long fencingToken) throws LedgerException {
         LedgerEntry ledgerEntry = new LedgerEntry(
             UUID.randomUUID(),
             transaction.getId(),
@@ -107,15 +723,13 @@ public class LocalLedgerService implements LedgerService {
             transaction.getCreatedBy()
         );
 
-        ledgersEntries
-            .get(transaction.getOwnerLedgerId())
-            .add(ledgerEntry);
+        append(transaction.getOwnerLedgerId(), ledgerEntry, fencingToken);
 
         return ledgerEntry;
     }
 
     @Override
-    public LedgerEntry cancelTransaction(Transaction transaction) {
+    public LedgerEntry cancelTransaction(Transaction transaction, long fencingToken) throws LedgerException {
         LedgerEntry ledgerEntry = new LedgerEntry(
                 UUID.randomUUID(),
                 transaction.getId(),
@@ -128,10 +742,111 @@ public class LocalLedgerService implements LedgerService {
                 transaction.getCreatedBy()
         );
 
-        ledgersEntries
-                .get(transaction.getOwnerLedgerId())
-                .add(ledgerEntry);
+        append(transaction.getOwnerLedgerId(), ledgerEntry, fencingToken);
 
         return ledgerEntry;
     }
+
+    /**
+     * @inheritDoc
+     *
+     * Entries of the batch are visible only to the thread of the batch until endBatch() publishes them
+     */
+    @Override
+    public void beginBatch() {
+        Batch batch = batches.get();
+        if (batch == null) {
+            batch = new Batch();
+            batches.set(batch);
+        }
+
+        batch.depth++;
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The entries are checked against their fences and transactions again and written to the journal as one contiguous
+     * range, then published in that order. A range which fails to be made durable is aborted in the journal
+     */
+    @Override
+    public void endBatch() throws LedgerException {
+        Batch batch = batches.get();
+        if (batch == null) throw new IllegalStateException("No batch has been started");
+
+        if (--batch.depth > 0) return;
+
+        batches.remove();
+        if (batch.entries.isEmpty()) return;
+
+        List<EntryLocation> claimed = new ArrayList<>();
+        try {
+            long sequence = write(batch, claimed);
+
+            if (journalCommitter != null) {
+                long lastSequence = sequence + batch.entries.size() - 1;
+                try {
+                    journalCommitter.commit(sequence, lastSequence);
+                } catch (RuntimeException exception) {
+                    // the records are in the journal already, they must not come back on the next start
+                    try {
+                        journalCommitter.abort(sequence, lastSequence);
+                    } catch (LedgerException | RuntimeException abortException) {
+                        exception.addSuppressed(abortException);
+                    }
+
+                    throw exception;
+                }
+            }
+
+            for (int i = 0; i < batch.entries.size(); i++) publish(batch.owners.get(i), batch.entries.get(i));
+        } finally {
+            // the entries are in the global index by now, unless the batch has failed
+            for (int i = 0; i < claimed.size(); i++) unclaim(batch.entries.get(i).getGlobalId(), claimed.get(i));
+        }
+    }
+
+    /**
+     * Checks the entries of a batch against their fences and transactions, claims them and writes them to the journal
+     * (if any). The fences of the batch are held meanwhile, locked in the order of the ledger ids
+     *
+     * @param batch ended batch
+     * @param claimed where to put the claims of the entries, in order
+     *
+     * @return journal sequence of the first entry, -1 without a journal
+     *
+     * @throws LedgerException when an entry does not fit, a fencing token is stale or the journal can not be written
+     */
+    private long write(Batch batch, List<EntryLocation> claimed) throws LedgerException {
+        TreeMap<UUID, Long> fencingTokens = new TreeMap<>();
+        for (int i = 0; i < batch.entries.size(); i++) {
+            long fencingToken = batch.fencingTokens.get(i);
+            if (fencingToken != UNFENCED) fencingTokens.merge(batch.owners.get(i), fencingToken, Math::min);
+        }
+
+        List<Fence> locked = new ArrayList<>();
+        try {
+            for (Map.Entry<UUID, Long> fencingToken : fencingTokens.entrySet()) {
+                Fence fence = fences.computeIfAbsent(fencingToken.getKey(), ledgerId -> new Fence());
+                fence.lock.lock();
+                locked.add(fence);
+
+                checkFence(fencingToken.getKey(), fence, fencingToken.getValue());
+            }
+
+            for (int i = 0; i < batch.entries.size(); i++) claimed.add(claim(batch.owners.get(i), batch.entries.get(i)));
+
+            for (int i = 0; i < batch.entries.size(); i++) {
+                long fencingToken = batch.fencingTokens.get(i);
+                if (fencingToken == UNFENCED) continue;
+
+                Fence fence = fences.get(batch.owners.get(i));
+                fence.token = Math.max(fence.token, fencingToken);
+            }
+
+            return (journalCommitter == null) ? -1 : journalCommitter.write(batch.owners, batch.entries);
+        } finally {
+            for (Fence fence : locked) fence.lock.unlock();
+        }
+    }
 }
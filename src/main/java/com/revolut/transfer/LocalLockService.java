@@ -3,11 +3,29 @@ package com.revolut.transfer;
 import com.revolut.lock.Exception.*;
 import com.revolut.lock.Lock;
 import com.revolut.lock.LockService;
+import com.revolut.utils.Histogram;
+import com.revolut.utils.TimerWheel;
+import com.revolut.utils.TopK;
 
 import java.time.Clock;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -15,75 +33,447 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class LocalLockService implements LockService {
     /**
-     * Holds the lock state
+     * Number of hot lock ids tracked
      */
-    private final class LockStatus {
+    public static final int HOT_LOCKS = 64;
+
+    /**
+     * A holder of a lock in the shared mode
+     */
+    private static final class Reader {
+        /**
+         * Lock owner
+         */
+        final UUID ownerId;
+
         /**
          * Timestamp when was locked, milliseconds
          */
-        long lockedAt;
+        final long lockedAt;
 
         /**
          * Timestamp before what should be unlocked, milliseconds
          */
-        long unlockAt;
+        final long unlockAt;
 
         /**
-         * Lock owner
+         * Fencing token of the acquisition
          */
-        UUID ownerId;
+        final long token;
 
         /**
+         * @param ownerId lock owner
          * @param lockedAt timestamp when was locked, milliseconds
          * @param unlockAt timestamp before what should be unlocked, milliseconds
-         * @param ownerId lock owner
+         * @param token fencing token of the acquisition
          */
-        LockStatus(long lockedAt, long unlockAt, UUID ownerId) {
-            reset(lockedAt, unlockAt, ownerId);
+        Reader(UUID ownerId, long lockedAt, long unlockAt, long token) {
+            this.ownerId = ownerId;
+            this.lockedAt = lockedAt;
+            this.unlockAt = unlockAt;
+            this.token = token;
         }
+    }
+
+    /**
+     * No readers
+     */
+    private static final Reader[] NO_READERS = new Reader[0];
+
+    /**
+     * Immutable lease of a lock, replaced as a whole with CAS. Held either by a single exclusive owner or by readers
+     */
+    private static final class Lease {
+        /**
+         * Timestamp when was locked, milliseconds
+         */
+        final long lockedAt;
+
+        /**
+         * Timestamp before what should be unlocked, milliseconds. The latest one of the readers in the shared mode
+         */
+        final long unlockAt;
+
+        /**
+         * Exclusive lock owner, null if released or shared
+         */
+        final UUID ownerId;
+
+        /**
+         * Fencing token of the exclusive acquisition
+         */
+        final long token;
+
+        /**
+         * Holders in the shared mode, empty in the exclusive mode
+         */
+        final Reader[] readers;
+
         /**
-         *
          * @param lockedAt timestamp when was locked, milliseconds
          * @param unlockAt timestamp before what should be unlocked, milliseconds
-         * @param ownerId lock owner
+         * @param ownerId lock owner, null if released
+         * @param token fencing token of the acquisition
          */
-        void reset(long lockedAt, long unlockAt, UUID ownerId) {
+        Lease(long lockedAt, long unlockAt, UUID ownerId, long token) {
             this.lockedAt = lockedAt;
             this.unlockAt = unlockAt;
             this.ownerId = ownerId;
+            this.token = token;
+            this.readers = NO_READERS;
         }
 
         /**
-         * Reset to the initial state
+         * @param lockedAt timestamp when was locked, milliseconds
+         * @param readers holders in the shared mode, not empty
          */
-        void reset() {
-            reset(0, 0, null);
+        Lease(long lockedAt, Reader[] readers) {
+            long unlockAt = 0;
+            for (Reader reader : readers) unlockAt = Math.max(unlockAt, reader.unlockAt);
+
+            this.lockedAt = lockedAt;
+            this.unlockAt = unlockAt;
+            this.ownerId = null;
+            this.token = 0;
+            this.readers = readers;
         }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) return true;
-            if ((null == obj) || (obj.getClass() != this.getClass())) return false;
+        /**
+         * @return true if has an owner or readers, including expired ones
+         */
+        boolean isHeld() {
+            return (ownerId != null) || (readers.length > 0);
+        }
 
-            LockStatus other = (LockStatus) obj;
+        /**
+         * @param now current timestamp, milliseconds
+         *
+         * @return true if the lock can be taken in the exclusive mode - released or expired
+         */
+        boolean isFree(long now) {
+            return !isHeld() || (now >= unlockAt);
+        }
 
-            return (
-                (this.lockedAt == other.lockedAt) &&
-                (this.unlockAt == other.unlockAt) &&
-                (this.ownerId == other.ownerId)
-            );
+        /**
+         * @param now current timestamp, milliseconds
+         *
+         * @return true if the lock can be taken in the shared mode - not held exclusively
+         */
+        boolean isShareable(long now) {
+            return (ownerId == null) || (now >= unlockAt);
         }
 
-        @Override
-        public int hashCode() {
-            return ownerId.hashCode();
+        /**
+         * @param ownerId lock owner
+         *
+         * @return position of the reader, -1 if not a reader
+         */
+        int indexOf(UUID ownerId) {
+            for (int i = 0; i < readers.length; i++) {
+                if (readers[i].ownerId.equals(ownerId)) return i;
+            }
+
+            return -1;
+        }
+
+        /**
+         * @param now current timestamp, milliseconds
+         * @param skip position of a reader to drop, -1 for none
+         * @param added reader to add, null for none
+         *
+         * @return readers which have not expired, with the changes applied
+         */
+        Reader[] readers(long now, int skip, Reader added) {
+            List<Reader> kept = new ArrayList<>(readers.length + 1);
+            for (int i = 0; i < readers.length; i++) {
+                if ((i != skip) && (readers[i].unlockAt > now)) kept.add(readers[i]);
+            }
+            if (added != null) kept.add(added);
+
+            return kept.toArray(NO_READERS);
+        }
+    }
+
+    /**
+     * Released lease
+     */
+    private static final Lease RELEASED = new Lease(0, 0, null, 0);
+
+    /**
+     * Lease of an evicted lock status, never free. Whoever finds it must look the lock up again
+     */
+    private static final Lease RETIRED = new Lease(0, Long.MAX_VALUE, new UUID(0, 0), 0);
+
+    /**
+     * A parked thread or an asynchronous caller waiting for a lock
+     */
+    private static final class Waiter {
+        /**
+         * Waiting thread, null for an asynchronous caller
+         */
+        final Thread thread;
+
+        /**
+         * Lock to hand over, null for a waiting thread
+         */
+        final Lock lock;
+
+        /**
+         * Completed when the lock is handed over or the waiting time is over, null for a waiting thread
+         */
+        final CompletableFuture<Boolean> future;
+
+        /**
+         * Owner to hand the lock over to
+         */
+        final UUID ownerId;
+
+        /**
+         * Mode to hand the lock over in
+         */
+        final Lock.Mode mode;
+
+        /**
+         * For how long to acquire the lock, milliseconds
+         */
+        final long acquiringTime;
+
+        /**
+         * Timestamp when to stop waiting, milliseconds
+         */
+        final long deadline;
+
+        /**
+         * Timestamp when was queued, milliseconds
+         */
+        long queuedAt;
+
+        /**
+         * Fencing token of the handed over lock, set before granted
+         */
+        long token;
+
+        /**
+         * The lock has been handed over to the waiter
+         */
+        volatile boolean granted;
+
+        /**
+         * @param thread waiting thread
+         * @param lock lock the thread is waiting for
+         * @param acquiringTime for how long to acquire the lock, milliseconds
+         * @param deadline timestamp when to stop waiting, milliseconds
+         */
+        Waiter(Thread thread, Lock lock, long acquiringTime, long deadline) {
+            this.thread = thread;
+            this.lock = null;
+            this.future = null;
+            this.ownerId = lock.getOwnerId();
+            this.mode = lock.getMode();
+            this.acquiringTime = acquiringTime;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @param lock lock to hand over
+         * @param future completed when the lock is handed over or the waiting time is over
+         * @param acquiringTime for how long to acquire the lock, milliseconds
+         * @param deadline timestamp when to stop waiting, milliseconds
+         */
+        Waiter(Lock lock, CompletableFuture<Boolean> future, long acquiringTime, long deadline) {
+            this.thread = null;
+            this.lock = lock;
+            this.future = future;
+            this.ownerId = lock.getOwnerId();
+            this.mode = lock.getMode();
+            this.acquiringTime = acquiringTime;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Holds the lock state
+     */
+    private final class LockStatus {
+        /**
+         * Lock id
+         */
+        final UUID id;
+
+        /**
+         * Current lease
+         */
+        final AtomicReference<Lease> lease = new AtomicReference<>(RELEASED);
+
+        /**
+         * Guards the waiting queue
+         */
+        final ReentrantLock queueLock = new ReentrantLock();
+
+        /**
+         * Waiters for the lock, in the arrival order
+         */
+        final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+        /**
+         * Number of waiters, readable without the queue lock
+         */
+        volatile int waiting;
+
+        /**
+         * @param id lock id
+         */
+        LockStatus(UUID id) {
+            this.id = id;
+        }
+
+        /**
+         * Takes the lock if it is free: in the exclusive mode if nobody holds it, in the shared mode if nobody holds it
+         * exclusively
+         *
+         * @param now current timestamp, milliseconds
+         * @param acquiringTime for how long to acquire lock, milliseconds
+         * @param ownerId new owner
+         * @param mode lock mode
+         *
+         * @return fencing token of the acquisition if taken, 0 otherwise
+         */
+        long tryAcquire(long now, long acquiringTime, UUID ownerId, Lock.Mode mode) {
+            Lease current = lease.get();
+            if ((mode == Lock.Mode.SHARED) ? !current.isShareable(now) : !current.isFree(now)) return 0;
+
+            long token = tokens.accumulateAndGet(now << TOKEN_EPOCH_SHIFT, (last, epoch) -> Math.max(last + 1, epoch));
+            Lease acquired;
+
+            if (mode == Lock.Mode.SHARED) {
+                Reader reader = new Reader(ownerId, now, now + acquiringTime, token);
+                acquired = new Lease(current.isFree(now) ? now : current.lockedAt, current.readers(now, -1, reader));
+            } else {
+                acquired = new Lease(now, now + acquiringTime, ownerId, token);
+            }
+
+            if (!lease.compareAndSet(current, acquired)) return 0;
+
+            if (!current.isHeld()) live.incrementAndGet();
+            expirations.schedule(now + acquiringTime, this);
+
+            return token;
+        }
+
+        /**
+         * Hands a free lock over to the first waiter, or to all the shared waiters at the head of the queue.
+         * Must be called under the queue lock, the waiters have to be signalled afterwards
+         *
+         * @param now current timestamp, milliseconds
+         *
+         * @return the waiters which have got the lock, empty if none
+         */
+        List<Waiter> handOff(long now) {
+            List<Waiter> granted = Collections.emptyList();
+
+            while (true) {
+                Waiter waiter = waiters.peekFirst();
+                if (waiter == null) return granted;
+
+                // an exclusive waiter only as the first one, the shared ones as a batch
+                if (!granted.isEmpty() && (waiter.mode == Lock.Mode.EXCLUSIVE)) return granted;
+
+                long token = tryAcquire(now, waiter.acquiringTime, waiter.ownerId, waiter.mode);
+                if (token == 0) return granted;
+
+                waiters.pollFirst();
+                waiting--;
+                waitTimes.record(now - waiter.queuedAt);
+                waiter.token = token;
+                waiter.granted = true;
+
+                if (granted.isEmpty()) granted = new ArrayList<>(1);
+                granted.add(waiter);
+                if (waiter.mode == Lock.Mode.EXCLUSIVE) return granted;
+            }
         }
     }
 
     /**
      * Lock storage
      */
-    private static HashMap<UUID, LockStatus> locks = new HashMap<>();
+    private ConcurrentHashMap<UUID, LockStatus> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Fencing tokens are at least the wall clock millis shifted left by this, so they keep growing across restarts
+     */
+    private static final int TOKEN_EPOCH_SHIFT = 20;
+
+    /**
+     * Last issued fencing token, shared by all the lock ids. Ledger fences outlive a service: a new service (or a
+     * restarted lock server) continues from the wall clock, above the tokens of the previous one
+     */
+    private AtomicLong tokens = new AtomicLong();
+
+    /**
+     * Number of locks with an owner, including expired ones until they are evicted or taken over
+     */
+    private AtomicInteger live = new AtomicInteger();
+
+    /**
+     * Lock statuses to check for eviction: at the lease expiration time or right after the release. Runs on the clock
+     * of the service
+     */
+    private TimerWheel<LockStatus> expirations;
+
+    /**
+     * Guards advancing the expiration wheel, it must be advanced by one thread at a time
+     */
+    private ReentrantLock expirationsLock = new ReentrantLock();
+
+    /**
+     * Number of evicted lock statuses
+     */
+    private AtomicLong evicted = new AtomicLong();
+
+    /**
+     * Wakes up asynchronous waiters at their deadlines and lease expirations
+     */
+    private static ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lock-timers");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Completes futures of asynchronous waiters, so their callbacks never run under a queue lock or on the timer thread
+     */
+    private static Executor completions = ForkJoinPool.commonPool();
+
+    /**
+     * How long queued callers have waited until they have got the lock or given up, milliseconds
+     */
+    private Histogram waitTimes = new Histogram();
+
+    /**
+     * For how long locks have been held until released, milliseconds. Expired leases are not counted
+     */
+    private Histogram holdTimes = new Histogram();
+
+    /**
+     * Ids of the locks callers could not take right away
+     */
+    private TopK<UUID> hotLocks = new TopK<>(HOT_LOCKS);
+
+    /**
+     * Number of locks taken right away
+     */
+    private LongAdder uncontended = new LongAdder();
+
+    /**
+     * Number of callers which could not take a lock right away
+     */
+    private LongAdder contended = new LongAdder();
+
+    /**
+     * Number of callers which have given up waiting
+     */
+    private LongAdder timeouts = new LongAdder();
 
     /**
      * Clock
@@ -91,12 +481,154 @@ public class LocalLockService implements LockService {
     private Clock clock;
 
     /**
-     * Reentrant lock for the locks hashtable
+     * Runs the eviction
      */
-    private ReentrantLock locksLock = new ReentrantLock();
+    private ScheduledExecutorService scheduler;
 
     public LocalLockService(Clock clock) {
         this.clock = clock;
+        this.expirations = new TimerWheel<>(512, 10, clock.millis());
+    }
+
+    /**
+     * Starts the periodic eviction of released and expired locks
+     *
+     * @param period delay between runs, milliseconds
+     */
+    public void start(long period) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lock-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic eviction
+     */
+    public void stop() {
+        if (scheduler != null) scheduler.shutdown();
+    }
+
+    /**
+     * @return number of locks with an owner, including expired ones until they are evicted or taken over
+     */
+    public int getLiveLocks() {
+        return live.get();
+    }
+
+    /**
+     * @return number of lock statuses in the storage
+     */
+    public int getSize() {
+        return locks.size();
+    }
+
+    /**
+     * @param id lock id
+     *
+     * @return true if the storage has a status of the lock
+     */
+    boolean contains(UUID id) {
+        return locks.containsKey(id);
+    }
+
+    /**
+     * @return number of evicted lock statuses
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * @return how long queued callers have waited until they have got the lock or given up, milliseconds
+     */
+    public Histogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    /**
+     * @return for how long locks have been held until released, milliseconds
+     */
+    public Histogram getHoldTimes() {
+        return holdTimes;
+    }
+
+    /**
+     * @param k number of locks
+     *
+     * @return ids of the k locks callers most often could not take right away, approximately
+     */
+    public List<TopK.Entry<UUID>> getHotLocks(int k) {
+        return hotLocks.top(k);
+    }
+
+    /**
+     * @return number of locks taken right away
+     */
+    public long getUncontended() {
+        return uncontended.sum();
+    }
+
+    /**
+     * @return number of callers which could not take a lock right away
+     */
+    public long getContended() {
+        return contended.sum();
+    }
+
+    /**
+     * @return number of callers which have given up waiting
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Advances the expiration wheel and evicts released and expired locks nobody waits for
+     *
+     * @return number of evicted lock statuses
+     */
+    int evict() {
+        if (!expirationsLock.tryLock()) return 0;
+
+        try {
+            long before = evicted.get();
+            long now = clock.millis();
+            expirations.advance(now, lockStatus -> evict(lockStatus, now));
+
+            return (int) (evicted.get() - before);
+        } finally {
+            expirationsLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a lock status from the storage if it is released or expired and nobody waits for it
+     *
+     * @param lockStatus lock status
+     * @param now current timestamp, milliseconds
+     */
+    private void evict(LockStatus lockStatus, long now) {
+        lockStatus.queueLock.lock();
+
+        try {
+            // waiters take it over, that schedules another check. The first one might be waiting for this expiration
+            if (lockStatus.waiting > 0) {
+                wakeUp(lockStatus, lockStatus.waiters.peekFirst());
+                return;
+            }
+
+            Lease lease = lockStatus.lease.get();
+            if ((lease == RETIRED) || !lease.isFree(now) || !lockStatus.lease.compareAndSet(lease, RETIRED)) return;
+
+            if (lease.isHeld()) live.decrementAndGet();
+            locks.remove(lockStatus.id, lockStatus);
+            evicted.incrementAndGet();
+        } finally {
+            lockStatus.queueLock.unlock();
+        }
     }
 
     @Override
@@ -104,10 +636,19 @@ public class LocalLockService implements LockService {
         return new Lock(this, id);
     }
 
+    @Override
+    public Lock create(UUID id, Lock.Mode mode) {
+        return new Lock(this, id, mode);
+    }
+
     /**
      * @inheritDoc
      *
-     * A simple implementation of a spinlock
+     * Locks of different ids never contend: each id has its own lease, replaced with CAS. When nobody waits a lock is
+     * taken without any locking. Otherwise callers are parked in a FIFO queue of the id: a released lock is handed over
+     * to the first waiter directly, an expired lock is taken by the first waiter when it wakes up at the expiration
+     * time. Shared waiters at the head of the queue get the lock together. Shared locks are taken without queueing
+     * only when nobody waits, so a waiting exclusive lock is not starved by new readers
      */
     @Override
     public boolean tryLock(Lock lock, long waitingTime, long acquiringTime) throws LockException {
@@ -117,46 +658,168 @@ public class LocalLockService implements LockService {
         if (lock.getIsLocked()) throw new AlreadyLockedException(lock.getId());
 
         LockStatus lockStatus;
+        Waiter waiter = new Waiter(Thread.currentThread(), lock, acquiringTime, started + waitingTime);
+        long now;
 
-        try {
-            long now;
+        while (true) {
+            lockStatus = locks.computeIfAbsent(lock.getId(), LockStatus::new);
+            now = clock.millis();
+
+            // fast path, nobody is waiting - so shared locks do not overtake waiting exclusive ones.
+            // Always tried once, even with no waiting time
+            long token = (lockStatus.waiting == 0) ? lockStatus.tryAcquire(now, acquiringTime, lock.getOwnerId(), lock.getMode()) : 0;
+            if (token != 0) {
+                uncontended.increment();
+                lock.setIsLocked(true);
+                lock.setFencingToken(token);
+                return true;
+            }
+
+            // evicted meanwhile
+            if (lockStatus.lease.get() == RETIRED) continue;
+
+            contended(lock);
+            if (now >= started + waitingTime) {
+                timeouts.increment();
+                return false;
+            }
+
+            lockStatus.queueLock.lock();
+            try {
+                if (lockStatus.lease.get() == RETIRED) continue;
+
+                waiter.queuedAt = now;
+                lockStatus.waiters.addLast(waiter);
+                lockStatus.waiting++;
+                break;
+            } finally {
+                lockStatus.queueLock.unlock();
+            }
+        }
+
+        while (true) {
+            long parkFor;
+
+            lockStatus.queueLock.lock();
+
+            try {
+                if (waiter.granted) {
+                    lock.setIsLocked(true);
+                    lock.setFencingToken(waiter.token);
+                    return true;
+                }
 
-            while (true) {
                 now = clock.millis();
-                if (now <= started + waitingTime) {
-                    if (!locksLock.tryLock(waitingTime - (now - started), TimeUnit.MILLISECONDS)) {
-                        return false;
-                    }
+                boolean isFirst = lockStatus.waiters.peekFirst() == waiter;
+
+                if (isFirst && (now <= started + waitingTime)) {
+                    // released or the lease of the previous owner has expired
+                    signal(lockStatus.handOff(now));
 
-                    lockStatus = locks.getOrDefault(lock.getId(), null);
-                    now = clock.millis();
-
-                    // need to double-check if we still have time
-                    if (now <= started + waitingTime) {
-                        if (lockStatus == null) {
-                            // no such lock
-                            locks.put(lock.getId(), new LockStatus(now, now + acquiringTime, lock.getOwnerId()));
-                            lock.setIsLocked(true);
-                            locksLock.unlock();
-                            return true;
-                        } else if (now >= lockStatus.unlockAt) {
-                            // expired lock
-                            lockStatus.reset(now, now + acquiringTime, lock.getOwnerId());
-                            lock.setIsLocked(true);
-                            locksLock.unlock();
-                            return true;
-                        }
-
-                        // spinning
-                        locksLock.unlock();
-                        Thread.sleep(10);
+                    if (waiter.granted) {
+                        lock.setIsLocked(true);
+                        lock.setFencingToken(waiter.token);
+                        return true;
                     }
-                } else {
+                }
+
+                if ((now >= started + waitingTime) || Thread.currentThread().isInterrupted()) {
+                    lockStatus.waiters.remove(waiter);
+                    lockStatus.waiting--;
+                    gaveUp(waiter, now);
+
+                    // the next one might be able to take the lock
+                    if (isFirst) signal(lockStatus.handOff(now));
+                    if (isFirst && !lockStatus.waiters.isEmpty()) wakeUp(lockStatus, lockStatus.waiters.peekFirst());
+
+                    return false;
+                }
+
+                // wake up either at the deadline or, if first, when the lease of the current owner expires
+                parkFor = (isFirst ? Math.min(started + waitingTime, lockStatus.lease.get().unlockAt) : started + waitingTime) - now;
+            } finally {
+                lockStatus.queueLock.unlock();
+            }
+
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(parkFor, 1)));
+        }
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Locks are taken one by one in the order of ids sharing a single deadline, then all of them are renewed to the
+     * same lease. On a failure already taken ones are released
+     */
+    @Override
+    public boolean tryLockAll(Collection<Lock> locks, long waitingTime, long acquiringTime) throws LockException {
+        List<Lock> ordered = LockService.inOrder(locks);
+        long deadline = clock.millis() + waitingTime;
+        List<Lock> acquired = new ArrayList<>(ordered.size());
+
+        try {
+            for (Lock lock : ordered) {
+                if (!tryLock(lock, Math.max(deadline - clock.millis(), 0), acquiringTime)) {
+                    unlockAll(acquired);
                     return false;
                 }
+
+                acquired.add(lock);
+            }
+
+            if (!renewAll(acquired, acquiringTime)) {
+                unlockAll(acquired);
+                return false;
+            }
+        } catch (LockException | RuntimeException exception) {
+            unlockAll(acquired);
+            throw exception;
+        }
+
+        return true;
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * A single CAS of the lease
+     */
+    @Override
+    public void renew(Lock lock, long acquiringTime) throws LockException {
+        if (!lock.getIsLocked()) throw new AlreadyUnlockedException(lock.getId());
+
+        LockStatus lockStatus = locks.get(lock.getId());
+
+        while (true) {
+            Lease lease = (lockStatus == null) ? RETIRED : lockStatus.lease.get();
+            if (lease == RETIRED) throw new ExpiredLockException(lock.getId());
+
+            int reader = (lock.getMode() == Lock.Mode.SHARED) ? lease.indexOf(lock.getOwnerId()) : -1;
+            if ((reader < 0) && !lock.getOwnerId().equals(lease.ownerId)) {
+                throw new LostLockException(lock.getId(), lock.getOwnerId(), lease.ownerId);
+            }
+
+            long now = clock.millis();
+            if (now > ((reader < 0) ? lease.unlockAt : lease.readers[reader].unlockAt)) {
+                throw new ExpiredLockException(lock.getId());
+            }
+
+            Lease renewed = (reader < 0)
+                ? new Lease(lease.lockedAt, now + acquiringTime, lease.ownerId, lease.token)
+                : new Lease(
+                    lease.lockedAt,
+                    lease.readers(now, reader, new Reader(
+                        lock.getOwnerId(),
+                        lease.readers[reader].lockedAt,
+                        now + acquiringTime,
+                        lease.readers[reader].token
+                    ))
+                );
+
+            if (lockStatus.lease.compareAndSet(lease, renewed)) {
+                expirations.schedule(now + acquiringTime, lockStatus);
+                return;
             }
-        } catch (InterruptedException ignored) {
-            return false;
         }
     }
 
@@ -168,27 +831,223 @@ public class LocalLockService implements LockService {
             throw new AlreadyUnlockedException(lock.getId());
         }
 
-        synchronized (this) {
-            LockStatus lockStatus = locks.getOrDefault(lock.getId(), null);
-            if (lockStatus == null) {
-                throw new LockDoesNotExistException(lock.getId());
+        LockStatus lockStatus = locks.get(lock.getId());
+        Lease released;
+        long heldFor;
+
+        while (true) {
+            Lease lease = (lockStatus == null) ? RETIRED : lockStatus.lease.get();
+
+            if (lease == RETIRED) {
+                // has expired and has been evicted
+                if (allowLost) return;
+                throw new ExpiredLockException(lock.getId());
             }
 
-            if (!lock.getOwnerId().equals(lockStatus.ownerId)) {
+            int reader = (lock.getMode() == Lock.Mode.SHARED) ? lease.indexOf(lock.getOwnerId()) : -1;
+            if ((reader < 0) && !lock.getOwnerId().equals(lease.ownerId)) {
                 // Lock has been acquired by someone else
                 if (allowLost) return;
-                throw new LostLockException(lock.getId(), lock.getOwnerId(), lockStatus.ownerId);
+                throw new LostLockException(lock.getId(), lock.getOwnerId(), lease.ownerId);
             }
 
             long now = clock.millis();
-            if (now > lockStatus.unlockAt) {
+            if (now > ((reader < 0) ? lease.unlockAt : lease.readers[reader].unlockAt)) {
                 // lock has expired
                 if (allowLost) return;
                 throw new ExpiredLockException(lock.getId());
             }
 
-            lockStatus.reset();
-            lock.setIsLocked(false);
+            heldFor = now - ((reader < 0) ? lease.lockedAt : lease.readers[reader].lockedAt);
+
+            // the other readers keep holding it
+            Reader[] readers = (reader < 0) ? NO_READERS : lease.readers(now, reader, null);
+            released = (readers.length == 0) ? RELEASED : new Lease(lease.lockedAt, readers);
+
+            if (lockStatus.lease.compareAndSet(lease, released)) break;
+        }
+
+        if (released == RELEASED) live.decrementAndGet();
+        holdTimes.record(heldFor);
+        lock.setIsLocked(false);
+        lock.setFencingToken(0);
+        expirations.schedule(clock.millis(), lockStatus);
+
+        // direct handoff to the first waiter
+        if (lockStatus.waiting > 0) {
+            lockStatus.queueLock.lock();
+            try {
+                signal(lockStatus.handOff(clock.millis()));
+            } finally {
+                lockStatus.queueLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Same queue as tryLock(): a free lock is taken right away, otherwise the caller is queued without a thread.
+     * The future is completed by whoever releases the lock, or by a timer at the lease expiration or the deadline
+     */
+    @Override
+    public CompletableFuture<Boolean> lockAsync(Lock lock, long waitingTime, long acquiringTime) throws LockException {
+        long started = clock.millis();
+
+        if (lock.getIsLocked()) throw new AlreadyLockedException(lock.getId());
+
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        Waiter waiter = new Waiter(lock, future, acquiringTime, started + waitingTime);
+
+        while (true) {
+            LockStatus lockStatus = locks.computeIfAbsent(lock.getId(), LockStatus::new);
+            long now = clock.millis();
+
+            // fast path, nobody is waiting - so shared locks do not overtake waiting exclusive ones.
+            // Always tried once, even with no waiting time
+            long token = (lockStatus.waiting == 0) ? lockStatus.tryAcquire(now, acquiringTime, lock.getOwnerId(), lock.getMode()) : 0;
+            if (token != 0) {
+                uncontended.increment();
+                lock.setIsLocked(true);
+                lock.setFencingToken(token);
+                future.complete(true);
+                return future;
+            }
+
+            // evicted meanwhile
+            if (lockStatus.lease.get() == RETIRED) continue;
+
+            contended(lock);
+            if (now >= waiter.deadline) {
+                timeouts.increment();
+                future.complete(false);
+                return future;
+            }
+
+            lockStatus.queueLock.lock();
+            try {
+                if (lockStatus.lease.get() == RETIRED) continue;
+
+                waiter.queuedAt = now;
+                lockStatus.waiters.addLast(waiter);
+                lockStatus.waiting++;
+            } finally {
+                lockStatus.queueLock.unlock();
+            }
+
+            // the lock might have been released before the waiter has been queued
+            wake(lockStatus, waiter);
+
+            return future;
+        }
+    }
+
+    /**
+     * Counts a caller which could not take a lock right away
+     *
+     * @param lock the lock
+     */
+    private void contended(Lock lock) {
+        contended.increment();
+        hotLocks.add(lock.getId());
+    }
+
+    /**
+     * Counts a queued caller which has given up waiting
+     *
+     * @param waiter the waiter
+     * @param now current timestamp, milliseconds
+     */
+    private void gaveUp(Waiter waiter, long now) {
+        timeouts.increment();
+        waitTimes.record(now - waiter.queuedAt);
+    }
+
+    /**
+     * Re-evaluates an asynchronous waiter, like a parked thread does when it wakes up: takes the lock if first and it
+     * is free, gives up at the deadline, otherwise schedules the next wake-up
+     *
+     * @param lockStatus lock status the waiter is queued at
+     * @param waiter asynchronous waiter
+     */
+    private void wake(LockStatus lockStatus, Waiter waiter) {
+        lockStatus.queueLock.lock();
+
+        try {
+            // granted or gone already
+            if (waiter.granted || !lockStatus.waiters.contains(waiter)) return;
+
+            long now = clock.millis();
+            boolean isFirst = lockStatus.waiters.peekFirst() == waiter;
+
+            if (isFirst && (now <= waiter.deadline)) {
+                // released or the lease of the previous owner has expired
+                List<Waiter> granted = lockStatus.handOff(now);
+                if (!granted.isEmpty()) {
+                    signal(granted);
+                    return;
+                }
+            }
+
+            if ((now >= waiter.deadline) || waiter.future.isCancelled()) {
+                lockStatus.waiters.remove(waiter);
+                lockStatus.waiting--;
+                gaveUp(waiter, now);
+                completions.execute(() -> waiter.future.complete(false));
+
+                // the next one might be able to take the lock
+                if (isFirst) signal(lockStatus.handOff(now));
+                if (isFirst && !lockStatus.waiters.isEmpty()) wakeUp(lockStatus, lockStatus.waiters.peekFirst());
+
+                return;
+            }
+
+            // wake up either at the deadline or, if first, when the lease of the current owner expires
+            long wakeAt = isFirst ? Math.min(waiter.deadline, lockStatus.lease.get().unlockAt) : waiter.deadline;
+            timers.schedule(() -> wake(lockStatus, waiter), Math.max(wakeAt - now, 1), TimeUnit.MILLISECONDS);
+        } finally {
+            lockStatus.queueLock.unlock();
+        }
+    }
+
+    /**
+     * Lets a waiter re-evaluate the lock: unparks a thread or runs wake() for an asynchronous waiter
+     *
+     * @param lockStatus lock status the waiter is queued at
+     * @param waiter waiter
+     */
+    private void wakeUp(LockStatus lockStatus, Waiter waiter) {
+        if (waiter.thread != null) {
+            LockSupport.unpark(waiter.thread);
+        } else {
+            timers.execute(() -> wake(lockStatus, waiter));
+        }
+    }
+
+    /**
+     * Tells waiters they have got the lock: unparks threads or completes futures of asynchronous waiters.
+     * A lock granted to a cancelled future is released right away
+     *
+     * @param granted the waiters which have got the lock
+     */
+    private void signal(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            if (waiter.thread != null) {
+                // the current thread checks by itself
+                if (waiter.thread != Thread.currentThread()) LockSupport.unpark(waiter.thread);
+                continue;
+            }
+
+            completions.execute(() -> {
+                waiter.lock.setIsLocked(true);
+                waiter.lock.setFencingToken(waiter.token);
+
+                if (!waiter.future.complete(true)) {
+                    try {
+                        tryUnlock(waiter.lock, true);
+                    } catch (LockException ignore) {}
+                }
+            });
         }
     }
 }
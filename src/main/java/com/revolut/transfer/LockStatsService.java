@@ -0,0 +1,111 @@
+package com.revolut.transfer;
+
+import com.revolut.router.Response;
+import com.revolut.utils.Histogram;
+import com.revolut.utils.TopK;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Handle lock contention requests: wait and hold times of the local locks, and the locks callers most often could not
+ * take right away
+ */
+public class LockStatsService {
+    /**
+     * Number of hot locks when no limit is given
+     */
+    public static final int DEFAULT_TOP = 10;
+
+    /**
+     * Lock contention at the time of the request
+     */
+    static final class LockStats {
+        /**
+         * Number of locks taken right away
+         */
+        final long uncontended;
+
+        /**
+         * Number of callers which could not take a lock right away
+         */
+        final long contended;
+
+        /**
+         * Number of callers which have given up waiting
+         */
+        final long timeouts;
+
+        /**
+         * How long queued callers have waited, milliseconds
+         */
+        final Histogram.Summary waitTimes;
+
+        /**
+         * For how long locks have been held, milliseconds
+         */
+        final Histogram.Summary holdTimes;
+
+        /**
+         * The locks callers most often could not take right away, the hottest first
+         */
+        final List<TopK.Entry<UUID>> hotLocks;
+
+        /**
+         * @param lockService lock service
+         * @param top number of hot locks
+         */
+        LockStats(LocalLockService lockService, int top) {
+            this.uncontended = lockService.getUncontended();
+            this.contended = lockService.getContended();
+            this.timeouts = lockService.getTimeouts();
+            this.waitTimes = lockService.getWaitTimes().summarize();
+            this.holdTimes = lockService.getHoldTimes().summarize();
+            this.hotLocks = lockService.getHotLocks(top);
+        }
+    }
+
+    /**
+     * Lock service
+     */
+    private LocalLockService lockService;
+
+    /**
+     * Maximum number of hot locks
+     */
+    private int maxTop;
+
+    /**
+     * @param lockService lock service
+     * @param maxTop maximum number of hot locks
+     */
+    public LockStatsService(LocalLockService lockService, int maxTop) {
+        this.lockService = lockService;
+        this.maxTop = maxTop;
+    }
+
+    /**
+     * Handle lock contention requests
+     *
+     * @param request incoming request
+     * @param sparkResponse spark response
+     * @return response object
+     */
+    public Object statsAction(spark.Request request, spark.Response sparkResponse) {
+        String topParameter = request.queryParams("top");
+
+        int top = DEFAULT_TOP;
+        if (topParameter != null) {
+            try {
+                top = Integer.parseInt(topParameter);
+            } catch (NumberFormatException numberFormatException) {
+                return new Response(Response.ResponseCode.WRONG_PARAMETER, "Wrong \"top\" format");
+            }
+
+            if ((top <= 0) || (top > maxTop))
+                return new Response(Response.ResponseCode.INVALID_VALUE, "\"top\" must be between 1 and " + maxTop);
+        }
+
+        return new Response(Response.ResponseCode.NO_ERROR, "").setData(new LockStats(lockService, top));
+    }
+}
@@ -1,17 +1,55 @@
 package com.revolut.transfer;
 
+import com.revolut.command.executor.AdmissionController;
 import com.revolut.command.executor.CommandExecutor;
+import com.revolut.command.executor.MailboxCommandExecutor;
+import com.revolut.command.executor.RetryPolicy;
+import com.revolut.command.executor.VirtualThreadCommandExecutor;
+import com.revolut.ledger.Exception.LedgerException;
+import com.revolut.ledger.Journal.DurabilityMode;
+import com.revolut.ledger.Journal.Journal;
+import com.revolut.ledger.Journal.JournalCommitter;
+import com.revolut.lock.Exception.LockServerException;
+import com.revolut.lock.LockService;
+import com.revolut.lock.Remote.RemoteLockService;
+import com.revolut.router.Response;
 import com.revolut.router.Router;
+import com.revolut.router.VirtualThreadPool;
+import com.revolut.utils.VirtualThreadUtil;
 import org.apache.logging.log4j.ThreadContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
+import java.nio.file.Paths;
 import java.time.Clock;
 import java.util.UUID;
 
 /**
  * Entrypoint
+ *
+ * System properties:
+ *  journal.dir - directory of the ledger journal. Ledger entries are kept only in memory if not set
+ *  journal.durability - SYNC, GROUP (default) or ASYNC. @see DurabilityMode
+ *  journal.window - GROUP: maximum time to collect a batch, ASYNC: how often to force the journal, microseconds
+ *  ledger.packed - keep settled ledger entries packed into primitive arrays. @see PackedLedgerEntries
+ *  ledger.compaction.period - how often to fold new ledger entries into the checkpoint balances, milliseconds
+ *  ledger.reaper.expiry - for how long a transaction may stay open before it is resolved, milliseconds
+ *  ledger.reaper.period - how often to look for broken transactions, milliseconds
+ *  lock.server - host:port of a lock server shared by many instances, @see LockServer. Locks are local if not set
+ *  lock.server.connections - number of connections to the lock server, 4 by default
+ *  command.executor - "virtual" to run HTTP requests and their commands on virtual threads (JDK 21+), "mailbox" to run
+ *      commands of an account one by one in its mailbox, in the caller thread otherwise
+ *  command.concurrency - "virtual": maximum number of commands running at once, 10000 by default
+ *  command.mailbox.threads - "mailbox": number of threads draining mailboxes, twice the number of CPUs by default
+ *  command.mailbox.capacity - "mailbox": maximum number of commands waiting in a mailbox, 1000 by default
+ *  command.retry.attempts - maximum number of attempts of a transfer which fails to acquire the lock, 3 by default
+ *  command.retry.delay - minimum delay before a retry, 10 milliseconds by default
+ *  command.retry.delay.max - maximum delay before a retry, 200 milliseconds by default
+ *  command.retry.deadline - no retry after that time since the transfer has started, 2000 milliseconds by default
+ *  admission.limit.min - minimum and initial number of transfers in flight, 100 by default. @see AdmissionController
+ *  admission.limit.max - maximum number of transfers in flight, 1000 by default
+ *  admission.latency - lock wait times longer than that cut the limit, 100 milliseconds by default
  */
 public class Main {
     public static void main(String[] args)  {
@@ -19,16 +57,143 @@ public class Main {
         ThreadContext.put(com.revolut.logger.Logger.FIELD_TRACE_ID, UUID.randomUUID().toString());
         logger.info("Loading transfer service...");
 
+        LocalLedgerService ledgerService;
+        JournalCommitter journalCommitter = null;
+        String journalDirectory = System.getProperty("journal.dir");
+        boolean packedEntries = Boolean.getBoolean("ledger.packed");
+
+        if (journalDirectory == null) {
+            ledgerService = new LocalLedgerService(Clock.systemUTC(), packedEntries);
+        } else {
+            try {
+                journalCommitter = new JournalCommitter(
+                    new Journal(Paths.get(journalDirectory), Journal.DEFAULT_SEGMENT_SIZE),
+                    DurabilityMode.valueOf(System.getProperty("journal.durability", DurabilityMode.GROUP.name())),
+                    Long.getLong("journal.window", 1000),
+                    256
+                );
+                ledgerService = new LocalLedgerService(Clock.systemUTC(), journalCommitter, packedEntries);
+            } catch (LedgerException exception) {
+                logger.error("Failed to load ledgers from the journal " + journalDirectory, exception);
+                return;
+            }
+
+            logger.info(
+                "Ledgers have been loaded from the journal " + journalDirectory
+                    + (ledgerService.getRecoveryReport() == null ? "" : ": " + ledgerService.getRecoveryReport())
+            );
+        }
+
+        new LedgerCompactor(ledgerService, logger, 64).start(Long.getLong("ledger.compaction.period", 1000));
+
+        LockService lockService;
+        LocalLockService localLockService = null;
+        String lockServer = System.getProperty("lock.server");
+
+        if (lockServer == null) {
+            localLockService = new LocalLockService(Clock.systemUTC());
+            localLockService.start(10);
+            lockService = localLockService;
+        } else {
+            try {
+                lockService = new RemoteLockService(
+                    lockServer.substring(0, lockServer.lastIndexOf(':')),
+                    Integer.parseInt(lockServer.substring(lockServer.lastIndexOf(':') + 1)),
+                    Integer.getInteger("lock.server.connections", 4),
+                    1000
+                );
+            } catch (LockServerException exception) {
+                logger.error("Failed to connect to the lock server " + lockServer, exception);
+                return;
+            }
+        }
+
+        new TransactionReaper(
+            ledgerService,
+            lockService,
+            Clock.systemUTC(),
+            logger,
+            Long.getLong("ledger.reaper.expiry", 5000),
+            100
+        ).start(Long.getLong("ledger.reaper.period", 1000));
+
+        CommandExecutor commandExecutor;
+        boolean isVirtual = false;
+        if ("virtual".equals(System.getProperty("command.executor"))) {
+            VirtualThreadCommandExecutor virtualThreadCommandExecutor = new VirtualThreadCommandExecutor(
+                lockService,
+                Integer.getInteger("command.concurrency", 10000)
+            );
+
+            isVirtual = virtualThreadCommandExecutor.isVirtual();
+            if (!isVirtual) {
+                logger.warn("Virtual threads are not available, commands run on platform threads");
+            }
+
+            commandExecutor = virtualThreadCommandExecutor;
+        } else if ("mailbox".equals(System.getProperty("command.executor"))) {
+            commandExecutor = new MailboxCommandExecutor(
+                lockService,
+                Integer.getInteger("command.mailbox.threads", 2 * Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("command.mailbox.capacity", 1000)
+            );
+        } else {
+            commandExecutor = new CommandExecutor(lockService, ledgerService);
+        }
+
+        commandExecutor.setRetryPolicy(
+            TransferCommand.class,
+            new RetryPolicy(
+                Integer.getInteger("command.retry.attempts", 3),
+                Long.getLong("command.retry.delay", 10),
+                Long.getLong("command.retry.delay.max", 200),
+                Long.getLong("command.retry.deadline", 2000)
+            )
+        );
+
+        AdmissionController admissionController = new AdmissionController(
+            Integer.getInteger("admission.limit.min", 100),
+            Integer.getInteger("admission.limit.max", 1000),
+            Long.getLong("admission.latency", 100)
+        );
+
         TransferService transferService = new TransferService(
-            new LocalLedgerService(Clock.systemUTC()),
-            new CommandExecutor(new LocalLockService(Clock.systemUTC())),
+            ledgerService,
+            commandExecutor,
+            admissionController,
             new LocalAccountService(),
             logger,
             500
         );
 
         Router router = new Router(logger);
+
+        // a request runs its command on its own virtual thread
+        if (isVirtual) router.runOn(new VirtualThreadPool(VirtualThreadUtil.newExecutor()));
+
         router.handlePOST("/transfer", transferService::transferAction);
+        router.handleGET("/ledgers/:id/entries", new LedgerHistoryService(ledgerService)::entriesAction);
+        router.handleGET(
+            "/commands/stats",
+            (request, response) -> new Response(Response.ResponseCode.NO_ERROR, "").setData(commandExecutor.getMetrics().summarize())
+        );
+        router.handleGET(
+            "/admission/stats",
+            (request, response) -> new Response(Response.ResponseCode.NO_ERROR, "").setData(admissionController.summarize())
+        );
+
+        if (journalCommitter != null) {
+            JournalCommitter committer = journalCommitter;
+            router.handleGET(
+                "/journal/stats",
+                (request, response) -> new Response(Response.ResponseCode.NO_ERROR, "").setData(committer.summarize())
+            );
+        }
+
+        // contention of remote locks is seen by the lock server
+        if (localLockService != null) {
+            router.handleGET("/locks/stats", new LockStatsService(localLockService, LocalLockService.HOT_LOCKS)::statsAction);
+        }
 
         logger.info("Transfer service has been loaded");
     }
@@ -0,0 +1,468 @@
+package com.revolut.transfer;
+
+import com.revolut.exception.RevolutException;
+import com.revolut.ledger.Exception.TransactionNotInFlightException;
+import com.revolut.ledger.Ledger;
+import com.revolut.ledger.LedgerEntry;
+import com.revolut.ledger.LedgerService;
+import com.revolut.ledger.Transaction.CreditTransaction;
+import com.revolut.ledger.Transaction.DebitTransaction;
+import com.revolut.ledger.Transaction.Transaction;
+import com.revolut.lock.Exception.LockException;
+import com.revolut.lock.Lock;
+import com.revolut.lock.LockService;
+import org.slf4j.Logger;
+
+import java.time.Clock;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves broken transactions - initiated, but neither completed nor cancelled within the expiry time, for example
+ * because the service has crashed before TransferCommand.onFailure() has been called.
+ *
+ * Open transactions are kept in an index ordered by the deadline, the index is updated on every stored ledger entry.
+ * A reap run resolves at most a batch of expired transactions, the oldest first. The lock of the sender account is
+ * taken without waiting before resolving, a transaction is skipped until the next run if the lock is busy.
+ *
+ * A transaction is resolved as a whole, by its global id. Once any side is completed the money has moved - the
+ * receiver is credited before the sender is debited - so the open sides are completed. Otherwise all the open sides
+ * are cancelled.
+ */
+public class TransactionReaper {
+    /**
+     * Open side of a transaction
+     */
+    private static final class Expiring {
+        /**
+         * Timestamp after which the transaction is broken, milliseconds
+         */
+        private long deadline;
+
+        /**
+         * Ledger the initial entry belongs to
+         */
+        private UUID ownerLedgerId;
+
+        /**
+         * Initial entry
+         */
+        private LedgerEntry ledgerEntry;
+
+        /**
+         * @param deadline timestamp after which the transaction is broken, milliseconds
+         * @param ownerLedgerId ledger the initial entry belongs to
+         * @param ledgerEntry initial entry
+         */
+        Expiring(long deadline, UUID ownerLedgerId, LedgerEntry ledgerEntry) {
+            this.deadline = deadline;
+            this.ownerLedgerId = ownerLedgerId;
+            this.ledgerEntry = ledgerEntry;
+        }
+
+        /**
+         * Identity of the open side, the deadline is not a part of it
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if ((null == obj) || (obj.getClass() != this.getClass())) return false;
+
+            Expiring other = (Expiring) obj;
+
+            return ownerLedgerId.equals(other.ownerLedgerId) && ledgerEntry.getGlobalId().equals(other.ledgerEntry.getGlobalId());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ownerLedgerId, ledgerEntry.getGlobalId());
+        }
+    }
+
+    /**
+     * Earliest deadline first
+     */
+    private static final Comparator<Expiring> byDeadline = Comparator
+        .comparingLong((Expiring expiring) -> expiring.deadline)
+        .thenComparing(expiring -> expiring.ledgerEntry.getGlobalId())
+        .thenComparing(expiring -> expiring.ownerLedgerId);
+
+    /**
+     * For how long to hold the sender lock while resolving, milliseconds
+     */
+    private final static int acquiringTime = 1000;
+
+    /**
+     * Ledger service
+     */
+    private LocalLedgerService ledgerService;
+
+    /**
+     * Lock service
+     */
+    private LockService lockService;
+
+    /**
+     * Clock
+     */
+    private Clock clock;
+
+    /**
+     * Logger
+     */
+    private Logger logger;
+
+    /**
+     * For how long a transaction may stay open, milliseconds
+     */
+    private long expiry;
+
+    /**
+     * Maximum number of transactions to look at per run
+     */
+    private int batchSize;
+
+    /**
+     * Open transactions, earliest deadline first
+     */
+    private ConcurrentSkipListSet<Expiring> deadlines = new ConcurrentSkipListSet<>(byDeadline);
+
+    /**
+     * The same open transactions, to find them by identity
+     */
+    private ConcurrentHashMap<Expiring, Expiring> open = new ConcurrentHashMap<>();
+
+    /**
+     * Number of resolved transactions
+     */
+    private AtomicLong reaped = new AtomicLong();
+
+    /**
+     * Number of resolved transactions which have been completed instead of cancelled
+     */
+    private AtomicLong completed = new AtomicLong();
+
+    /**
+     * Number of transactions skipped because the sender lock was busy
+     */
+    private AtomicLong skipped = new AtomicLong();
+
+    /**
+     * Time between the deadline and the resolution of the last reaped transaction, milliseconds
+     */
+    private volatile long lastLag;
+
+    /**
+     * Maximum time between the deadline and the resolution, milliseconds
+     */
+    private AtomicLong maxLag = new AtomicLong();
+
+    /**
+     * Runs the reaping
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Starts tracking the ledger entries, already open transactions are picked up as well
+     *
+     * @param ledgerService ledger service
+     * @param lockService lock service
+     * @param clock clock
+     * @param logger logger
+     * @param expiry for how long a transaction may stay open, milliseconds. Must be longer than the lock acquiring time
+     *               of the commands
+     * @param batchSize maximum number of transactions to look at per run
+     */
+    public TransactionReaper(
+        LocalLedgerService ledgerService,
+        LockService lockService,
+        Clock clock,
+        Logger logger,
+        long expiry,
+        int batchSize
+    ) {
+        this.ledgerService = ledgerService;
+        this.lockService = lockService;
+        this.clock = clock;
+        this.logger = logger;
+        this.expiry = expiry;
+        this.batchSize = batchSize;
+
+        ledgerService.addAppendListener(this::track);
+
+        for (UUID ledgerId : ledgerService.getLedgerIds()) {
+            for (LedgerEntry ledgerEntry : ledgerService.getInFlight(ledgerId)) track(ledgerId, ledgerEntry);
+        }
+    }
+
+    /**
+     * Starts the periodic reaping
+     *
+     * @param period delay between runs, milliseconds
+     */
+    public void start(long period) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transaction-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reap, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic reaping
+     */
+    public void stop() {
+        if (scheduler != null) scheduler.shutdown();
+    }
+
+    /**
+     * @return number of resolved transactions
+     */
+    public long getReaped() {
+        return reaped.get();
+    }
+
+    /**
+     * @return number of resolved transactions which have been completed instead of cancelled
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return number of transactions skipped because the sender lock was busy
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return number of open transactions being tracked
+     */
+    public int getOpen() {
+        return open.size();
+    }
+
+    /**
+     * @return time between the deadline and the resolution of the last reaped transaction, milliseconds
+     */
+    public long getLastLag() {
+        return lastLag;
+    }
+
+    /**
+     * @return maximum time between the deadline and the resolution, milliseconds
+     */
+    public long getMaxLag() {
+        return maxLag.get();
+    }
+
+    @Override
+    public String toString() {
+        return "reaped=" + getReaped()
+            + ", completed=" + getCompleted()
+            + ", skipped=" + getSkipped()
+            + ", open=" + getOpen()
+            + ", lastLagMs=" + getLastLag()
+            + ", maxLagMs=" + getMaxLag();
+    }
+
+    /**
+     * Updates the index with a stored entry
+     *
+     * @param ownerLedgerId ledger the entry belongs to
+     * @param ledgerEntry the entry
+     */
+    private void track(UUID ownerLedgerId, LedgerEntry ledgerEntry) {
+        Expiring expiring = new Expiring(ledgerEntry.getCreatedAt() + expiry, ownerLedgerId, ledgerEntry);
+
+        switch (ledgerEntry.getSubtype()) {
+            case OBLIGATION:
+            case RECEIVING:
+                if (open.putIfAbsent(expiring, expiring) == null) deadlines.add(expiring);
+                break;
+
+            case ACTUAL:
+            case CANCEL:
+                Expiring removed = open.remove(expiring);
+                if (removed != null) deadlines.remove(removed);
+                break;
+        }
+    }
+
+    /**
+     * Single reap run, resolves up to a batch of expired transactions
+     *
+     * @return number of resolved transactions
+     */
+    int reap() {
+        long now = clock.millis();
+        int resolved = 0;
+        int looked = 0;
+
+        Iterator<Expiring> iterator = deadlines.iterator();
+        while (iterator.hasNext() && (looked < batchSize)) {
+            Expiring expiring = iterator.next();
+            if (expiring.deadline > now) break;
+            looked++;
+
+            try {
+                if (resolve(expiring)) {
+                    resolved++;
+                    reaped.incrementAndGet();
+
+                    long lag = clock.millis() - expiring.deadline;
+                    lastLag = lag;
+                    maxLag.accumulateAndGet(lag, Math::max);
+                }
+            } catch (RevolutException | RuntimeException exception) {
+                logger.error("Failed to resolve transaction " + expiring.ledgerEntry.getGlobalId(), exception);
+            }
+        }
+
+        if (resolved > 0) logger.info("Resolved " + resolved + " broken transactions: " + this);
+
+        return resolved;
+    }
+
+    /**
+     * Resolves the whole transaction of an open side under the sender lock
+     *
+     * @param expiring open side of a transaction
+     *
+     * @return true if resolved, false if skipped
+     *
+     * @throws RevolutException
+     */
+    private boolean resolve(Expiring expiring) throws RevolutException {
+        LedgerEntry ledgerEntry = expiring.ledgerEntry;
+
+        Ledger sender = ledgerService.getByLedgerId(ledgerEntry.getFromLedgerId());
+        Ledger owner = ledgerService.getByLedgerId(expiring.ownerLedgerId);
+        if (owner == null) {
+            forget(expiring);
+            return false;
+        }
+
+        Lock lock = lockService.create((sender == null) ? owner.getAccountId() : sender.getAccountId());
+        if (!lock.tryLock(0, acquiringTime)) {
+            skipped.incrementAndGet();
+            return false;
+        }
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                // might have been finished before the lock has been taken
+                if (!ledgerService.isInFlight(expiring.ownerLedgerId, ledgerEntry.getGlobalId())) {
+                    forget(expiring);
+                    return false;
+                }
+
+                try {
+                    resolve(ledgerEntry.getGlobalId(), lock.getFencingToken());
+                    return true;
+                } catch (TransactionNotInFlightException exception) {
+                    // the previous holder has resolved the receiver side meanwhile, the transaction is read again
+                    if (attempt >= 2) throw exception;
+                }
+            }
+        } finally {
+            try {
+                lock.tryUnlock(true);
+            } catch (LockException exception) {
+                logger.error("Failed to unlock " + lock.getId(), exception);
+            }
+        }
+    }
+
+    /**
+     * Resolves all the open sides of a transaction under the sender lock
+     *
+     * @param globalId global transaction id
+     * @param fencingToken fencing token of the sender lock
+     *
+     * @throws TransactionNotInFlightException when a side has been resolved by someone else meanwhile
+     * @throws RevolutException
+     */
+    private void resolve(UUID globalId, long fencingToken) throws RevolutException {
+        LedgerEntry debit = null;
+        LedgerEntry credit = null;
+        boolean isDebitOpen = true;
+        boolean isCreditOpen = true;
+        boolean isCompleted = false;
+
+        for (LedgerEntry entry : ledgerService.getByGlobalId(globalId)) {
+            boolean isDebit = (entry.getType() == LedgerEntry.Type.DEBIT);
+
+            switch (entry.getSubtype()) {
+                case OBLIGATION:
+                case RECEIVING:
+                    if (isDebit) {
+                        debit = entry;
+                    } else {
+                        credit = entry;
+                    }
+                    break;
+
+                case ACTUAL:
+                case CANCEL:
+                    if (entry.getSubtype() == LedgerEntry.Subtype.ACTUAL) isCompleted = true;
+
+                    if (isDebit) {
+                        isDebitOpen = false;
+                    } else {
+                        isCreditOpen = false;
+                    }
+                    break;
+            }
+        }
+
+        // the sender ledger is fenced by the lock, a late write of the previous holder is rejected there. The
+        // receiver ledger is not fenced: the previous holder may still complete the credit, and then it is the
+        // cancellation which is rejected, as every side is state-checked against the whole transaction. So the
+        // credit is cancelled first, and the debit only once the credit can not be completed anymore
+        if ((credit != null) && isCreditOpen) resolve(new CreditTransaction(credit), LedgerService.UNFENCED, isCompleted);
+        if ((debit != null) && isDebitOpen) resolve(new DebitTransaction(debit), fencingToken, isCompleted);
+
+        if (isCompleted) completed.incrementAndGet();
+    }
+
+    /**
+     * Completes or cancels an open side of a transaction
+     *
+     * @param transaction open side
+     * @param fencingToken fencing token of the sender lock, UNFENCED for the receiver side
+     * @param isCompleted true to complete, false to cancel
+     *
+     * @throws RevolutException
+     */
+    private void resolve(Transaction transaction, long fencingToken, boolean isCompleted) throws RevolutException {
+        Ledger ledger = ledgerService.getByLedgerId(transaction.getOwnerLedgerId());
+        if (ledger == null) return;
+
+        if (isCompleted) {
+            ledger.completeTransaction(transaction, fencingToken);
+        } else {
+            ledger.cancelTransaction(transaction, fencingToken);
+        }
+    }
+
+    /**
+     * Stops tracking a side which is not open anymore
+     *
+     * @param expiring side of a transaction
+     */
+    private void forget(Expiring expiring) {
+        open.remove(expiring);
+        deadlines.remove(expiring);
+    }
+}
@@ -1,9 +1,11 @@
 package com.revolut.transfer;
 
-import com.revolut.command.Command;
+import com.revolut.command.BatchCommand;
 import com.revolut.exception.RevolutException;
+import com.revolut.ledger.Exception.TransactionNotInFlightException;
 import com.revolut.ledger.Transaction.CreditTransaction;
 import com.revolut.ledger.Transaction.DebitTransaction;
+import com.revolut.ledger.Transaction.TransactionState;
 import com.revolut.lock.Exception.*;
 import com.revolut.lock.Lock;
 import com.revolut.lock.LockService;
@@ -14,16 +16,20 @@ import com.revolut.transfer.Exception.InsufficientFundsException;
 import com.revolut.transfer.Exception.NoSuchLedgerException;
 import org.slf4j.Logger;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.UUID;
 
 /**
  * THE transfer command
  */
-public class TransferCommand implements Command {
+public class TransferCommand implements BatchCommand {
     /**
-     * For how long ro acquire lock, milliseconds
+     * For how long ro acquire lock, milliseconds. Short, the lock is renewed between the steps, so the account
+     * is released soon after a failed holder
      */
-    private final static int acquiringTime = 2000;
+    private final static int acquiringTime = 200;
 
     /**
      * Ledger service
@@ -65,6 +71,11 @@ public class TransferCommand implements Command {
      */
     private Lock fromLock;
 
+    /**
+     * The lock has been taken by the command itself, not by the executor of a batch
+     */
+    private boolean ownsLock;
+
     /**
      * Debit transaction
      */
@@ -75,6 +86,16 @@ public class TransferCommand implements Command {
      */
     private CreditTransaction creditTransaction;
 
+    /**
+     * The receiver has been credited, from now on the transfer may only be completed, not rolled back
+     */
+    private boolean isCredited;
+
+    /**
+     * The sender has been debited, the transfer is completed
+     */
+    private boolean isDebited;
+
     /**
      * Waiting timeout when acquiring lock
      */
@@ -104,31 +125,71 @@ public class TransferCommand implements Command {
 
         // acquiring resources
         fromLock = lockService.create(fromId);
+        ownsLock = true;
         if (fromLock.tryLock(lockWaitingTimeout, acquiringTime)) {
-
-            // loading ledgers
-            ledgerFrom = ledgerService.getByAccountId(fromId);
-            if (ledgerFrom == null) throw new NoSuchLedgerException(fromId);
-            ledgerTo = ledgerService.getByAccountId(toId);
-            if (ledgerTo == null) throw new NoSuchLedgerException(toId);
-
-            // checking for the balance
-            if (ledgerFrom.getActualBalance() < amount) throw new InsufficientFundsException(fromId);
+            load();
         } else {
             throw new UnableToAcquireException("Failed to wait " + lockWaitingTimeout + " ms to acquire " + fromLock.getId());
         }
     }
 
+    @Override
+    public Collection<UUID> getLockIds() {
+        return Collections.singletonList(fromId);
+    }
+
+    @Override
+    public long getLockWaitingTime() {
+        return lockWaitingTimeout;
+    }
+
+    @Override
+    public long getLockAcquiringTime() {
+        return acquiringTime;
+    }
+
+    @Override
+    public void prepare(Map<UUID, Lock> locks) throws RevolutException {
+        // check that we are not trying to send money to the same account
+        if (fromId.equals(toId)) throw new IllegalTransferException();
+
+        fromLock = locks.get(fromId);
+        ownsLock = false;
+        load();
+    }
+
+    /**
+     * Loads the ledgers and checks the balance, under the lock of the "from" account
+     *
+     * @throws RevolutException
+     */
+    private void load() throws RevolutException {
+        // loading ledgers
+        ledgerFrom = ledgerService.getByAccountId(fromId);
+        if (ledgerFrom == null) throw new NoSuchLedgerException(fromId);
+        ledgerTo = ledgerService.getByAccountId(toId);
+        if (ledgerTo == null) throw new NoSuchLedgerException(toId);
+
+        // checking for the balance
+        if (ledgerFrom.getActualBalance() < amount) throw new InsufficientFundsException(fromId);
+    }
+
     @Override
     public void execute() throws Exception {
-        // Create 2 "mirroring" transactions - DEBIT for sender and CREDIT for receiver
-        debitTransaction = ledgerFrom.createDebitTransaction(fromId, ledgerTo, amount);
+        // Create 2 "mirroring" transactions - DEBIT for sender and CREDIT for receiver.
+        // Writes to the sender ledger are fenced, a holder which has lost the lock can not touch it
+        debitTransaction = ledgerFrom.createDebitTransaction(fromId, ledgerTo, amount, fromLock.getFencingToken());
+        fromLock.renew(acquiringTime);
         creditTransaction = ledgerTo.createCreditTransaction(fromId, ledgerFrom, amount, debitTransaction.getId());
+        fromLock.renew(acquiringTime);
 
+        // The last renewal: once the receiver is credited, a failure must lead to completion, see onFailure()
         ledgerTo.completeTransaction(creditTransaction);
-        ledgerFrom.completeTransaction(debitTransaction);
+        isCredited = true;
+        ledgerFrom.completeTransaction(debitTransaction, fromLock.getFencingToken());
+        isDebited = true;
 
-        fromLock.tryUnlock(false);
+        if (ownsLock) fromLock.tryUnlock(false);
         fromLock = null;
     }
 
@@ -139,20 +200,58 @@ public class TransferCommand implements Command {
 
     @Override
     public void onFailure(Exception exception) throws Exception {
-        // Trying to cancel transactions in ase of failure
-        if (creditTransaction != null) ledgerTo.cancelTransaction(creditTransaction);
-        if (debitTransaction != null) ledgerFrom.cancelTransaction(debitTransaction);
+        // a batch which has failed to be made durable has dropped all its entries, there is nothing to roll back
+        if ((debitTransaction != null) && (ledgerService.getTransactionState(debitTransaction.getId()) == TransactionState.UNKNOWN)) {
+            if (ownsLock && (fromLock != null)) fromLock.tryUnlock(true);
+            logger.error("Transfer has not been stored", exception);
+            return;
+        }
 
-        if (fromLock != null) fromLock.tryUnlock(true);
+        if (isCredited) {
+            rollForward(exception);
+            return;
+        }
+
+        // Trying to cancel transactions in ase of failure, a side which is not in flight has been resolved by the reaper
+        try {
+            if (creditTransaction != null) ledgerTo.cancelTransaction(creditTransaction);
+            if (debitTransaction != null) {
+                ledgerFrom.cancelTransaction(debitTransaction, (fromLock != null) ? fromLock.getFencingToken() : LedgerService.UNFENCED);
+            }
+        } catch (TransactionNotInFlightException ignore) {}
+
+        if (ownsLock && (fromLock != null)) fromLock.tryUnlock(true);
 
         logger.error("Rolling back transfer", exception);
     }
 
+    /**
+     * Completes the debit of a transfer which has failed after the receiver has been credited. The lock may be lost by
+     * now, so the write is not fenced; the ledger service completes the debit only while it is still in flight, the
+     * reaper may have completed it already
+     *
+     * @param exception why the transfer has failed
+     *
+     * @throws Exception
+     */
+    private void rollForward(Exception exception) throws Exception {
+        if (!isDebited) {
+            try {
+                ledgerFrom.completeTransaction(debitTransaction, LedgerService.UNFENCED);
+                isDebited = true;
+            } catch (TransactionNotInFlightException ignore) {}
+        }
+
+        if (ownsLock && (fromLock != null)) fromLock.tryUnlock(true);
+
+        logger.error("Completing transfer after the receiver has been credited", exception);
+    }
+
     @Override
     public void release() throws RevolutException {
         try {
             // release() is called in both happy/failed paths so we need to be careful here
-            if (fromLock != null) fromLock.tryUnlock(true);
+            if (ownsLock && (fromLock != null)) fromLock.tryUnlock(true);
         } catch (AlreadyUnlockedException | ExpiredLockException | LostLockException exception) {
             throw new RevolutException(
                     "Issues with lock " + fromLock.getId() + " - transactions are possible in the unbalanced state",
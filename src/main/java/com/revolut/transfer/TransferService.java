@@ -2,8 +2,12 @@ package com.revolut.transfer;
 
 import com.revolut.account.Account;
 import com.revolut.account.AccountService;
+import com.revolut.command.executor.AdmissionController;
 import com.revolut.command.executor.CommandExecutor;
+import com.revolut.command.executor.CommandMetrics;
+import com.revolut.command.executor.Exception.MailboxFullException;
 import com.revolut.ledger.LedgerService;
+import com.revolut.lock.Exception.UnableToAcquireException;
 import com.revolut.router.Response;
 import com.revolut.transfer.Exception.TransferException;
 import com.revolut.utils.UUIDUtil;
@@ -25,6 +29,11 @@ public class TransferService {
      */
     private CommandExecutor commandExecutor;
 
+    /**
+     * Admission controller in front of the command executor
+     */
+    private AdmissionController admissionController;
+
     /**
      * Account service
      */
@@ -43,6 +52,7 @@ public class TransferService {
     /**
      * @param ledgerService ledger service
      * @param commandExecutor command executor
+     * @param admissionController admission controller in front of the command executor
      * @param accountService account service
      * @param logger logger
      * @param lockWaitingTimeout waiting timeout when acquiring lock
@@ -50,12 +60,14 @@ public class TransferService {
     public TransferService(
         LedgerService ledgerService,
         CommandExecutor commandExecutor,
+        AdmissionController admissionController,
         AccountService accountService,
         Logger logger,
         int lockWaitingTimeout
     ) {
         this.ledgerService = ledgerService;
         this.commandExecutor = commandExecutor;
+        this.admissionController = admissionController;
         this.accountService = accountService;
         this.logger = logger;
         this.lockWaitingTimeout = lockWaitingTimeout;
@@ -128,6 +140,13 @@ public class TransferService {
             lockWaitingTimeout
         );
 
+        // Shed load before queueing on the lock
+        if (!admissionController.tryAcquire())
+            return new Response(Response.ResponseCode.OVERLOADED, "Too many requests in flight, please try again later");
+
+        long startedAt = System.nanoTime();
+        boolean isDropped = false;
+
         // Execute command
         try {
             commandExecutor.execute(transferCommand);
@@ -139,6 +158,12 @@ public class TransferService {
 
             // This is ugly but the reason of doing this is to put the traceId in the response
             throw transferException;
+        } catch (UnableToAcquireException | MailboxFullException saturationException) {
+            isDropped = true;
+            throw saturationException;
+        } finally {
+            long lockWaitTime = commandExecutor.getMetrics().of(TransferCommand.class).getRecentLatency(CommandMetrics.Phase.PRE);
+            admissionController.release(startedAt, lockWaitTime, isDropped);
         }
 
         return new Response(Response.ResponseCode.NO_ERROR, "");
@@ -0,0 +1,191 @@
+package com.revolut.utils;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of non-negative values.
+ *
+ * Values below 8 have a bucket each, every following power of two is split into 8 buckets - a percentile is off by at
+ * most 1/8 of the value whatever its magnitude, with a fixed number of buckets. Buckets are striped counters, so
+ * recording from many threads at once does not contend on a single memory location.
+ *
+ * Reading does not stop recording: a summary taken meanwhile might be slightly inconsistent, e.g. count and buckets
+ */
+public class Histogram {
+    /**
+     * Buckets per power of two, as bits
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * Buckets per power of two
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Summary of the recorded values
+     */
+    public static final class Summary {
+        /**
+         * Number of values
+         */
+        final long count;
+
+        /**
+         * Mean value
+         */
+        final double mean;
+
+        /**
+         * Median
+         */
+        final long p50;
+
+        /**
+         * 90th percentile
+         */
+        final long p90;
+
+        /**
+         * 99th percentile
+         */
+        final long p99;
+
+        /**
+         * Maximum value
+         */
+        final long max;
+
+        /**
+         * @param histogram histogram to summarize
+         */
+        Summary(Histogram histogram) {
+            this.count = histogram.getCount();
+            this.mean = histogram.getMean();
+            this.p50 = histogram.getPercentile(50);
+            this.p90 = histogram.getPercentile(90);
+            this.p99 = histogram.getPercentile(99);
+            this.max = histogram.getMax();
+        }
+    }
+
+    /**
+     * Number of values per bucket
+     */
+    private LongAdder[] buckets = new LongAdder[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+
+    /**
+     * Number of values
+     */
+    private LongAdder count = new LongAdder();
+
+    /**
+     * Sum of the values
+     */
+    private LongAdder sum = new LongAdder();
+
+    /**
+     * Maximum value
+     */
+    private LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    /**
+     * @param value value to record, negative ones are recorded as 0
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+
+        buckets[bucket(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return number of values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return mean value, 0 if none
+     */
+    public double getMean() {
+        long count = getCount();
+        return (count == 0) ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * @return maximum value, 0 if none
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile percentile, 0 - 100
+     *
+     * @return highest value of the bucket the percentile falls into, not above the maximum. 0 if none
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+
+        if (total == 0) return 0;
+
+        long rank = Math.max((long) Math.ceil(total * percentile / 100), 1);
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highest(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    /**
+     * @return count, mean, percentiles and maximum
+     */
+    public Summary summarize() {
+        return new Summary(this);
+    }
+
+    /**
+     * @param value non-negative value
+     *
+     * @return bucket of the value
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param bucket bucket
+     *
+     * @return highest value of the bucket
+     */
+    static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,139 @@
+package com.revolut.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel.
+ *
+ * Time is split into ticks, every tick maps to one of the buckets of the wheel. Scheduling pushes an item into the
+ * bucket of its deadline tick, advancing the wheel by a tick looks only at one bucket - both are O(1) regardless of
+ * the number of scheduled items (items scheduled more than a wheel turn ahead are re-pushed once per turn).
+ *
+ * Items can be scheduled from any thread, the wheel must be advanced from one thread at a time.
+ *
+ * @param <T> type of the scheduled items
+ */
+public class TimerWheel<T> {
+    /**
+     * Scheduled item, buckets are lock-free stacks of nodes
+     */
+    private static final class Node<T> {
+        final T item;
+        final long deadlineTick;
+        Node<T> next;
+
+        Node(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    /**
+     * Duration of a tick, milliseconds
+     */
+    private long tickDuration;
+
+    /**
+     * Buckets, a power of two of them
+     */
+    private AtomicReferenceArray<Node<T>> buckets;
+
+    /**
+     * Last processed tick
+     */
+    private volatile long currentTick;
+
+    /**
+     * Number of scheduled items
+     */
+    private AtomicLong size = new AtomicLong();
+
+    /**
+     * @param wheelSize number of buckets, rounded up to a power of two
+     * @param tickDuration duration of a tick, milliseconds
+     * @param now current timestamp, milliseconds
+     */
+    public TimerWheel(int wheelSize, long tickDuration, long now) {
+        int buckets = Integer.highestOneBit(Math.max(wheelSize - 1, 1)) << 1;
+
+        this.tickDuration = tickDuration;
+        this.buckets = new AtomicReferenceArray<>(buckets);
+        this.currentTick = now / tickDuration;
+    }
+
+    /**
+     * Schedules an item. Safe to call from many threads
+     *
+     * @param deadline when the item expires, milliseconds. Items in the past expire on the next tick
+     * @param item item
+     */
+    public void schedule(long deadline, T item) {
+        long tick = Math.max((deadline + tickDuration - 1) / tickDuration, currentTick + 1);
+        push(new Node<>(item, tick));
+        size.incrementAndGet();
+    }
+
+    /**
+     * Processes the ticks up to the given time
+     *
+     * @param now current timestamp, milliseconds
+     * @param expired called for every expired item
+     *
+     * @return number of expired items
+     */
+    public int advance(long now, Consumer<T> expired) {
+        long target = now / tickDuration;
+        long tick = currentTick;
+        if (target <= tick) return 0;
+
+        // not advanced for more than a wheel turn - every bucket once is enough
+        long from = Math.max(tick + 1, target - buckets.length() + 1);
+        int fired = 0;
+
+        for (long processing = from; processing <= target; processing++) {
+            int bucket = (int) (processing & (buckets.length() - 1));
+            Node<T> node = buckets.getAndSet(bucket, null);
+
+            while (node != null) {
+                Node<T> next = node.next;
+
+                if (node.deadlineTick <= target) {
+                    size.decrementAndGet();
+                    fired++;
+                    expired.accept(node.item);
+                } else {
+                    // a later turn of the wheel
+                    push(node);
+                }
+
+                node = next;
+            }
+
+            currentTick = processing;
+        }
+
+        return fired;
+    }
+
+    /**
+     * @return number of scheduled items
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * @param node node to push into the bucket of its deadline tick
+     */
+    private void push(Node<T> node) {
+        int bucket = (int) (node.deadlineTick & (buckets.length() - 1));
+
+        Node<T> head;
+        do {
+            head = buckets.get(bucket);
+            node.next = head;
+        } while (!buckets.compareAndSet(bucket, head, node));
+    }
+}
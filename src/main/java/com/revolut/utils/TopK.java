@@ -0,0 +1,134 @@
+package com.revolut.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Heavy hitters sketch (Space-Saving): the most frequent items of a stream in a fixed amount of memory.
+ *
+ * Keeps at most `capacity` counters. An item without a counter takes over the smallest one and inherits its count as
+ * the error, so a count is never below the true frequency and never above it by more than the error. Any item seen more
+ * than total / capacity times is guaranteed to have a counter.
+ *
+ * @param <T> type of the items
+ */
+public class TopK<T> {
+    /**
+     * A counted item
+     */
+    public static final class Entry<T> {
+        /**
+         * The item
+         */
+        final T item;
+
+        /**
+         * Estimated number of occurrences, never below the true one
+         */
+        long count;
+
+        /**
+         * Maximum overestimation of the count
+         */
+        long error;
+
+        /**
+         * @param item the item
+         * @param count estimated number of occurrences
+         * @param error maximum overestimation of the count
+         */
+        Entry(T item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        /**
+         * @return the item
+         */
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * @return estimated number of occurrences, never below the true one
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return maximum overestimation of the count
+         */
+        public long getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Maximum number of counters
+     */
+    private int capacity;
+
+    /**
+     * Counters by item
+     */
+    private HashMap<T, Entry<T>> counters;
+
+    /**
+     * @param capacity maximum number of counters
+     */
+    public TopK(int capacity) {
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Counts an occurrence of the item. Taking over a counter looks through all of them, fine for a small capacity
+     *
+     * @param item the item
+     */
+    public synchronized void add(T item) {
+        Entry<T> entry = counters.get(item);
+        if (entry != null) {
+            entry.count++;
+            return;
+        }
+
+        if (counters.size() < capacity) {
+            counters.put(item, new Entry<>(item, 1, 0));
+            return;
+        }
+
+        Entry<T> smallest = null;
+        for (Entry<T> candidate : counters.values()) {
+            if ((smallest == null) || (candidate.count < smallest.count)) smallest = candidate;
+        }
+
+        counters.remove(smallest.item);
+        counters.put(item, new Entry<>(item, smallest.count + 1, smallest.count));
+    }
+
+    /**
+     * @param k number of items
+     *
+     * @return copies of the k most frequent items, the most frequent first
+     */
+    public synchronized List<Entry<T>> top(int k) {
+        List<Entry<T>> top = new ArrayList<>(counters.size());
+        for (Entry<T> entry : counters.values()) top.add(new Entry<>(entry.item, entry.count, entry.error));
+
+        top.sort(Comparator.comparingLong((Entry<T> entry) -> entry.count).reversed());
+
+        return new ArrayList<>(top.subList(0, Math.min(k, top.size())));
+    }
+
+    /**
+     * @return maximum number of counters
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
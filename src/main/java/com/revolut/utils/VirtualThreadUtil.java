@@ -0,0 +1,50 @@
+package com.revolut.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual thread utilities. Virtual threads are looked up at runtime, the build targets Java 8
+ */
+public class VirtualThreadUtil {
+    /**
+     * Thread::isVirtual(), null if virtual threads are not available
+     */
+    private static final Method IS_VIRTUAL = lookup();
+
+    /**
+     * @return executor starting a new virtual thread per task, null if virtual threads are not available
+     */
+    public static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * @param thread thread
+     *
+     * @return true if the thread is a virtual one
+     */
+    public static boolean isVirtual(Thread thread) {
+        try {
+            return (IS_VIRTUAL != null) && (Boolean) IS_VIRTUAL.invoke(thread);
+        } catch (ReflectiveOperationException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Thread::isVirtual(), null if virtual threads are not available
+     */
+    private static Method lookup() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException exception) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.revolut.command.executor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControllerTest {
+    /**
+     * Commands over the limit are rejected until others finish
+     */
+    @Test
+    public void testLimit() {
+        AdmissionController admissionController = new AdmissionController(2, 10, 1000);
+
+        assertTrue(admissionController.tryAcquire());
+        assertTrue(admissionController.tryAcquire());
+        assertFalse(admissionController.tryAcquire());
+        assertEquals(2, admissionController.getInFlight());
+
+        admissionController.release(System.nanoTime(), 0, false);
+        assertTrue(admissionController.tryAcquire());
+
+        assertEquals(3, admissionController.getAdmitted());
+        assertEquals(1, admissionController.getRejected());
+    }
+
+    /**
+     * Fast commands grow the limit additively up to the maximum one
+     */
+    @Test
+    public void testAdditiveIncrease() {
+        AdmissionController admissionController = new AdmissionController(10, 12, 1000);
+
+        for (int i = 0; i < 10; i++) assertTrue(admissionController.tryAcquire());
+        for (int i = 0; i < 10; i++) admissionController.release(System.nanoTime(), 0, false);
+        assertEquals(10, admissionController.getLimit());
+
+        for (int i = 0; i < 100; i++) saturate(admissionController);
+        assertEquals(12, admissionController.getLimit());
+    }
+
+    /**
+     * Slow and dropped commands cut the limit, once per spike, down to the minimum one
+     */
+    @Test
+    public void testMultiplicativeDecrease() {
+        AdmissionController admissionController = new AdmissionController(10, 100, 50);
+        for (int i = 0; i < 1000; i++) saturate(admissionController);
+        int limit = admissionController.getLimit();
+        assertTrue(limit > 20);
+
+        // admitted before the spike
+        long startedAt = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(100);
+        for (int i = 0; i < 10; i++) admissionController.tryAcquire();
+        for (int i = 0; i < 10; i++) admissionController.release(startedAt, TimeUnit.MILLISECONDS.toNanos(100), false);
+
+        assertEquals(1, admissionController.getDecreases());
+        assertEquals((int) (limit * 0.9), admissionController.getLimit(), 1);
+
+        // admitted after the cut
+        admissionController.tryAcquire();
+        admissionController.release(System.nanoTime(), 0, true);
+        assertEquals(2, admissionController.getDecreases());
+
+        for (int i = 0; i < 100; i++) {
+            admissionController.tryAcquire();
+            admissionController.release(System.nanoTime(), 0, true);
+        }
+        assertEquals(10, admissionController.getLimit());
+    }
+
+    /**
+     * Only waiting for locks cuts the limit, a command slow for other reasons does not
+     */
+    @Test
+    public void testLockWaitTime() {
+        AdmissionController admissionController = new AdmissionController(10, 100, 50);
+        for (int i = 0; i < 1000; i++) saturate(admissionController);
+        int limit = admissionController.getLimit();
+
+        long startedAt = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(100);
+        admissionController.tryAcquire();
+        admissionController.release(startedAt, TimeUnit.MILLISECONDS.toNanos(10), false);
+        assertEquals(0, admissionController.getDecreases());
+        assertTrue(admissionController.getLimit() >= limit);
+
+        admissionController.tryAcquire();
+        admissionController.release(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(60), false);
+        assertEquals(1, admissionController.getDecreases());
+    }
+
+    /**
+     * Admits as many fast commands as the limit allows, then finishes them
+     *
+     * @param admissionController admission controller
+     */
+    private static void saturate(AdmissionController admissionController) {
+        int admitted = 0;
+        while (admissionController.tryAcquire()) admitted++;
+
+        for (int i = 0; i < admitted; i++) admissionController.release(System.nanoTime(), 0, false);
+    }
+
+    @Test
+    public void testWrongArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController(0, 10, 100));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController(10, 5, 100));
+    }
+}
@@ -1,6 +1,7 @@
 package com.revolut.command.executor;
 
 import com.revolut.command.Command;
+import com.revolut.lock.Exception.UnableToAcquireException;
 import com.revolut.lock.LockService;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -8,6 +9,7 @@ import org.mockito.Mock;
 
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
@@ -70,4 +72,88 @@ public class CommandExecutorTest {
         verify(command, times(1)).release();
         verify(command, times(1)).onFailure(any());
     }
+
+    @Test
+    public void testMetricsArePerPhase(@Mock Command command, @Mock LockService lockService) throws Exception {
+        CommandExecutor commandExecutor = new CommandExecutor(lockService);
+        commandExecutor.execute(command);
+
+        doThrow(RuntimeException.class).when(command).execute();
+        assertThrows(RuntimeException.class, () -> commandExecutor.execute(command));
+
+        CommandMetrics.Type type = commandExecutor.getMetrics().of(command.getClass());
+        assertEquals(1, type.getSuccesses());
+        assertEquals(1, type.getFailures(CommandMetrics.Phase.EXECUTE));
+        assertEquals(0, type.getFailures(CommandMetrics.Phase.PRE));
+        assertEquals(2, type.getLatency(CommandMetrics.Phase.PRE).getCount());
+        assertEquals(2, type.getLatency(CommandMetrics.Phase.EXECUTE).getCount());
+        assertEquals(1, type.getLatency(CommandMetrics.Phase.ON_SUCCESS).getCount());
+        assertEquals(1, type.getLatency(CommandMetrics.Phase.ON_FAILURE).getCount());
+        assertEquals(2, type.getLatency(CommandMetrics.Phase.RELEASE).getCount());
+    }
+
+    @Test
+    public void testUnableToAcquireIsRetried(@Mock Command command, @Mock LockService lockService) throws Exception {
+        doThrow(new UnableToAcquireException("busy"))
+            .doThrow(new UnableToAcquireException("busy"))
+            .doNothing()
+            .when(command).pre(any());
+
+        CommandExecutor commandExecutor = new CommandExecutor(lockService);
+        commandExecutor.setRetryPolicy(command.getClass(), new RetryPolicy(3, 1, 5, 1000));
+        commandExecutor.execute(command);
+
+        verify(command, times(3)).pre(lockService);
+        verify(command, times(1)).execute();
+        verify(command, times(1)).onSuccess();
+        verify(command, times(3)).release();
+        verify(command, never()).onFailure(any());
+
+        CommandMetrics.Type type = commandExecutor.getMetrics().of(command.getClass());
+        assertEquals(2, type.getRetries());
+        assertEquals(1, type.getSuccesses());
+    }
+
+    @Test
+    public void testRetriesAreBounded(@Mock Command command, @Mock LockService lockService) throws Exception {
+        doThrow(new UnableToAcquireException("busy")).when(command).pre(any());
+
+        CommandExecutor commandExecutor = new CommandExecutor(lockService);
+        commandExecutor.setRetryPolicy(command.getClass(), new RetryPolicy(3, 1, 5, 1000));
+
+        assertThrows(UnableToAcquireException.class, () -> commandExecutor.execute(command));
+
+        verify(command, times(3)).pre(lockService);
+        verify(command, never()).execute();
+        verify(command, times(1)).onFailure(any());
+        assertEquals(1, commandExecutor.getMetrics().of(command.getClass()).getFailures(CommandMetrics.Phase.PRE));
+    }
+
+    @Test
+    public void testNoRetryPastDeadline(@Mock Command command, @Mock LockService lockService) throws Exception {
+        doThrow(new UnableToAcquireException("busy")).when(command).pre(any());
+
+        CommandExecutor commandExecutor = new CommandExecutor(lockService);
+        commandExecutor.setRetryPolicy(command.getClass(), new RetryPolicy(100, 100, 100, 250));
+
+        assertThrows(UnableToAcquireException.class, () -> commandExecutor.execute(command));
+
+        // 2 backoffs of 100 ms fit into 250 ms, the third one does not
+        verify(command, times(3)).pre(lockService);
+        verify(command, times(1)).onFailure(any());
+    }
+
+    @Test
+    public void testOtherExceptionsAreNotRetried(@Mock Command command, @Mock LockService lockService) throws Exception {
+        doThrow(RuntimeException.class).when(command).pre(any());
+
+        CommandExecutor commandExecutor = new CommandExecutor(lockService);
+        commandExecutor.setRetryPolicy(command.getClass(), new RetryPolicy(3, 1, 5, 1000));
+
+        assertThrows(RuntimeException.class, () -> commandExecutor.execute(command));
+
+        verify(command, times(1)).pre(lockService);
+        verify(command, times(1)).onFailure(any());
+        assertEquals(0, commandExecutor.getMetrics().of(command.getClass()).getRetries());
+    }
 }
@@ -0,0 +1,221 @@
+package com.revolut.command.executor;
+
+import com.revolut.command.BatchCommand;
+import com.revolut.command.executor.Exception.MailboxFullException;
+import com.revolut.lock.Exception.UnableToAcquireException;
+import com.revolut.lock.Lock;
+import com.revolut.lock.LockService;
+import com.revolut.transfer.LocalLedgerService;
+import com.revolut.transfer.LocalLockService;
+import com.revolut.transfer.TransferCommand;
+import org.junit.jupiter.api.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MailboxCommandExecutorTest {
+    /**
+     * Blocks in execute() until released
+     */
+    private static class BlockingCommand implements BatchCommand {
+        private final UUID id;
+        private final CountDownLatch started;
+        private final CountDownLatch proceed;
+        private final long lockWaitingTime;
+
+        BlockingCommand(UUID id, CountDownLatch started, CountDownLatch proceed) {
+            this(id, started, proceed, 1000);
+        }
+
+        BlockingCommand(UUID id, CountDownLatch started, CountDownLatch proceed, long lockWaitingTime) {
+            this.id = id;
+            this.started = started;
+            this.proceed = proceed;
+            this.lockWaitingTime = lockWaitingTime;
+        }
+
+        @Override
+        public Collection<UUID> getLockIds() {
+            return Collections.singletonList(id);
+        }
+
+        @Override
+        public long getLockWaitingTime() {
+            return lockWaitingTime;
+        }
+
+        @Override
+        public long getLockAcquiringTime() {
+            return 10000;
+        }
+
+        @Override
+        public void prepare(Map<UUID, Lock> locks) {
+            assertTrue(locks.get(id).getIsLocked());
+        }
+
+        @Override
+        public void pre(LockService lockService) {}
+
+        @Override
+        public void execute() throws Exception {
+            started.countDown();
+            proceed.await();
+        }
+
+        @Override
+        public void onSuccess() {}
+
+        @Override
+        public void onFailure(Exception exception) {}
+
+        @Override
+        public void release() {}
+    }
+
+    /**
+     * Transfers from a single account are run one by one, all of them succeed
+     */
+    @Test
+    public void testSerialTransfers() throws Exception {
+        MailboxCommandExecutor commandExecutor = new MailboxCommandExecutor(new LocalLockService(Clock.systemUTC()), 4, 100);
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC());
+
+        // Account d2febbaf-0edb-4f19-824e-588b712c8c29 has 50 funds
+        UUID from = UUID.fromString("d2febbaf-0edb-4f19-824e-588b712c8c29");
+        UUID to = UUID.fromString("5ab59fdf-997f-4a20-ab33-67272b840a19");
+        long currentBalance = localLedgerService.getByAccountId(to).getActualBalance();
+
+        // keeps the mailbox from being removed before its counters are taken
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        CompletableFuture<Void> blocking = commandExecutor.submit(new BlockingCommand(from, started, proceed));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        MailboxCommandExecutor.MailboxStats stats = commandExecutor.getMailboxStats().get(from);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(commandExecutor.submit(new TransferCommand(localLedgerService, from, to, 1, NOPLogger.NOP_LOGGER, 500)));
+        }
+        proceed.countDown();
+        blocking.get(1, TimeUnit.SECONDS);
+        for (CompletableFuture<Void> future : futures) future.get(5, TimeUnit.SECONDS);
+
+        assertEquals(0, localLedgerService.getByAccountId(from).getActualBalance());
+        assertEquals(currentBalance + 50, localLedgerService.getByAccountId(to).getActualBalance());
+
+        assertEquals(51, stats.getExecuted());
+        assertEquals(0, stats.getFailed());
+        assertEquals(0, stats.getQueued());
+        assertTrue(stats.getDrains() <= 50);
+
+        commandExecutor.stop();
+    }
+
+    /**
+     * A full mailbox rejects commands, other accounts are not affected
+     */
+    @Test
+    public void testFullMailbox() throws Exception {
+        MailboxCommandExecutor commandExecutor = new MailboxCommandExecutor(new LocalLockService(Clock.systemUTC()), 2, 1);
+        UUID busy = UUID.randomUUID();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+
+        CompletableFuture<Void> running = commandExecutor.submit(new BlockingCommand(busy, started, proceed));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        MailboxCommandExecutor.MailboxStats stats = commandExecutor.getMailboxStats().get(busy);
+
+        CompletableFuture<Void> queued = commandExecutor.submit(new BlockingCommand(busy, new CountDownLatch(1), proceed));
+        ExecutionException rejected = assertThrows(
+            ExecutionException.class,
+            () -> commandExecutor.submit(new BlockingCommand(busy, new CountDownLatch(1), proceed)).get()
+        );
+        assertTrue(rejected.getCause() instanceof MailboxFullException);
+
+        CountDownLatch other = new CountDownLatch(1);
+        CompletableFuture<Void> elsewhere = commandExecutor.submit(new BlockingCommand(UUID.randomUUID(), other, new CountDownLatch(0)));
+        elsewhere.get(1, TimeUnit.SECONDS);
+
+        proceed.countDown();
+        running.get(1, TimeUnit.SECONDS);
+        queued.get(1, TimeUnit.SECONDS);
+
+        assertEquals(1, stats.getRejected());
+        assertEquals(2, stats.getExecuted());
+        assertEquals(1, stats.getMaxQueued());
+
+        commandExecutor.stop();
+    }
+
+    /**
+     * Mailboxes left empty by their drains are removed, a next command creates the mailbox again
+     */
+    @Test
+    public void testEmptyMailboxesAreRemoved() throws Exception {
+        MailboxCommandExecutor commandExecutor = new MailboxCommandExecutor(new LocalLockService(Clock.systemUTC()), 4, 10);
+
+        for (int round = 0; round < 2; round++) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(commandExecutor.submit(new BlockingCommand(UUID.randomUUID(), new CountDownLatch(1), new CountDownLatch(0))));
+            }
+            for (CompletableFuture<Void> future : futures) future.get(1, TimeUnit.SECONDS);
+
+            // a drain removes its mailbox after completing the last command
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (!commandExecutor.getMailboxStats().isEmpty() && (System.nanoTime() < deadline)) Thread.sleep(1);
+
+            assertTrue(commandExecutor.getMailboxStats().isEmpty());
+        }
+
+        commandExecutor.stop();
+    }
+
+    /**
+     * The account lock which is busy at the start of a drain is retried according to the retry policy of the command
+     */
+    @Test
+    public void testRetryPolicy() throws Exception {
+        LocalLockService lockService = new LocalLockService(Clock.systemUTC());
+        MailboxCommandExecutor commandExecutor = new MailboxCommandExecutor(lockService, 2, 10);
+        UUID id = UUID.randomUUID();
+
+        Lock lock = lockService.create(id);
+        assertTrue(lock.tryLock(0, 10000));
+
+        // without retries the lock is not acquired
+        ExecutionException failed = assertThrows(
+            ExecutionException.class,
+            () -> commandExecutor.submit(new BlockingCommand(id, new CountDownLatch(1), new CountDownLatch(0), 0)).get(1, TimeUnit.SECONDS)
+        );
+        assertTrue(failed.getCause() instanceof UnableToAcquireException);
+
+        commandExecutor.setRetryPolicy(BlockingCommand.class, new RetryPolicy(100, 10, 10, 5000));
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<Void> retried = commandExecutor.submit(new BlockingCommand(id, started, new CountDownLatch(0), 0));
+
+        Thread.sleep(50);
+        assertEquals(1, started.getCount());
+        lock.tryUnlock(true);
+
+        retried.get(1, TimeUnit.SECONDS);
+        assertTrue(commandExecutor.getMetrics().of(BlockingCommand.class).getRetries() > 0);
+
+        commandExecutor.stop();
+    }
+}
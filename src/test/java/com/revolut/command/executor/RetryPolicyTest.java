@@ -0,0 +1,50 @@
+package com.revolut.command.executor;
+
+import com.revolut.lock.Exception.LostLockException;
+import com.revolut.lock.Exception.UnableToAcquireException;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetryPolicyTest {
+    /**
+     * Delays stay between the base delay and the cap, and three times the previous delay
+     */
+    @Test
+    public void testDecorrelatedJitter() {
+        RetryPolicy retryPolicy = new RetryPolicy(10, 10, 200, 1000);
+
+        boolean hasGrown = false;
+        for (int i = 0; i < 1000; i++) {
+            long delay = retryPolicy.getBaseDelay();
+
+            for (int attempt = 0; attempt < 10; attempt++) {
+                long next = retryPolicy.nextDelay(delay);
+
+                assertTrue(next >= 10);
+                assertTrue(next <= 200);
+                assertTrue(next <= delay * 3);
+                hasGrown |= (next > 30);
+
+                delay = next;
+            }
+        }
+
+        assertTrue(hasGrown);
+    }
+
+    @Test
+    public void testOnlyUnableToAcquireIsRetryable() {
+        assertTrue(new RetryPolicy(3, 0, 0, 0).isRetryable(new UnableToAcquireException("busy")));
+        assertFalse(new RetryPolicy(3, 0, 0, 0).isRetryable(new LostLockException(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID())));
+        assertFalse(new RetryPolicy(3, 0, 0, 0).isRetryable(new RuntimeException()));
+    }
+
+    @Test
+    public void testWrongArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(0, 0, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(1, 10, 5, 0));
+    }
+}
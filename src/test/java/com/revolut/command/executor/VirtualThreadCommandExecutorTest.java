@@ -0,0 +1,128 @@
+package com.revolut.command.executor;
+
+import com.revolut.command.Command;
+import com.revolut.lock.LockService;
+import com.revolut.transfer.LocalLockService;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class VirtualThreadCommandExecutorTest {
+    /**
+     * Counts the lifecycle calls, optionally sleeps or fails in execute()
+     */
+    private static class CountingCommand implements Command {
+        private static final AtomicInteger running = new AtomicInteger();
+        private static final AtomicInteger maxRunning = new AtomicInteger();
+
+        private final long sleep;
+        private final boolean fail;
+        private int failures;
+        private int releases;
+
+        CountingCommand(long sleep, boolean fail) {
+            this.sleep = sleep;
+            this.fail = fail;
+        }
+
+        @Override
+        public void pre(LockService lockService) {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        }
+
+        @Override
+        public void execute() throws Exception {
+            Thread.sleep(sleep);
+            if (fail) throw new IllegalStateException("failed");
+        }
+
+        @Override
+        public void onSuccess() {}
+
+        @Override
+        public void onFailure(Exception exception) {
+            failures++;
+        }
+
+        @Override
+        public void release() {
+            releases++;
+            running.decrementAndGet();
+        }
+    }
+
+    /**
+     * No more than the limit of commands run at once, all of them are executed
+     */
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        VirtualThreadCommandExecutor commandExecutor = new VirtualThreadCommandExecutor(new LocalLockService(Clock.systemUTC()), 3);
+
+        List<CountingCommand> commands = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            CountingCommand command = new CountingCommand(10, false);
+            commands.add(command);
+            futures.add(commandExecutor.submit(command));
+        }
+
+        assertTrue(commandExecutor.getWaiting() > 0);
+        for (CompletableFuture<Void> future : futures) future.get(5, TimeUnit.SECONDS);
+
+        assertTrue(CountingCommand.maxRunning.get() <= 3);
+        assertEquals(0, commandExecutor.getWaiting());
+        for (CountingCommand command : commands) assertEquals(1, command.releases);
+
+        commandExecutor.stop();
+    }
+
+    /**
+     * A failure is rethrown to the caller after onFailure() and release()
+     */
+    @Test
+    public void testFailureIsRethrown() {
+        VirtualThreadCommandExecutor commandExecutor = new VirtualThreadCommandExecutor(new LocalLockService(Clock.systemUTC()), 3);
+        CountingCommand command = new CountingCommand(0, true);
+
+        assertThrows(IllegalStateException.class, () -> commandExecutor.execute(command));
+        assertEquals(1, command.failures);
+        assertEquals(1, command.releases);
+
+        commandExecutor.stop();
+    }
+
+    /**
+     * An Error completes the future too and frees the slot
+     */
+    @Test
+    public void testErrorCompletesFuture() throws Exception {
+        VirtualThreadCommandExecutor commandExecutor = new VirtualThreadCommandExecutor(new LocalLockService(Clock.systemUTC()), 1);
+        CountingCommand command = new CountingCommand(0, false) {
+            @Override
+            public void execute() {
+                throw new AssertionError("broken");
+            }
+        };
+
+        ExecutionException exception = assertThrows(
+            ExecutionException.class,
+            () -> commandExecutor.submit(command).get(5, TimeUnit.SECONDS)
+        );
+        assertTrue(exception.getCause() instanceof AssertionError);
+        assertEquals(1, command.releases);
+
+        commandExecutor.submit(new CountingCommand(0, false)).get(5, TimeUnit.SECONDS);
+
+        commandExecutor.stop();
+    }
+}
@@ -0,0 +1,94 @@
+package com.revolut.ledger.Journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.revolut.ledger.LedgerEntryFixtures.entry;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JournalCommitterTest {
+    /**
+     * Concurrent appends in every durability mode.
+     *
+     * Check all the records are in the journal after reopening
+     * Check a committed record has no unwritten record before it
+     * Check group commit forces the journal fewer times than there were appends, sync commit at least once per append
+     */
+    @ParameterizedTest
+    @EnumSource(DurabilityMode.class)
+    public void testConcurrentAppends(DurabilityMode mode) throws Exception {
+        int threads = 16;
+        int appendsPerThread = 200;
+        Path directory = Files.createTempDirectory("journal");
+        UUID owner = UUID.randomUUID();
+
+        JournalCommitter journalCommitter = new JournalCommitter(
+            new Journal(directory, 1024 * Journal.RECORD_SIZE), mode, 1000, threads
+        );
+
+        List<Callable<Void>> tasks = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            tasks.add(() -> {
+                for (int j = 0; j < appendsPerThread; j++) {
+                    long sequence = journalCommitter.append(owner, entry(1));
+                    if (mode != DurabilityMode.ASYNC) assertTrue(journalCommitter.getJournal().getWrittenSequence() > sequence);
+                }
+
+                return null;
+            });
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        for (Future<Void> future : executorService.invokeAll(tasks)) future.get();
+        executorService.shutdown();
+        journalCommitter.close();
+
+        assertEquals(threads * appendsPerThread, journalCommitter.getAppends());
+        assertEquals(threads * appendsPerThread, new Journal(directory, 1024 * Journal.RECORD_SIZE).size());
+        if (mode == DurabilityMode.GROUP) assertTrue(journalCommitter.getForces() < threads * appendsPerThread);
+        if (mode == DurabilityMode.SYNC) assertTrue(journalCommitter.getForces() >= threads * appendsPerThread);
+        assertTrue(journalCommitter.getAverageLatencyNanos() <= journalCommitter.getMaxLatencyNanos());
+        assertTrue(journalCommitter.getRecordsPerSecond() > 0);
+        assertEquals(0, journalCommitter.getWrites());
+    }
+
+    /**
+     * A record with a lower sequence registered after a higher one has been forced still gets a force of its own:
+     * its bytes might have been copied after that force
+     */
+    @Test
+    public void testLateLowerSequenceIsForced() throws Exception {
+        UUID owner = UUID.randomUUID();
+        JournalCommitter journalCommitter = new JournalCommitter(
+            new Journal(Files.createTempDirectory("journal"), 1024 * Journal.RECORD_SIZE), DurabilityMode.GROUP, 0, 1
+        );
+
+        long lower = journalCommitter.write(owner, entry(1));
+        long higher = journalCommitter.write(owner, entry(1));
+
+        journalCommitter.commit(higher);
+        assertEquals(1, journalCommitter.getForces());
+
+        journalCommitter.commit(lower);
+        assertEquals(2, journalCommitter.getForces());
+
+        // written records are counted apart from appends, their latency is the one of the commits
+        assertEquals(0, journalCommitter.getAppends());
+        assertEquals(2, journalCommitter.getWrites());
+        assertEquals(2, journalCommitter.getCommits());
+        assertTrue(journalCommitter.getAverageCommitLatencyNanos() <= journalCommitter.getMaxCommitLatencyNanos());
+    }
+
+}
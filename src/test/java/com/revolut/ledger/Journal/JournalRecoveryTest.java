@@ -0,0 +1,73 @@
+package com.revolut.ledger.Journal;
+
+import com.revolut.ledger.BalanceSnapshot;
+import com.revolut.ledger.LedgerEntry;
+import com.revolut.ledger.PackedLedgerEntries;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JournalRecoveryTest {
+    /**
+     * Entries of many ledgers spread over many segments are recovered per ledger in the append order
+     * and are published only after every ledger has been replayed
+     */
+    @Test
+    public void testParallelRecovery() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        Journal journal = new Journal(directory, 16 * Journal.RECORD_SIZE);
+
+        List<UUID> ledgerIds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) ledgerIds.add(UUID.randomUUID());
+
+        Map<UUID, List<LedgerEntry>> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            UUID ledgerId = ledgerIds.get(i % 37 % ledgerIds.size());
+            LedgerEntry ledgerEntry = new LedgerEntry(
+                UUID.randomUUID(), UUID.randomUUID(), ledgerId, ledgerId, i,
+                LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.RECEIVING, i, ledgerId
+            );
+            journal.append(ledgerId, ledgerEntry);
+            expected.computeIfAbsent(ledgerId, id -> new ArrayList<>()).add(ledgerEntry);
+        }
+
+        Map<UUID, Long> balances = new ConcurrentHashMap<>();
+        Map<UUID, List<LedgerEntry>> published = new HashMap<>();
+
+        JournalRecovery journalRecovery = new JournalRecovery(journal, new ForkJoinPool(4), PackedLedgerEntries::new);
+        journalRecovery.recover(
+            (ledgerId, ledgerEntries) -> {
+                assertTrue(published.isEmpty());
+                balances.put(ledgerId, BalanceSnapshot.replay(ledgerEntries).getBalance().getReceiving());
+            },
+            published::putAll
+        );
+
+        assertEquals(expected.size(), published.size());
+        for (Map.Entry<UUID, List<LedgerEntry>> ledger : expected.entrySet()) {
+            List<LedgerEntry> recovered = published.get(ledger.getKey());
+            assertEquals(ledger.getValue().size(), recovered.size());
+
+            long receiving = 0;
+            for (int i = 0; i < recovered.size(); i++) {
+                assertEquals(ledger.getValue().get(i).getId(), recovered.get(i).getId());
+                receiving += recovered.get(i).getAmount();
+            }
+            assertEquals(receiving, (long) balances.get(ledger.getKey()));
+        }
+
+        assertEquals(1000, journalRecovery.getReport().getRecords());
+        assertEquals(expected.size(), journalRecovery.getReport().getLedgers());
+    }
+}
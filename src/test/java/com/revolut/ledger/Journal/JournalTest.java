@@ -0,0 +1,134 @@
+package com.revolut.ledger.Journal;
+
+import com.revolut.ledger.Journal.Exception.JournalException;
+import com.revolut.ledger.LedgerEntry;
+import org.junit.jupiter.api.Test;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static com.revolut.ledger.LedgerEntryFixtures.entry;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class JournalTest {
+    /**
+     * Records survive reopening the journal and span several segments
+     */
+    @Test
+    public void testReplayAfterReopen() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        UUID owner = UUID.randomUUID();
+        List<LedgerEntry> appended = new ArrayList<>();
+
+        Journal journal = new Journal(directory, 4 * Journal.RECORD_SIZE);
+        for (int i = 0; i < 10; i++) {
+            LedgerEntry ledgerEntry = entry(i);
+            appended.add(ledgerEntry);
+            assertEquals(i, journal.append(owner, ledgerEntry));
+        }
+
+        List<LedgerEntry> replayed = new ArrayList<>();
+        Journal reopened = new Journal(directory, 4 * Journal.RECORD_SIZE);
+        reopened.replay((ownerLedgerId, ledgerEntry) -> {
+            assertEquals(owner, ownerLedgerId);
+            replayed.add(ledgerEntry);
+        });
+
+        assertEquals(10, reopened.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(appended.get(i).getId(), replayed.get(i).getId());
+            assertEquals(appended.get(i).getGlobalId(), replayed.get(i).getGlobalId());
+            assertEquals(appended.get(i).getFromLedgerId(), replayed.get(i).getFromLedgerId());
+            assertEquals(appended.get(i).getToLedgerId(), replayed.get(i).getToLedgerId());
+            assertEquals(appended.get(i).getCreatedBy(), replayed.get(i).getCreatedBy());
+            assertEquals(appended.get(i).getAmount(), replayed.get(i).getAmount());
+            assertEquals(appended.get(i).getCreatedAt(), replayed.get(i).getCreatedAt());
+            assertEquals(appended.get(i).getType(), replayed.get(i).getType());
+            assertEquals(appended.get(i).getSubtype(), replayed.get(i).getSubtype());
+        }
+    }
+
+    /**
+     * A broken record ends the journal, everything after it is dropped and overwritten by new appends
+     */
+    @Test
+    public void testBrokenRecordTruncatesTail() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        UUID owner = UUID.randomUUID();
+
+        Journal journal = new Journal(directory, 4 * Journal.RECORD_SIZE);
+        for (int i = 0; i < 7; i++) journal.append(owner, entry(i));
+
+        // corrupt the amount of the 3rd record
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("0000000000.journal").toFile(), "rw")) {
+            file.seek(2 * Journal.RECORD_SIZE + 104);
+            file.writeLong(12345);
+        }
+
+        Journal reopened = new Journal(directory, 4 * Journal.RECORD_SIZE);
+        assertEquals(2, reopened.size());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+
+        reopened.append(owner, entry(100));
+        assertEquals(3, new Journal(directory, 4 * Journal.RECORD_SIZE).size());
+    }
+
+    /**
+     * An append which fails to create a segment takes no sequence, the next append fills the same slot
+     */
+    @Test
+    public void testFailedSegmentLeavesNoHole() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        UUID owner = UUID.randomUUID();
+
+        Journal journal = new Journal(directory, 4 * Journal.RECORD_SIZE);
+        for (int i = 0; i < 4; i++) journal.append(owner, entry(i));
+
+        // the next segment can not be created while there is a directory with its name
+        Path blocker = Files.createDirectory(directory.resolve("0000000001.journal"));
+        assertThrows(JournalException.class, () -> journal.append(owner, entry(4)));
+        assertEquals(4, journal.size());
+
+        Files.delete(blocker);
+        assertEquals(4, journal.append(owner, entry(5)));
+        assertEquals(5, new Journal(directory, 4 * Journal.RECORD_SIZE).size());
+    }
+
+    /**
+     * Entries written together get a contiguous range across segments, an aborted range is skipped on replay
+     */
+    @Test
+    public void testAbortedRangeIsSkipped() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        UUID owner = UUID.randomUUID();
+
+        Journal journal = new Journal(directory, 4 * Journal.RECORD_SIZE);
+        journal.append(owner, entry(0));
+        List<UUID> owners = new ArrayList<>();
+        List<LedgerEntry> batch = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            owners.add(owner);
+            batch.add(entry(i));
+        }
+        assertEquals(1, journal.append(owners, batch));
+        assertEquals(6, journal.abort(2, 4));
+        journal.append(owner, entry(7));
+        assertEquals(8, journal.getWrittenSequence());
+
+        Journal reopened = new Journal(directory, 4 * Journal.RECORD_SIZE);
+        assertEquals(8, reopened.size());
+
+        List<Long> amounts = new ArrayList<>();
+        reopened.replay((ownerLedgerId, ledgerEntry) -> amounts.add(ledgerEntry.getAmount()));
+        assertEquals(Arrays.asList(0L, 1L, 5L, 7L), amounts);
+    }
+}
@@ -0,0 +1,124 @@
+package com.revolut.ledger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.revolut.ledger.LedgerEntryFixtures.entry;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LedgerEntriesTest {
+    /**
+     * Balance stays the same after compactions, only open transactions are in-flight, history keeps everything
+     */
+    @Test
+    public void testCompaction() throws Exception {
+        UUID ledgerId = UUID.randomUUID();
+        Ledger ledger = new Ledger(null, ledgerId, UUID.randomUUID(), Ledger.Type.INTERNAL, new Balance(0, 0, 0));
+        LedgerEntries ledgerEntries = new LedgerEntries(PackedLedgerEntries::new);
+        List<LedgerEntry> appended = new ArrayList<>();
+
+        UUID initial = UUID.randomUUID();
+        appended.add(entry(ledgerId, initial, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.RECEIVING, 1000));
+        appended.add(entry(ledgerId, initial, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.ACTUAL, 1000));
+
+        UUID open = UUID.randomUUID();
+        appended.add(entry(ledgerId, open, LedgerEntry.Type.DEBIT, LedgerEntry.Subtype.OBLIGATION, 100));
+        for (LedgerEntry ledgerEntry : appended) ledgerEntries.append(ledgerEntry);
+
+        ledgerEntries.updateBalance(ledger);
+        assertEquals(900, ledger.getActualBalance());
+
+        assertEquals(0, ledgerEntries.compact(10));
+        assertEquals(3, ledgerEntries.compact(1));
+        assertEquals(0, ledgerEntries.getHotSize());
+        assertEquals(1, ledgerEntries.getInFlight().size());
+        assertEquals(open, ledgerEntries.getInFlight().get(0).getGlobalId());
+
+        UUID settled = UUID.randomUUID();
+        LedgerEntry[] more = {
+            entry(ledgerId, open, LedgerEntry.Type.DEBIT, LedgerEntry.Subtype.ACTUAL, 100),
+            entry(ledgerId, settled, LedgerEntry.Type.DEBIT, LedgerEntry.Subtype.OBLIGATION, 50),
+            entry(ledgerId, settled, LedgerEntry.Type.DEBIT, LedgerEntry.Subtype.CANCEL, 50)
+        };
+        for (LedgerEntry ledgerEntry : more) {
+            appended.add(ledgerEntry);
+            ledgerEntries.append(ledgerEntry);
+        }
+
+        ledgerEntries.updateBalance(ledger);
+        assertEquals(900, ledger.getActualBalance());
+        assertEquals(0, ledgerEntries.getInFlight().size());
+
+        // a fresh ledger starts from the checkpoint
+        assertEquals(3, ledgerEntries.compact(1));
+        Ledger reloaded = new Ledger(null, ledgerId, UUID.randomUUID(), Ledger.Type.INTERNAL, new Balance(0, 0, 0));
+        ledgerEntries.updateBalance(reloaded);
+        assertEquals(900, reloaded.getActualBalance());
+
+        List<LedgerEntry> history = ledgerEntries.getAll();
+        assertEquals(appended.size(), history.size());
+        for (int i = 0; i < appended.size(); i++) {
+            assertEquals(appended.get(i).getId(), history.get(i).getId());
+            assertEquals(appended.get(i).getId(), ledgerEntries.get(i).getId());
+        }
+        assertTrue(ledger.verifyBalance(history));
+    }
+
+    /**
+     * Concurrent credits with concurrent compactions: nothing is lost, the balance is right
+     */
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        int threads = 8;
+        int perThread = 5000;
+        UUID ledgerId = UUID.randomUUID();
+        Ledger ledger = new Ledger(null, ledgerId, UUID.randomUUID(), Ledger.Type.INTERNAL, new Balance(0, 0, 0));
+        LedgerEntries ledgerEntries = new LedgerEntries(PackedLedgerEntries::new);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        AtomicBoolean done = new AtomicBoolean();
+
+        Thread compactor = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    ledgerEntries.compact(100);
+                    ledgerEntries.updateBalance(ledger);
+                }
+            } catch (Exception exception) {
+                throw new IllegalStateException(exception);
+            }
+        });
+        compactor.start();
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    UUID globalId = UUID.randomUUID();
+                    ledgerEntries.append(entry(ledgerId, globalId, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.RECEIVING, 1));
+                    ledgerEntries.append(entry(ledgerId, globalId, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.ACTUAL, 1));
+                }
+                return null;
+            });
+        }
+
+        for (Future<Void> future : executorService.invokeAll(tasks)) future.get();
+        done.set(true);
+        compactor.join();
+        executorService.shutdown();
+
+        ledgerEntries.updateBalance(ledger);
+        assertEquals(threads * perThread, ledger.getActualBalance());
+        assertEquals(threads * perThread * 2, ledgerEntries.size());
+        assertEquals(0, ledgerEntries.getInFlight().size());
+        assertTrue(ledger.verifyBalance(ledgerEntries.getAll()));
+    }
+}
@@ -0,0 +1,54 @@
+package com.revolut.ledger;
+
+import java.util.UUID;
+
+/**
+ * Ledger entries for tests
+ */
+public final class LedgerEntryFixtures {
+    private LedgerEntryFixtures() {}
+
+    /**
+     * @param amount amount, createdAt is derived from it
+     *
+     * @return entry with every id random and different, so a mixed up field is noticed
+     */
+    public static LedgerEntry entry(long amount) {
+        return new LedgerEntry(
+            UUID.randomUUID(),
+            UUID.randomUUID(),
+            UUID.randomUUID(),
+            UUID.randomUUID(),
+            amount,
+            LedgerEntry.Type.DEBIT,
+            LedgerEntry.Subtype.OBLIGATION,
+            amount * 10,
+            UUID.randomUUID()
+        );
+    }
+
+    /**
+     * @param ledgerId ledger the entry belongs to
+     * @param type entry type
+     * @param subtype entry subtype
+     * @param amount amount
+     *
+     * @return entry of a new transaction
+     */
+    public static LedgerEntry entry(UUID ledgerId, LedgerEntry.Type type, LedgerEntry.Subtype subtype, long amount) {
+        return entry(ledgerId, UUID.randomUUID(), type, subtype, amount);
+    }
+
+    /**
+     * @param ledgerId ledger the entry belongs to
+     * @param globalId transaction the entry belongs to
+     * @param type entry type
+     * @param subtype entry subtype
+     * @param amount amount
+     *
+     * @return entry of the transaction
+     */
+    public static LedgerEntry entry(UUID ledgerId, UUID globalId, LedgerEntry.Type type, LedgerEntry.Subtype subtype, long amount) {
+        return new LedgerEntry(UUID.randomUUID(), globalId, ledgerId, ledgerId, amount, type, subtype, 0, ledgerId);
+    }
+}
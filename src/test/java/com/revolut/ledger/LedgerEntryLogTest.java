@@ -0,0 +1,100 @@
+package com.revolut.ledger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.revolut.ledger.LedgerEntryFixtures.entry;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LedgerEntryLogTest {
+    /**
+     * Concurrent writers: no lost entries, readers always see a gap-free prefix
+     */
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        int threads = 8;
+        int perThread = 20000;
+        LedgerEntryLog log = new LedgerEntryLog();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads + 1);
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                for (int i = 0; i < perThread; i++) log.append(entry(i));
+                return null;
+            });
+        }
+
+        Future<?> reader = executorService.submit(() -> {
+            while (log.size() < threads * perThread) {
+                List<LedgerEntry> snapshot = log.snapshot(0);
+                for (LedgerEntry ledgerEntry : snapshot) assertNotNull(ledgerEntry);
+            }
+            return null;
+        });
+
+        for (Future<Void> future : executorService.invokeAll(tasks)) future.get();
+        reader.get();
+        executorService.shutdown();
+
+        assertEquals(threads * perThread, log.size());
+
+        Set<UUID> ids = new HashSet<>();
+        for (int i = 0; i < log.size(); i++) ids.add(log.get(i).getId());
+        assertEquals(threads * perThread, ids.size());
+    }
+
+    /**
+     * Released entries can not be read, already taken snapshots still can
+     */
+    @Test
+    public void testRelease() {
+        LedgerEntryLog log = new LedgerEntryLog();
+        for (int i = 0; i < LedgerEntryLog.CHUNK_SIZE * 3; i++) log.append(entry(i));
+
+        List<LedgerEntry> snapshot = log.snapshot(10);
+        log.release(LedgerEntryLog.CHUNK_SIZE * 2 + 5);
+
+        assertThrows(IllegalStateException.class, () -> log.get(0));
+        assertEquals(LedgerEntryLog.CHUNK_SIZE * 2, log.get(LedgerEntryLog.CHUNK_SIZE * 2).getAmount());
+        assertEquals(10, snapshot.get(0).getAmount());
+        assertEquals(LedgerEntryLog.CHUNK_SIZE * 3 - 10, snapshot.size());
+
+        log.append(entry(-1));
+        assertEquals(LedgerEntryLog.CHUNK_SIZE * 3 + 1, log.size());
+        assertEquals(LedgerEntryLog.CHUNK_SIZE * 3 - 10, snapshot.size());
+    }
+
+    /**
+     * A writer stalled between claiming and publishing holds the readers back, but not the other writers
+     */
+    @Test
+    public void testStalledWriter() {
+        LedgerEntryLog log = new LedgerEntryLog();
+        log.append(entry(0));
+
+        int stalled = log.claim();
+        for (int i = 2; i < LedgerEntryLog.CHUNK_SIZE + 2; i++) assertEquals(i, log.append(entry(i)));
+
+        assertEquals(1, log.size());
+        assertEquals(1, log.snapshot(0).size());
+        assertEquals(LedgerEntryLog.CHUNK_SIZE + 1, log.get(LedgerEntryLog.CHUNK_SIZE + 1).getAmount());
+        assertThrows(IndexOutOfBoundsException.class, () -> log.get(stalled));
+
+        log.publish(stalled, entry(1));
+        assertEquals(LedgerEntryLog.CHUNK_SIZE + 2, log.size());
+        List<LedgerEntry> snapshot = log.snapshot(0);
+        for (int i = 0; i < snapshot.size(); i++) assertEquals(i, snapshot.get(i).getAmount());
+    }
+}
@@ -0,0 +1,41 @@
+package com.revolut.ledger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.revolut.ledger.LedgerEntryFixtures.entry;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LedgerTest {
+    /**
+     * Balance is built incrementally while entries are being appended and matches the full replay
+     */
+    @Test
+    public void testIncrementalBalanceMatchesFullReplay() throws Exception {
+        UUID ledgerId = UUID.randomUUID();
+        Ledger ledger = new Ledger(null, ledgerId, UUID.randomUUID(), Ledger.Type.INTERNAL, new Balance(0, 0, 0));
+        List<LedgerEntry> ledgerEntries = new ArrayList<>();
+
+        ledgerEntries.add(entry(ledgerId, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.RECEIVING, 100));
+        ledgerEntries.add(entry(ledgerId, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.ACTUAL, 100));
+        ledger.updateBalance(ledgerEntries);
+        assertEquals(100, ledger.getActualBalance());
+
+        ledgerEntries.add(entry(ledgerId, LedgerEntry.Type.DEBIT, LedgerEntry.Subtype.OBLIGATION, 30));
+        ledgerEntries.add(entry(ledgerId, LedgerEntry.Type.DEBIT, LedgerEntry.Subtype.ACTUAL, 30));
+        ledgerEntries.add(entry(ledgerId, LedgerEntry.Type.DEBIT, LedgerEntry.Subtype.OBLIGATION, 20));
+        ledger.updateBalance(ledgerEntries);
+        assertEquals(50, ledger.getActualBalance());
+
+        ledgerEntries.add(entry(ledgerId, LedgerEntry.Type.DEBIT, LedgerEntry.Subtype.CANCEL, 20));
+        ledger.updateBalance(ledgerEntries);
+        assertEquals(70, ledger.getActualBalance());
+
+        assertTrue(ledger.verifyBalance(ledgerEntries));
+        assertEquals(BalanceSnapshot.replay(ledgerEntries).getBalance(), new Balance(70, 0, 0));
+    }
+}
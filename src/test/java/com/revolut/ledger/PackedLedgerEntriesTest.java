@@ -0,0 +1,85 @@
+package com.revolut.ledger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PackedLedgerEntriesTest {
+    /**
+     * Entries read through the flyweight and materialized entries are the same as the appended ones,
+     * also across chunk boundaries
+     */
+    @Test
+    public void testEntriesAreReadBack() {
+        PackedLedgerEntries packedLedgerEntries = new PackedLedgerEntries();
+        List<LedgerEntry> ledgerEntries = new ArrayList<>();
+
+        for (int i = 0; i < PackedLedgerEntries.CHUNK_SIZE * 2 + 3; i++) {
+            LedgerEntry ledgerEntry = new LedgerEntry(
+                UUID.randomUUID(),
+                UUID.randomUUID(),
+                UUID.randomUUID(),
+                UUID.randomUUID(),
+                i,
+                LedgerEntry.Type.values()[i % LedgerEntry.Type.values().length],
+                LedgerEntry.Subtype.values()[i % LedgerEntry.Subtype.values().length],
+                1000 + i,
+                UUID.randomUUID()
+            );
+            ledgerEntries.add(ledgerEntry);
+            packedLedgerEntries.add(ledgerEntry);
+        }
+
+        assertEquals(ledgerEntries.size(), packedLedgerEntries.size());
+
+        LedgerEntryView view = new LedgerEntryView();
+        for (int i = 0; i < ledgerEntries.size(); i++) {
+            LedgerEntry expected = ledgerEntries.get(i);
+            packedLedgerEntries.view(i, view);
+
+            assertEquals(expected.getId(), view.getId());
+            assertEquals(expected.getGlobalId(), view.getGlobalId());
+            assertEquals(expected.getGlobalId().getMostSignificantBits(), view.getGlobalIdMostSignificantBits());
+            assertEquals(expected.getGlobalId().getLeastSignificantBits(), view.getGlobalIdLeastSignificantBits());
+            assertEquals(expected.getFromLedgerId(), view.getFromLedgerId());
+            assertEquals(expected.getToLedgerId(), view.getToLedgerId());
+            assertEquals(expected.getCreatedBy(), view.getCreatedBy());
+            assertEquals(expected.getAmount(), view.getAmount());
+            assertEquals(expected.getCreatedAt(), view.getCreatedAt());
+            assertEquals(expected.getType(), view.getType());
+            assertEquals(expected.getSubtype(), view.getSubtype());
+
+            assertEquals(expected.getId(), packedLedgerEntries.get(i).getId());
+        }
+    }
+
+    /**
+     * Balance built over packed entries is the same as over entry objects
+     */
+    @Test
+    public void testBalanceOverPackedEntries() throws Exception {
+        UUID ledgerId = UUID.randomUUID();
+        PackedLedgerEntries packedLedgerEntries = new PackedLedgerEntries();
+        List<LedgerEntry> ledgerEntries = new ArrayList<>();
+
+        LedgerEntry.Subtype[] debitSubtypes = {LedgerEntry.Subtype.OBLIGATION, LedgerEntry.Subtype.ACTUAL};
+        LedgerEntry.Subtype[] creditSubtypes = {LedgerEntry.Subtype.RECEIVING, LedgerEntry.Subtype.ACTUAL};
+        for (int i = 0; i < 100; i++) {
+            boolean debit = (i % 4) >= 2;
+            LedgerEntry ledgerEntry = new LedgerEntry(
+                UUID.randomUUID(), UUID.randomUUID(), ledgerId, ledgerId, i,
+                debit ? LedgerEntry.Type.DEBIT : LedgerEntry.Type.CREDIT,
+                debit ? debitSubtypes[i % 2] : creditSubtypes[i % 2],
+                0, ledgerId
+            );
+            ledgerEntries.add(ledgerEntry);
+            packedLedgerEntries.add(ledgerEntry);
+        }
+
+        assertEquals(BalanceSnapshot.replay(ledgerEntries).getBalance(), BalanceSnapshot.replay(packedLedgerEntries).getBalance());
+    }
+}
@@ -0,0 +1,285 @@
+package com.revolut.lock.Remote;
+
+import com.revolut.lock.Exception.ExpiredLockException;
+import com.revolut.lock.Exception.LockServerException;
+import com.revolut.lock.Exception.LostLockException;
+import com.revolut.lock.Lock;
+import com.revolut.transfer.LocalLockService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RemoteLockServiceTest {
+    private LockServer lockServer;
+
+    private RemoteLockService first;
+
+    private RemoteLockService second;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        lockServer = new LockServer(new LocalLockService(Clock.systemUTC()), NOPLogger.NOP_LOGGER);
+        lockServer.start(0);
+
+        first = new RemoteLockService("localhost", lockServer.getPort(), 2, 1000);
+        second = new RemoteLockService("localhost", lockServer.getPort(), 2, 1000);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        first.stop();
+        second.stop();
+        lockServer.stop();
+    }
+
+    /**
+     * Clients share the locks: waiting, handoff, fencing tokens, renewal and errors go over the wire
+     */
+    @Test
+    public void testSharedBetweenClients() throws Exception {
+        UUID id = UUID.randomUUID();
+
+        Lock holder = first.create(id);
+        assertTrue(holder.tryLock(0, 10000));
+        assertTrue(holder.getFencingToken() > 0);
+        assertFalse(second.create(id).tryLock(50, 10000));
+
+        Lock waiter = second.create(id);
+        CompletableFuture<Boolean> acquired = waiter.lockAsync(5000, 100);
+        holder.renew(10000);
+        holder.tryUnlock(false);
+
+        assertTrue(acquired.get(1, TimeUnit.SECONDS));
+        assertTrue(waiter.getFencingToken() > holder.getFencingToken());
+
+        Thread.sleep(150);
+        assertThrows(ExpiredLockException.class, () -> waiter.renew(100));
+
+        Lock successor = first.create(id);
+        assertTrue(successor.tryLock(0, 10000));
+        assertThrows(LostLockException.class, () -> waiter.tryUnlock(false));
+        successor.tryUnlock(false);
+    }
+
+    /**
+     * Many threads of two clients on a few locks: mutual exclusion, requests are batched
+     */
+    @Test
+    public void testContention() throws Exception {
+        int threads = 16;
+        int rounds = 100;
+        UUID[] ids = {UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()};
+        AtomicInteger[] inside = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            RemoteLockService lockService = (t % 2 == 0) ? first : second;
+            int lockNumber = t % ids.length;
+
+            futures.add(executorService.submit(() -> {
+                start.await();
+                for (int i = 0; i < rounds; i++) {
+                    Lock lock = lockService.create(ids[lockNumber]);
+                    assertTrue(lock.tryLock(10000, 10000));
+                    assertEquals(1, inside[lockNumber].incrementAndGet());
+                    acquired.incrementAndGet();
+                    inside[lockNumber].decrementAndGet();
+                    lock.tryUnlock(false);
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<Void> future : futures) future.get();
+        executorService.shutdown();
+
+        assertEquals(threads * rounds, acquired.get());
+        assertEquals(threads * rounds * 2, first.getRequests() + second.getRequests());
+        assertTrue(first.getFlushes() + second.getFlushes() < first.getRequests() + second.getRequests());
+    }
+
+    /**
+     * All the locks are taken with a single request, or none of them
+     */
+    @Test
+    public void testTryLockAll() throws Exception {
+        UUID[] ids = {UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()};
+
+        List<Lock> locks = Arrays.asList(first.create(ids[2]), first.create(ids[0]), first.create(ids[1]));
+        long requests = first.getRequests();
+        assertTrue(first.tryLockAll(locks, 1000, 10000));
+        assertEquals(requests + 1, first.getRequests());
+        for (Lock lock : locks) assertTrue(lock.getFencingToken() > 0);
+
+        // one of them is busy: none is taken
+        for (Lock lock : locks) lock.tryUnlock(false);
+        Lock holder = second.create(ids[2]);
+        assertTrue(holder.tryLock(0, 10000));
+        List<Lock> others = Arrays.asList(second.create(ids[0]), second.create(ids[1]), second.create(ids[2]));
+        assertFalse(second.tryLockAll(others, 50, 10000));
+        for (Lock lock : others) assertFalse(lock.getIsLocked());
+        Lock free = first.create(ids[0]);
+        assertTrue(free.tryLock(0, 10000));
+        free.tryUnlock(false);
+
+        // overlapping sets of two clients are taken in the same order and do not deadlock
+        holder.tryUnlock(false);
+        Lock busy = first.create(ids[0]);
+        assertTrue(busy.tryLock(5000, 10000));
+        CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return second.tryLockAll(Arrays.asList(second.create(ids[1]), second.create(ids[0])), 5000, 10000);
+            } catch (Exception exception) {
+                throw new RuntimeException(exception);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(waiting.isDone());
+        busy.tryUnlock(false);
+        assertTrue(waiting.get(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * A frame which can not be decoded is answered with ERROR, a client which breaks the protocol is disconnected
+     */
+    @Test
+    public void testMalformedFrames() throws Exception {
+        // the connections of both clients are accepted in the background
+        long deadline = System.currentTimeMillis() + 1000;
+        while ((lockServer.getConnections() < 4) && (System.currentTimeMillis() < deadline)) Thread.sleep(10);
+        int connections = lockServer.getConnections();
+
+        try (Socket socket = new Socket("localhost", lockServer.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            ByteBuffer frame = ByteBuffer.allocate(LockProtocol.REQUEST_SIZE);
+
+            // unknown mode
+            new LockProtocol.Request(7, LockProtocol.TRY_LOCK, first.create(UUID.randomUUID()), false, 0, 100).write(frame);
+            frame.put(5, (byte) 42);
+            out.write(frame.array());
+            out.flush();
+
+            byte[] response = new byte[LockProtocol.RESPONSE_SIZE];
+            in.readFully(response);
+            LockProtocol.Response error = LockProtocol.Response.read(ByteBuffer.wrap(response));
+            assertEquals(7, error.id);
+            assertEquals(LockProtocol.ERROR, error.status);
+
+            // the connection is still served
+            frame.clear();
+            new LockProtocol.Request(8, LockProtocol.TRY_LOCK, first.create(UUID.randomUUID()), false, 0, 100).write(frame);
+            out.write(frame.array());
+            out.flush();
+            in.readFully(response);
+            assertEquals(LockProtocol.OK, LockProtocol.Response.read(ByteBuffer.wrap(response)).status);
+
+            // a TRY_LOCK_ALL request which never ends
+            Lock lock = first.create(UUID.randomUUID());
+            for (int i = 0; i <= LockProtocol.MAX_LOCKS; i++) {
+                frame.clear();
+                new LockProtocol.Request(9, lock, true, 0, 100).write(frame);
+                out.write(frame.array());
+            }
+            out.flush();
+
+            assertEquals(-1, in.read());
+        }
+
+        assertEquals(connections, lockServer.getConnections());
+    }
+
+    /**
+     * A lock the server grants after the client has given up is released, a lockAsync() call times out too
+     */
+    @Test
+    public void testLateGrantIsReleased() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            RemoteLockService client = new RemoteLockService("localhost", serverSocket.getLocalPort(), 1, 50);
+
+            try (Socket socket = serverSocket.accept()) {
+                OutputStream out = socket.getOutputStream();
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                byte[] frame = new byte[LockProtocol.REQUEST_SIZE];
+
+                Lock lock = client.create(UUID.randomUUID());
+                CompletableFuture<Boolean> acquired = lock.lockAsync(0, 1000);
+                in.readFully(frame);
+                LockProtocol.Request request = LockProtocol.Request.read(ByteBuffer.wrap(frame));
+
+                ExecutionException exception = assertThrows(ExecutionException.class, () -> acquired.get(1, TimeUnit.SECONDS));
+                assertTrue(exception.getCause() instanceof LockServerException);
+
+                // granted too late
+                ByteBuffer response = ByteBuffer.allocate(LockProtocol.RESPONSE_SIZE);
+                new LockProtocol.Response(request.id, LockProtocol.OK, 42).write(response);
+                out.write(response.array());
+                out.flush();
+
+                in.readFully(frame);
+                LockProtocol.Request unlock = LockProtocol.Request.read(ByteBuffer.wrap(frame));
+                assertEquals(LockProtocol.TRY_UNLOCK, unlock.operation);
+                assertEquals(lock.getId(), unlock.lockId);
+                assertEquals(lock.getOwnerId(), unlock.ownerId);
+                assertTrue(unlock.allowLost);
+                assertFalse(lock.getIsLocked());
+            } finally {
+                client.stop();
+            }
+        }
+    }
+
+    /**
+     * A connection which has been closed is opened again by the next call
+     */
+    @Test
+    public void testReconnect() throws Exception {
+        RemoteLockService client = new RemoteLockService("localhost", lockServer.getPort(), 1, 1000);
+
+        try {
+            Lock lock = client.create(UUID.randomUUID());
+            assertTrue(lock.tryLock(0, 1000));
+
+            int port = lockServer.getPort();
+            lockServer.stop();
+            assertThrows(LockServerException.class, () -> client.create(UUID.randomUUID()).tryLock(0, 1000));
+
+            lockServer = new LockServer(new LocalLockService(Clock.systemUTC()), NOPLogger.NOP_LOGGER);
+            lockServer.start(port);
+            Lock restarted = client.create(lock.getId());
+            assertTrue(restarted.tryLock(0, 1000));
+            assertTrue(restarted.getFencingToken() > lock.getFencingToken());
+        } finally {
+            client.stop();
+        }
+    }
+}
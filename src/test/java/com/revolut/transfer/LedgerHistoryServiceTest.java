@@ -0,0 +1,78 @@
+package com.revolut.transfer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.revolut.ledger.LedgerEntry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LedgerHistoryServiceTest {
+    private static JsonObject page(UUID ledgerId, List<LedgerEntry> ledgerEntries, int from, int limit) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        LedgerHistoryService.write(ledgerId, ledgerEntries, from, limit, outputStream);
+
+        return new JsonParser().parse(new String(outputStream.toByteArray(), StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    /**
+     * All the entries are returned exactly once following the cursors
+     */
+    @Test
+    public void testPagination() throws Exception {
+        UUID ledgerId = UUID.randomUUID();
+        List<LedgerEntry> ledgerEntries = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            ledgerEntries.add(new LedgerEntry(
+                UUID.randomUUID(), UUID.randomUUID(), ledgerId, ledgerId, i, LedgerEntry.Type.DEBIT, LedgerEntry.Subtype.OBLIGATION, i, ledgerId
+            ));
+        }
+
+        int from = 0;
+        int read = 0;
+        int pages = 0;
+
+        while (true) {
+            JsonObject response = page(ledgerId, ledgerEntries, from, 10);
+            assertEquals("NO_ERROR", response.get("responseCode").getAsString());
+
+            JsonArray entries = response.getAsJsonObject("data").getAsJsonArray("entries");
+            for (int i = 0; i < entries.size(); i++) {
+                JsonObject entry = entries.get(i).getAsJsonObject();
+                assertEquals(ledgerEntries.get(read).getId().toString(), entry.get("id").getAsString());
+                assertEquals(read, entry.get("amount").getAsLong());
+                assertEquals("OBLIGATION", entry.get("subtype").getAsString());
+                read++;
+            }
+            pages++;
+
+            if (response.getAsJsonObject("data").get("next").isJsonNull()) break;
+            from = LedgerHistoryService.decodeCursor(ledgerId, response.getAsJsonObject("data").get("next").getAsString());
+        }
+
+        assertEquals(25, read);
+        assertEquals(3, pages);
+    }
+
+    /**
+     * Cursors are checked against the ledger
+     */
+    @Test
+    public void testCursor() throws Exception {
+        UUID ledgerId = UUID.randomUUID();
+        String cursor = LedgerHistoryService.encodeCursor(ledgerId, 42);
+
+        assertEquals(42, LedgerHistoryService.decodeCursor(ledgerId, cursor));
+        assertEquals(-1, LedgerHistoryService.decodeCursor(UUID.randomUUID(), cursor));
+        assertEquals(-1, LedgerHistoryService.decodeCursor(ledgerId, "%%%"));
+        assertEquals(-1, LedgerHistoryService.decodeCursor(ledgerId, "abcd"));
+        assertEquals(0, page(ledgerId, new ArrayList<>(), 0, 10).getAsJsonObject("data").getAsJsonArray("entries").size());
+    }
+}
@@ -0,0 +1,303 @@
+package com.revolut.transfer;
+
+import com.revolut.ledger.Exception.StaleFencingTokenException;
+import com.revolut.ledger.Exception.TransactionNotInFlightException;
+import com.revolut.ledger.Journal.DurabilityMode;
+import com.revolut.ledger.Journal.Journal;
+import com.revolut.ledger.Journal.JournalCommitter;
+import com.revolut.ledger.Ledger;
+import com.revolut.ledger.LedgerEntry;
+import com.revolut.ledger.LedgerService;
+import com.revolut.ledger.Transaction.CreditTransaction;
+import com.revolut.ledger.Transaction.DebitTransaction;
+import com.revolut.ledger.Transaction.TransactionState;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LocalLedgerServiceTest {
+    private static final UUID JOHN = UUID.fromString("326608e5-5fbf-4505-871d-d0ec830e1994");
+    private static final UUID SMITH = UUID.fromString("5ab59fdf-997f-4a20-ab33-67272b840a19");
+
+    private static JournalCommitter journalCommitter(Path directory) throws Exception {
+        return new JournalCommitter(new Journal(directory, 1024 * Journal.RECORD_SIZE), DurabilityMode.SYNC, 0, 1);
+    }
+
+    private static List<UUID> ids(List<LedgerEntry> ledgerEntries) {
+        return ledgerEntries.stream().map(LedgerEntry::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * Balances are rebuilt from the journal after a restart
+     */
+    @Test
+    public void testBalancesSurviveRestart() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC(), journalCommitter(directory));
+        Ledger from = localLedgerService.getByAccountId(JOHN);
+        Ledger to = localLedgerService.getByAccountId(SMITH);
+
+        DebitTransaction debitTransaction = from.createDebitTransaction(JOHN, to, 100);
+        CreditTransaction creditTransaction = to.createCreditTransaction(JOHN, from, 100, debitTransaction.getId());
+        to.completeTransaction(creditTransaction);
+        from.completeTransaction(debitTransaction);
+
+        LocalLedgerService restarted = new LocalLedgerService(Clock.systemUTC(), journalCommitter(directory), true);
+
+        assertEquals(900, restarted.getByAccountId(JOHN).getActualBalance());
+        assertEquals(600, restarted.getByAccountId(SMITH).getActualBalance());
+        assertTrue(restarted.verifyBalance(JOHN));
+        assertEquals(10, restarted.getRecoveryReport().getRecords());
+        assertEquals(TransactionState.COMPLETED, restarted.getTransactionState(debitTransaction.getId()));
+    }
+
+    /**
+     * Entries and state of a transaction are found by its global id across both ledgers
+     */
+    @Test
+    public void testLookupByGlobalId() throws Exception {
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC());
+        Ledger from = localLedgerService.getByAccountId(JOHN);
+        Ledger to = localLedgerService.getByAccountId(SMITH);
+
+        assertEquals(TransactionState.UNKNOWN, localLedgerService.getTransactionState(UUID.randomUUID()));
+        assertTrue(localLedgerService.getByGlobalId(UUID.randomUUID()).isEmpty());
+
+        DebitTransaction debitTransaction = from.createDebitTransaction(JOHN, to, 100);
+        CreditTransaction creditTransaction = to.createCreditTransaction(JOHN, from, 100, debitTransaction.getId());
+        UUID globalId = debitTransaction.getId();
+        assertEquals(TransactionState.IN_FLIGHT, localLedgerService.getTransactionState(globalId));
+
+        localLedgerService.compact(1);
+        to.completeTransaction(creditTransaction);
+        assertEquals(TransactionState.IN_FLIGHT, localLedgerService.getTransactionState(globalId));
+        from.completeTransaction(debitTransaction);
+        assertEquals(TransactionState.COMPLETED, localLedgerService.getTransactionState(globalId));
+
+        List<LedgerEntry> ledgerEntries = localLedgerService.getByGlobalId(globalId);
+        assertEquals(4, ledgerEntries.size());
+        for (LedgerEntry ledgerEntry : ledgerEntries) assertEquals(globalId, ledgerEntry.getGlobalId());
+
+        DebitTransaction cancelled = from.createDebitTransaction(JOHN, to, 10);
+        from.cancelTransaction(cancelled);
+        assertEquals(TransactionState.CANCELLED, localLedgerService.getTransactionState(cancelled.getId()));
+    }
+
+    /**
+     * Writes with a fencing token lower than the latest one seen by the ledger are rejected
+     */
+    @Test
+    public void testStaleFencingToken() throws Exception {
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC());
+        Ledger from = localLedgerService.getByAccountId(JOHN);
+        Ledger to = localLedgerService.getByAccountId(SMITH);
+
+        DebitTransaction stale = from.createDebitTransaction(JOHN, to, 10, 5);
+        DebitTransaction current = from.createDebitTransaction(JOHN, to, 20, 7);
+        int entries = localLedgerService.getEntries(from.getId()).size();
+
+        assertThrows(StaleFencingTokenException.class, () -> from.completeTransaction(stale, 5));
+        assertThrows(StaleFencingTokenException.class, () -> from.createDebitTransaction(JOHN, to, 30, 6));
+        assertEquals(entries, localLedgerService.getEntries(from.getId()).size());
+
+        from.completeTransaction(current, 7);
+        from.cancelTransaction(stale);
+        assertEquals(980, from.getActualBalance());
+        assertTrue(localLedgerService.verifyBalance(JOHN));
+    }
+
+    /**
+     * Entries of a batch are forced once, and seen by other threads only after the batch has ended
+     */
+    @Test
+    public void testBatch() throws Exception {
+        JournalCommitter journalCommitter = journalCommitter(Files.createTempDirectory("journal"));
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC(), journalCommitter);
+        long forces = journalCommitter.getForces();
+
+        localLedgerService.beginBatch();
+        localLedgerService.beginBatch();
+        Ledger from = localLedgerService.getByAccountId(JOHN);
+        Ledger to = localLedgerService.getByAccountId(SMITH);
+        DebitTransaction debitTransaction = from.createDebitTransaction(JOHN, to, 100);
+        CreditTransaction creditTransaction = to.createCreditTransaction(JOHN, from, 100, debitTransaction.getId());
+        localLedgerService.endBatch();
+
+        to.completeTransaction(creditTransaction);
+        from.completeTransaction(debitTransaction);
+        assertEquals(forces, journalCommitter.getForces());
+
+        // the thread of the batch sees its own entries, the others do not
+        assertEquals(900, localLedgerService.getByAccountId(JOHN).getActualBalance());
+        assertEquals(TransactionState.COMPLETED, localLedgerService.getTransactionState(debitTransaction.getId()));
+        assertEquals(4, localLedgerService.getByGlobalId(debitTransaction.getId()).size());
+        CompletableFuture.runAsync(() -> {
+            try {
+                assertEquals(1000, localLedgerService.getByAccountId(JOHN).getActualBalance());
+                assertEquals(TransactionState.UNKNOWN, localLedgerService.getTransactionState(debitTransaction.getId()));
+            } catch (Exception exception) {
+                throw new RuntimeException(exception);
+            }
+        }).get();
+
+        localLedgerService.endBatch();
+        assertEquals(forces + 1, journalCommitter.getForces());
+        assertThrows(IllegalStateException.class, localLedgerService::endBatch);
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                assertEquals(900, localLedgerService.getByAccountId(JOHN).getActualBalance());
+                assertEquals(TransactionState.COMPLETED, localLedgerService.getTransactionState(debitTransaction.getId()));
+            } catch (Exception exception) {
+                throw new RuntimeException(exception);
+            }
+        }).get();
+        assertTrue(localLedgerService.verifyBalance(JOHN));
+    }
+
+    /**
+     * A batch which fails to be made durable drops all its entries, they do not come back after a restart either
+     */
+    @Test
+    public void testFailedBatchIsDropped() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        AtomicBoolean isBroken = new AtomicBoolean();
+        JournalCommitter journalCommitter = new JournalCommitter(
+            new Journal(directory, 1024 * Journal.RECORD_SIZE), DurabilityMode.SYNC, 0, 1
+        ) {
+            @Override
+            public void commit(long fromSequence, long toSequence) {
+                if (isBroken.get()) throw new UncheckedIOException(new IOException("Disk is gone"));
+                super.commit(fromSequence, toSequence);
+            }
+        };
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC(), journalCommitter);
+
+        localLedgerService.beginBatch();
+        Ledger from = localLedgerService.getByAccountId(JOHN);
+        DebitTransaction debitTransaction = from.createDebitTransaction(JOHN, localLedgerService.getByAccountId(SMITH), 100);
+        from.completeTransaction(debitTransaction);
+
+        isBroken.set(true);
+        assertThrows(UncheckedIOException.class, localLedgerService::endBatch);
+
+        assertEquals(1000, localLedgerService.getByAccountId(JOHN).getActualBalance());
+        assertEquals(TransactionState.UNKNOWN, localLedgerService.getTransactionState(debitTransaction.getId()));
+        assertTrue(localLedgerService.verifyBalance(JOHN));
+
+        LocalLedgerService restarted = new LocalLedgerService(Clock.systemUTC(), journalCommitter(directory));
+        assertEquals(1000, restarted.getByAccountId(JOHN).getActualBalance());
+        assertEquals(TransactionState.UNKNOWN, restarted.getTransactionState(debitTransaction.getId()));
+    }
+
+    /**
+     * A batch is checked again when it ends: if an entry no longer fits its transaction or its fencing token has become
+     * stale, nothing is stored. A stored batch keeps its order after a restart
+     */
+    @Test
+    public void testBatchIsCheckedAtEnd() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        JournalCommitter journalCommitter = journalCommitter(directory);
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC(), journalCommitter);
+        Ledger from = localLedgerService.getByAccountId(JOHN);
+        Ledger to = localLedgerService.getByAccountId(SMITH);
+        DebitTransaction debitTransaction = from.createDebitTransaction(JOHN, to, 100, 5);
+        long size = journalCommitter.getJournal().size();
+
+        // resolved the other way by another thread meanwhile
+        localLedgerService.beginBatch();
+        from.cancelTransaction(debitTransaction, 5);
+        CompletableFuture.runAsync(() -> {
+            try {
+                from.completeTransaction(debitTransaction, 5);
+            } catch (Exception exception) {
+                throw new RuntimeException(exception);
+            }
+        }).get();
+        assertThrows(TransactionNotInFlightException.class, localLedgerService::endBatch);
+        assertEquals(size + 1, journalCommitter.getJournal().size());
+        assertEquals(TransactionState.COMPLETED, localLedgerService.getTransactionState(debitTransaction.getId()));
+
+        // the lock has been taken over meanwhile
+        localLedgerService.beginBatch();
+        from.createDebitTransaction(JOHN, to, 10, 5);
+        CompletableFuture.runAsync(() -> {
+            try {
+                from.createDebitTransaction(JOHN, to, 20, 7);
+            } catch (Exception exception) {
+                throw new RuntimeException(exception);
+            }
+        }).get();
+        assertThrows(StaleFencingTokenException.class, localLedgerService::endBatch);
+        assertEquals(size + 2, journalCommitter.getJournal().size());
+        assertEquals(880, localLedgerService.getByAccountId(JOHN).getActualBalance());
+
+        localLedgerService.beginBatch();
+        DebitTransaction batched = from.createDebitTransaction(JOHN, to, 30, 7);
+        CreditTransaction creditTransaction = to.createCreditTransaction(JOHN, from, 30, batched.getId());
+        to.completeTransaction(creditTransaction);
+        from.completeTransaction(batched, 7);
+        localLedgerService.endBatch();
+
+        List<LedgerEntry> johnEntries = localLedgerService.getEntries(from.getId());
+        List<LedgerEntry> smithEntries = localLedgerService.getEntries(to.getId());
+        LocalLedgerService restarted = new LocalLedgerService(Clock.systemUTC(), journalCommitter(directory));
+        assertEquals(ids(johnEntries), ids(restarted.getEntries(from.getId())));
+        assertEquals(ids(smithEntries), ids(restarted.getEntries(to.getId())));
+        assertEquals(850, restarted.getByAccountId(JOHN).getActualBalance());
+    }
+
+    /**
+     * A transaction is completed or cancelled once per ledger and the same way in every ledger, a resolved transaction
+     * does not get new sides
+     */
+    @Test
+    public void testResolutionIsStateChecked() throws Exception {
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC());
+        Ledger from = localLedgerService.getByAccountId(JOHN);
+        Ledger to = localLedgerService.getByAccountId(SMITH);
+
+        DebitTransaction debitTransaction = from.createDebitTransaction(JOHN, to, 100);
+        CreditTransaction creditTransaction = to.createCreditTransaction(JOHN, from, 100, debitTransaction.getId());
+
+        from.cancelTransaction(debitTransaction);
+        assertThrows(TransactionNotInFlightException.class, () -> from.cancelTransaction(debitTransaction));
+        assertThrows(TransactionNotInFlightException.class, () -> to.completeTransaction(creditTransaction));
+        assertThrows(
+            TransactionNotInFlightException.class,
+            () -> to.createCreditTransaction(JOHN, from, 100, debitTransaction.getId())
+        );
+
+        to.cancelTransaction(creditTransaction);
+        assertEquals(TransactionState.CANCELLED, localLedgerService.getTransactionState(debitTransaction.getId()));
+
+        // a side which has never been initiated in the ledger can not be resolved there
+        DebitTransaction other = from.createDebitTransaction(JOHN, to, 10);
+        assertThrows(
+            TransactionNotInFlightException.class,
+            () -> localLedgerService.completeTransaction(new CreditTransaction(
+                new LedgerEntry(UUID.randomUUID(), other.getId(), from.getId(), to.getId(), 10, LedgerEntry.Type.CREDIT, LedgerEntry.Subtype.RECEIVING, 0, JOHN)
+            ), LedgerService.UNFENCED)
+        );
+        from.cancelTransaction(other);
+
+        assertEquals(1000, localLedgerService.getByAccountId(JOHN).getActualBalance());
+        assertEquals(500, localLedgerService.getByAccountId(SMITH).getActualBalance());
+        assertTrue(localLedgerService.verifyBalance(JOHN));
+        assertTrue(localLedgerService.verifyBalance(SMITH));
+    }
+}
@@ -0,0 +1,463 @@
+package com.revolut.transfer;
+
+import com.revolut.lock.Exception.AlreadyUnlockedException;
+import com.revolut.lock.Exception.ExpiredLockException;
+import com.revolut.lock.Exception.LostLockException;
+import com.revolut.lock.Lock;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LocalLockServiceTest {
+    /**
+     * A waiter gets the lock as soon as it is released
+     */
+    @Test
+    public void testHandoff() throws Exception {
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        UUID id = UUID.randomUUID();
+
+        Lock holder = localLockService.create(id);
+        assertTrue(holder.tryLock(0, 10000));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<Long> waited = executorService.submit(() -> {
+            Lock waiter = localLockService.create(id);
+            assertTrue(waiter.tryLock(5000, 10000));
+            long acquiredAt = System.nanoTime();
+            waiter.tryUnlock(false);
+            return acquiredAt;
+        });
+
+        Thread.sleep(50);
+        long releasedAt = System.nanoTime();
+        holder.tryUnlock(false);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(waited.get() - releasedAt) < 5);
+        executorService.shutdown();
+    }
+
+    /**
+     * waitingTime is respected, an expired lease is taken over by the waiter
+     */
+    @Test
+    public void testTimeoutAndExpiration() throws Exception {
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        UUID id = UUID.randomUUID();
+
+        Lock holder = localLockService.create(id);
+        long started = System.currentTimeMillis();
+        assertTrue(holder.tryLock(0, 300));
+
+        Lock waiter = localLockService.create(id);
+        assertFalse(waiter.tryLock(100, 1000));
+        assertTrue(System.currentTimeMillis() - started >= 100);
+
+        assertTrue(waiter.tryLock(1000, 1000));
+        assertTrue(System.currentTimeMillis() - started >= 300);
+        assertFalse(localLockService.create(id).tryLock(0, 1000));
+
+        waiter.tryUnlock(false);
+        holder.tryUnlock(true);
+    }
+
+    /**
+     * Many threads on the same lock: mutual exclusion, everybody gets it in time
+     */
+    @Test
+    public void testContention() throws Exception {
+        int threads = 16;
+        int rounds = 200;
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        UUID id = UUID.randomUUID();
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                start.await();
+                for (int i = 0; i < rounds; i++) {
+                    Lock lock = localLockService.create(id);
+                    assertTrue(lock.tryLock(10000, 10000));
+                    assertEquals(1, inside.incrementAndGet());
+                    acquired.incrementAndGet();
+                    inside.decrementAndGet();
+                    lock.tryUnlock(false);
+                }
+                return null;
+            });
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> task : tasks) futures.add(executorService.submit(task));
+        start.countDown();
+        for (Future<Void> future : futures) future.get();
+        executorService.shutdown();
+
+        assertEquals(threads * rounds, acquired.get());
+    }
+
+    /**
+     * Released and expired locks are evicted, held ones are kept
+     */
+    @Test
+    public void testEviction() throws Exception {
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        localLockService.evict();
+        int live = localLockService.getLiveLocks();
+
+        Lock released = localLockService.create(UUID.randomUUID());
+        Lock expired = localLockService.create(UUID.randomUUID());
+        Lock held = localLockService.create(UUID.randomUUID());
+
+        assertTrue(released.tryLock(0, 10000));
+        assertTrue(expired.tryLock(0, 50));
+        assertTrue(held.tryLock(0, 10000));
+        assertEquals(live + 3, localLockService.getLiveLocks());
+
+        released.tryUnlock(false);
+        assertEquals(live + 2, localLockService.getLiveLocks());
+
+        Thread.sleep(100);
+        localLockService.evict();
+        assertFalse(localLockService.contains(released.getId()));
+        assertFalse(localLockService.contains(expired.getId()));
+        assertTrue(localLockService.contains(held.getId()));
+
+        // the expired owner finds out, the lock can be taken again
+        assertThrows(ExpiredLockException.class, () -> expired.tryUnlock(false));
+        assertTrue(localLockService.create(expired.getId()).tryLock(0, 10000));
+        held.tryUnlock(false);
+    }
+
+    /**
+     * Eviction runs on the clock of the service, not on the system one
+     */
+    @Test
+    public void testEvictionOnServiceClock() throws Exception {
+        AtomicLong millis = new AtomicLong(1000);
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(millis.get());
+            }
+        };
+
+        LocalLockService localLockService = new LocalLockService(clock);
+        Lock released = localLockService.create(UUID.randomUUID());
+        Lock expired = localLockService.create(UUID.randomUUID());
+
+        assertTrue(released.tryLock(0, 10000));
+        released.tryUnlock(false);
+        assertTrue(expired.tryLock(0, 50));
+
+        // nothing is due yet
+        assertEquals(0, localLockService.evict());
+        assertTrue(localLockService.contains(expired.getId()));
+
+        millis.addAndGet(100);
+        assertEquals(2, localLockService.evict());
+        assertFalse(localLockService.contains(released.getId()));
+        assertFalse(localLockService.contains(expired.getId()));
+    }
+
+    /**
+     * All or nothing, overlapping sets in different orders do not deadlock
+     */
+    @Test
+    public void testTryLockAll() throws Exception {
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        Lock holder = localLockService.create(second);
+        assertTrue(holder.tryLock(0, 10000));
+
+        Lock firstLock = localLockService.create(first);
+        Lock secondLock = localLockService.create(second);
+        assertFalse(localLockService.tryLockAll(Arrays.asList(firstLock, secondLock), 50, 1000));
+        assertFalse(firstLock.getIsLocked());
+        assertTrue(localLockService.create(first).tryLock(0, 1));
+        holder.tryUnlock(false);
+
+        int threads = 8;
+        AtomicInteger acquired = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            boolean reversed = (t % 2) == 0;
+            tasks.add(() -> {
+                for (int i = 0; i < 200; i++) {
+                    Lock a = localLockService.create(reversed ? second : first);
+                    Lock b = localLockService.create(reversed ? first : second);
+                    assertTrue(localLockService.tryLockAll(Arrays.asList(a, b), 10000, 10000));
+                    acquired.incrementAndGet();
+                    a.tryUnlock(false);
+                    b.tryUnlock(false);
+                }
+                return null;
+            });
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        for (Future<Void> future : executorService.invokeAll(tasks)) future.get();
+        executorService.shutdown();
+
+        assertEquals(threads * 200, acquired.get());
+    }
+
+    /**
+     * Waiting for a later lock does not eat the leases of the earlier ones: they are renewed once all are taken, or the
+     * whole call fails if one has expired meanwhile
+     */
+    @Test
+    public void testTryLockAllRenewsLeases() throws Exception {
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        if (first.compareTo(second) > 0) {
+            UUID swap = first;
+            first = second;
+            second = swap;
+        }
+
+        Lock holder = localLockService.create(second);
+        assertTrue(holder.tryLock(0, 10000));
+        CompletableFuture.runAsync(() -> {
+            try {
+                Thread.sleep(150);
+                holder.tryUnlock(false);
+            } catch (Exception exception) {
+                throw new RuntimeException(exception);
+            }
+        });
+
+        Lock firstLock = localLockService.create(first);
+        Lock secondLock = localLockService.create(second);
+        assertFalse(localLockService.tryLockAll(Arrays.asList(firstLock, secondLock), 1000, 50));
+        assertFalse(secondLock.getIsLocked());
+        assertTrue(localLockService.create(first).tryLock(0, 1));
+
+        assertTrue(holder.tryLock(0, 10000));
+        CompletableFuture.runAsync(() -> {
+            try {
+                Thread.sleep(100);
+                holder.tryUnlock(false);
+            } catch (Exception exception) {
+                throw new RuntimeException(exception);
+            }
+        });
+
+        firstLock = localLockService.create(first);
+        secondLock = localLockService.create(second);
+        assertTrue(localLockService.tryLockAll(Arrays.asList(firstLock, secondLock), 1000, 200));
+
+        // past the lease the first lock would have had without the renewal
+        Thread.sleep(150);
+        firstLock.renew(200);
+        secondLock.renew(200);
+    }
+
+    /**
+     * Fencing tokens keep growing across services, like across restarts of a lock server
+     */
+    @Test
+    public void testFencingTokensSurviveRestart() throws Exception {
+        Lock before = new LocalLockService(Clock.systemUTC()).create(UUID.randomUUID());
+        assertTrue(before.tryLock(0, 10000));
+
+        Thread.sleep(5);
+        Lock after = new LocalLockService(Clock.systemUTC()).create(before.getId());
+        assertTrue(after.tryLock(0, 10000));
+        assertTrue(after.getFencingToken() > before.getFencingToken());
+    }
+
+    /**
+     * A renewed lease outlives its acquiring time, a taken over lock gets a greater fencing token
+     */
+    @Test
+    public void testRenewAndFencingToken() throws Exception {
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        UUID id = UUID.randomUUID();
+
+        Lock holder = localLockService.create(id);
+        assertTrue(holder.tryLock(0, 100));
+        long token = holder.getFencingToken();
+        assertTrue(token > 0);
+
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(50);
+            holder.renew(100);
+            assertFalse(localLockService.create(id).tryLock(0, 100));
+        }
+        assertEquals(token, holder.getFencingToken());
+
+        Thread.sleep(150);
+        Lock successor = localLockService.create(id);
+        assertTrue(successor.tryLock(0, 1000));
+        assertTrue(successor.getFencingToken() > token);
+
+        assertThrows(LostLockException.class, () -> holder.renew(100));
+
+        successor.tryUnlock(false);
+        assertEquals(0, successor.getFencingToken());
+    }
+
+    /**
+     * Asynchronous waiters are queued without threads: FIFO handoff, expiration take over and timeout
+     */
+    @Test
+    public void testLockAsync() throws Exception {
+        int waiters = 100;
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        UUID id = UUID.randomUUID();
+
+        Lock holder = localLockService.create(id);
+        assertTrue(holder.tryLock(0, 10000));
+
+        List<Integer> order = new ArrayList<>();
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < waiters; i++) {
+            int number = i;
+            Lock lock = localLockService.create(id);
+            futures.add(lock.lockAsync(10000, 10000).thenApply(acquired -> {
+                synchronized (order) {
+                    order.add(number);
+                }
+                try {
+                    lock.tryUnlock(false);
+                } catch (Exception exception) {
+                    throw new RuntimeException(exception);
+                }
+                return acquired;
+            }));
+        }
+
+        assertFalse(futures.get(0).isDone());
+        holder.tryUnlock(false);
+
+        for (CompletableFuture<Boolean> future : futures) assertTrue(future.get(5, TimeUnit.SECONDS));
+        for (int i = 0; i < waiters; i++) assertEquals(i, (int) order.get(i));
+
+        // taken over on expiration, timed out behind it
+        Lock expiring = localLockService.create(id);
+        assertTrue(expiring.tryLock(0, 100));
+        Lock successor = localLockService.create(id);
+        CompletableFuture<Boolean> takenOver = successor.lockAsync(1000, 1000);
+        CompletableFuture<Boolean> timedOut = localLockService.create(id).lockAsync(50, 1000);
+
+        assertFalse(timedOut.get(1, TimeUnit.SECONDS));
+        assertTrue(takenOver.get(1, TimeUnit.SECONDS));
+        assertTrue(successor.getIsLocked());
+        assertTrue(successor.getFencingToken() > 0);
+        successor.tryUnlock(false);
+    }
+
+    /**
+     * Shared locks are held together, a waiting exclusive one is not overtaken by new shared ones
+     */
+    @Test
+    public void testSharedLocks() throws Exception {
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        UUID id = UUID.randomUUID();
+
+        Lock first = localLockService.create(id, Lock.Mode.SHARED);
+        Lock second = localLockService.create(id, Lock.Mode.SHARED);
+        assertTrue(first.tryLock(0, 10000));
+        assertTrue(second.tryLock(0, 10000));
+        assertFalse(localLockService.create(id).tryLock(0, 10000));
+
+        Lock writer = localLockService.create(id);
+        CompletableFuture<Boolean> written = writer.lockAsync(5000, 10000);
+        assertFalse(localLockService.create(id, Lock.Mode.SHARED).tryLock(0, 10000));
+
+        Lock late = localLockService.create(id, Lock.Mode.SHARED);
+        Lock later = localLockService.create(id, Lock.Mode.SHARED);
+        CompletableFuture<Boolean> read = late.lockAsync(5000, 10000);
+        CompletableFuture<Boolean> readLater = later.lockAsync(5000, 10000);
+
+        first.renew(10000);
+        first.tryUnlock(false);
+        assertFalse(written.isDone());
+        second.tryUnlock(false);
+        assertTrue(written.get(1, TimeUnit.SECONDS));
+        assertFalse(read.isDone());
+
+        writer.tryUnlock(false);
+        assertTrue(read.get(1, TimeUnit.SECONDS));
+        assertTrue(readLater.get(1, TimeUnit.SECONDS));
+
+        late.tryUnlock(false);
+        later.tryUnlock(false);
+        assertThrows(AlreadyUnlockedException.class, () -> later.tryUnlock(false));
+    }
+
+    /**
+     * Waits, hold times, timeouts and the hot lock are counted
+     */
+    @Test
+    public void testContentionStats() throws Exception {
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        UUID hot = UUID.randomUUID();
+
+        long waits = localLockService.getWaitTimes().getCount();
+        long holds = localLockService.getHoldTimes().getCount();
+        long timeouts = localLockService.getTimeouts();
+        long contended = localLockService.getContended();
+
+        Lock holder = localLockService.create(hot);
+        assertTrue(holder.tryLock(0, 10000));
+
+        for (int i = 0; i < 3; i++) assertFalse(localLockService.create(hot).tryLock(20, 10000));
+
+        Lock waiter = localLockService.create(hot);
+        CompletableFuture<Boolean> acquired = waiter.lockAsync(5000, 10000);
+        Thread.sleep(50);
+        holder.tryUnlock(false);
+        assertTrue(acquired.get(1, TimeUnit.SECONDS));
+        waiter.tryUnlock(false);
+
+        assertTrue(localLockService.getTimeouts() - timeouts >= 3);
+        assertTrue(localLockService.getContended() - contended >= 4);
+        assertTrue(localLockService.getWaitTimes().getCount() - waits >= 4);
+        assertTrue(localLockService.getWaitTimes().getMax() >= 40);
+        assertTrue(localLockService.getHoldTimes().getCount() - holds >= 2);
+        assertTrue(localLockService.getHoldTimes().getMax() >= 100);
+
+        // other tests contend too
+        assertTrue(localLockService.getHotLocks(LocalLockService.HOT_LOCKS).stream().anyMatch(entry -> entry.getItem().equals(hot)));
+    }
+}
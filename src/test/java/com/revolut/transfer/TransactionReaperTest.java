@@ -0,0 +1,171 @@
+package com.revolut.transfer;
+
+import com.revolut.ledger.Exception.LedgerException;
+import com.revolut.ledger.Exception.TransactionNotInFlightException;
+import com.revolut.ledger.Ledger;
+import com.revolut.ledger.LedgerEntry;
+import com.revolut.ledger.LedgerService;
+import com.revolut.ledger.Transaction.CreditTransaction;
+import com.revolut.ledger.Transaction.DebitTransaction;
+import com.revolut.ledger.Transaction.Transaction;
+import com.revolut.ledger.Transaction.TransactionState;
+import com.revolut.lock.Lock;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TransactionReaperTest {
+    private static final UUID JOHN = UUID.fromString("326608e5-5fbf-4505-871d-d0ec830e1994");
+    private static final UUID SMITH = UUID.fromString("5ab59fdf-997f-4a20-ab33-67272b840a19");
+
+    /**
+     * Expired transactions are cancelled as a whole, busy senders are skipped, completed transactions are left alone
+     */
+    @Test
+    public void testReap() throws Exception {
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC());
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        TransactionReaper transactionReaper = new TransactionReaper(
+            localLedgerService, localLockService, Clock.systemUTC(), LoggerFactory.getLogger("test"), 0, 2
+        );
+
+        Ledger from = localLedgerService.getByAccountId(JOHN);
+        Ledger to = localLedgerService.getByAccountId(SMITH);
+
+        DebitTransaction completed = from.createDebitTransaction(JOHN, to, 10);
+        CreditTransaction completedCredit = to.createCreditTransaction(JOHN, from, 10, completed.getId());
+        to.completeTransaction(completedCredit);
+        from.completeTransaction(completed);
+
+        DebitTransaction broken = from.createDebitTransaction(JOHN, to, 100);
+        to.createCreditTransaction(JOHN, from, 100, broken.getId());
+        assertEquals(2, transactionReaper.getOpen());
+
+        // sender is busy
+        Lock lock = localLockService.create(JOHN);
+        assertTrue(lock.tryLock(0, 10000));
+        assertEquals(0, transactionReaper.reap());
+        assertEquals(2, transactionReaper.getSkipped());
+        lock.tryUnlock(false);
+
+        // both sides are cancelled at once
+        assertEquals(1, transactionReaper.reap());
+        assertEquals(0, transactionReaper.getOpen());
+        assertEquals(1, transactionReaper.getReaped());
+        assertEquals(0, transactionReaper.getCompleted());
+        assertEquals(TransactionState.CANCELLED, localLedgerService.getTransactionState(broken.getId()));
+        assertEquals(TransactionState.COMPLETED, localLedgerService.getTransactionState(completed.getId()));
+
+        assertEquals(990, localLedgerService.getByAccountId(JOHN).getActualBalance());
+        assertEquals(510, localLedgerService.getByAccountId(SMITH).getActualBalance());
+        assertTrue(localLedgerService.verifyBalance(JOHN));
+        assertTrue(localLedgerService.verifyBalance(SMITH));
+    }
+
+    /**
+     * The holder has died after crediting the receiver but before completing the debit: the transfer has happened, so
+     * the debit is completed, not cancelled, no matter which side expires first
+     */
+    @Test
+    public void testCreditedTransferIsCompleted() throws Exception {
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC());
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        TransactionReaper transactionReaper = new TransactionReaper(
+            localLedgerService, localLockService, Clock.systemUTC(), LoggerFactory.getLogger("test"), 0, 10
+        );
+
+        Ledger from = localLedgerService.getByAccountId(JOHN);
+        Ledger to = localLedgerService.getByAccountId(SMITH);
+
+        DebitTransaction debit = from.createDebitTransaction(JOHN, to, 100);
+        CreditTransaction credit = to.createCreditTransaction(JOHN, from, 100, debit.getId());
+        to.completeTransaction(credit);
+        assertEquals(1, transactionReaper.getOpen());
+
+        assertEquals(1, transactionReaper.reap());
+        assertEquals(0, transactionReaper.getOpen());
+        assertEquals(1, transactionReaper.getCompleted());
+        assertEquals(TransactionState.COMPLETED, localLedgerService.getTransactionState(debit.getId()));
+
+        // money has moved exactly once
+        assertEquals(900, localLedgerService.getByAccountId(JOHN).getActualBalance());
+        assertEquals(600, localLedgerService.getByAccountId(SMITH).getActualBalance());
+        assertTrue(localLedgerService.verifyBalance(JOHN));
+        assertTrue(localLedgerService.verifyBalance(SMITH));
+    }
+
+    /**
+     * The previous holder completes the credit while the reaper is about to cancel the transaction: the cancellation is
+     * rejected, the transaction is read again and completed, so money moves exactly once
+     */
+    @Test
+    public void testCreditCompletedDuringReap() throws Exception {
+        AtomicBoolean isRaced = new AtomicBoolean();
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC()) {
+            @Override
+            public LedgerEntry cancelTransaction(Transaction transaction, long fencingToken) throws LedgerException {
+                // the stalled transfer wakes up right before the cancellation of the credit
+                if ((transaction.getType() == LedgerEntry.Type.CREDIT) && isRaced.compareAndSet(false, true)) {
+                    completeTransaction(transaction, LedgerService.UNFENCED);
+                }
+
+                return super.cancelTransaction(transaction, fencingToken);
+            }
+        };
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        TransactionReaper transactionReaper = new TransactionReaper(
+            localLedgerService, localLockService, Clock.systemUTC(), LoggerFactory.getLogger("test"), 0, 10
+        );
+
+        Ledger from = localLedgerService.getByAccountId(JOHN);
+        Ledger to = localLedgerService.getByAccountId(SMITH);
+
+        DebitTransaction debit = from.createDebitTransaction(JOHN, to, 100);
+        CreditTransaction credit = to.createCreditTransaction(JOHN, from, 100, debit.getId());
+
+        assertEquals(1, transactionReaper.reap());
+        assertTrue(isRaced.get());
+        assertEquals(1, transactionReaper.getCompleted());
+        assertEquals(TransactionState.COMPLETED, localLedgerService.getTransactionState(debit.getId()));
+
+        // the stalled transfer can not resolve it another way anymore
+        assertThrows(TransactionNotInFlightException.class, () -> to.cancelTransaction(credit));
+
+        assertEquals(900, localLedgerService.getByAccountId(JOHN).getActualBalance());
+        assertEquals(600, localLedgerService.getByAccountId(SMITH).getActualBalance());
+        assertTrue(localLedgerService.verifyBalance(JOHN));
+        assertTrue(localLedgerService.verifyBalance(SMITH));
+    }
+
+    /**
+     * The reaper has cancelled a stalled transfer: its late credit is rejected, so money is not created
+     */
+    @Test
+    public void testLateCreditIsRejected() throws Exception {
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC());
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        TransactionReaper transactionReaper = new TransactionReaper(
+            localLedgerService, localLockService, Clock.systemUTC(), LoggerFactory.getLogger("test"), 0, 10
+        );
+
+        Ledger from = localLedgerService.getByAccountId(JOHN);
+        Ledger to = localLedgerService.getByAccountId(SMITH);
+
+        DebitTransaction debit = from.createDebitTransaction(JOHN, to, 100);
+        CreditTransaction credit = to.createCreditTransaction(JOHN, from, 100, debit.getId());
+        assertEquals(1, transactionReaper.reap());
+
+        assertThrows(TransactionNotInFlightException.class, () -> to.completeTransaction(credit));
+        assertThrows(TransactionNotInFlightException.class, () -> to.createCreditTransaction(JOHN, from, 100, debit.getId()));
+
+        assertEquals(1000, localLedgerService.getByAccountId(JOHN).getActualBalance());
+        assertEquals(500, localLedgerService.getByAccountId(SMITH).getActualBalance());
+    }
+}
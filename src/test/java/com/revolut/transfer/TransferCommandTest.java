@@ -1,11 +1,24 @@
 package com.revolut.transfer;
 
 import com.revolut.command.executor.CommandExecutor;
+import com.revolut.ledger.Exception.LedgerException;
+import com.revolut.ledger.Exception.StaleFencingTokenException;
+import com.revolut.ledger.Journal.DurabilityMode;
+import com.revolut.ledger.Journal.Journal;
+import com.revolut.ledger.Journal.JournalCommitter;
+import com.revolut.ledger.LedgerEntry;
+import com.revolut.ledger.LedgerService;
+import com.revolut.ledger.Transaction.Transaction;
+import com.revolut.transfer.Exception.InsufficientFundsException;
 import org.junit.jupiter.api.Test;
 import org.slf4j.helpers.NOPLogger;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Callable;
@@ -15,6 +28,9 @@ import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TransferCommandTest {
     /**
@@ -78,4 +94,111 @@ public class TransferCommandTest {
         assertEquals(0, localLedgerService.getByAccountId(from).getActualBalance());
         assertEquals(currentBalance + threads, localLedgerService.getByAccountId(to).getActualBalance());
     }
+
+    /**
+     * A batch takes the lock of a shared account once, a command without funds fails alone
+     */
+    @Test
+    public void testExecuteAll() throws Exception {
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC());
+        CommandExecutor commandExecutor = new CommandExecutor(localLockService, localLedgerService);
+
+        // Account d2febbaf-0edb-4f19-824e-588b712c8c29 has 50 funds
+        UUID angelina = UUID.fromString("d2febbaf-0edb-4f19-824e-588b712c8c29");
+        UUID smith = UUID.fromString("5ab59fdf-997f-4a20-ab33-67272b840a19");
+        UUID john = UUID.fromString("326608e5-5fbf-4505-871d-d0ec830e1994");
+        long smithBalance = localLedgerService.getByAccountId(smith).getActualBalance();
+        long johnBalance = localLedgerService.getByAccountId(john).getActualBalance();
+
+        List<Exception> failures = commandExecutor.executeAll(Arrays.asList(
+            new TransferCommand(localLedgerService, angelina, smith, 20, NOPLogger.NOP_LOGGER, 500),
+            new TransferCommand(localLedgerService, angelina, john, 20, NOPLogger.NOP_LOGGER, 500),
+            new TransferCommand(localLedgerService, angelina, smith, 20, NOPLogger.NOP_LOGGER, 500),
+            new TransferCommand(localLedgerService, smith, john, 5, NOPLogger.NOP_LOGGER, 500)
+        ));
+
+        assertNull(failures.get(0));
+        assertNull(failures.get(1));
+        assertTrue(failures.get(2) instanceof InsufficientFundsException);
+        assertNull(failures.get(3));
+
+        assertEquals(10, localLedgerService.getByAccountId(angelina).getActualBalance());
+        assertEquals(smithBalance + 15, localLedgerService.getByAccountId(smith).getActualBalance());
+        assertEquals(johnBalance + 25, localLedgerService.getByAccountId(john).getActualBalance());
+
+        // the locks have been released
+        assertTrue(localLockService.create(angelina).tryLock(0, 100));
+        assertTrue(localLockService.create(smith).tryLock(0, 100));
+    }
+
+    /**
+     * The sender lock is lost after the receiver has been credited: the transfer is completed, not rolled back
+     */
+    @Test
+    public void testLostLockAfterCreditCompletes() throws Exception {
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC()) {
+            @Override
+            public LedgerEntry completeTransaction(Transaction transaction, long fencingToken) throws LedgerException {
+                // someone else has taken over the lock of the sender
+                if (fencingToken != LedgerService.UNFENCED) {
+                    throw new StaleFencingTokenException(transaction.getOwnerLedgerId(), fencingToken, fencingToken + 1);
+                }
+
+                return super.completeTransaction(transaction, fencingToken);
+            }
+        };
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        CommandExecutor commandExecutor = new CommandExecutor(localLockService);
+
+        UUID john = UUID.fromString("326608e5-5fbf-4505-871d-d0ec830e1994");
+        UUID smith = UUID.fromString("5ab59fdf-997f-4a20-ab33-67272b840a19");
+        long johnBalance = localLedgerService.getByAccountId(john).getActualBalance();
+        long smithBalance = localLedgerService.getByAccountId(smith).getActualBalance();
+
+        assertThrows(
+            StaleFencingTokenException.class,
+            () -> commandExecutor.execute(new TransferCommand(localLedgerService, john, smith, 10, NOPLogger.NOP_LOGGER, 500))
+        );
+
+        assertEquals(johnBalance - 10, localLedgerService.getByAccountId(john).getActualBalance());
+        assertEquals(smithBalance + 10, localLedgerService.getByAccountId(smith).getActualBalance());
+        assertTrue(localLedgerService.verifyBalance(john));
+        assertTrue(localLedgerService.verifyBalance(smith));
+        assertTrue(localLockService.create(john).tryLock(0, 100));
+    }
+
+    /**
+     * A batch which fails to be made durable fails all its commands, nothing is transferred
+     */
+    @Test
+    public void testFailedBatch() throws Exception {
+        JournalCommitter journalCommitter = new JournalCommitter(
+            new Journal(Files.createTempDirectory("journal"), 1024 * Journal.RECORD_SIZE), DurabilityMode.SYNC, 0, 1
+        ) {
+            @Override
+            public void commit(long fromSequence, long toSequence) {
+                // the predefined entries are committed one by one
+                if (fromSequence < toSequence) throw new UncheckedIOException(new IOException("Disk is gone"));
+                super.commit(fromSequence, toSequence);
+            }
+        };
+        LocalLockService localLockService = new LocalLockService(Clock.systemUTC());
+        LocalLedgerService localLedgerService = new LocalLedgerService(Clock.systemUTC(), journalCommitter);
+        CommandExecutor commandExecutor = new CommandExecutor(localLockService, localLedgerService);
+
+        UUID john = UUID.fromString("326608e5-5fbf-4505-871d-d0ec830e1994");
+        UUID smith = UUID.fromString("5ab59fdf-997f-4a20-ab33-67272b840a19");
+
+        List<Exception> failures = commandExecutor.executeAll(Arrays.asList(
+            new TransferCommand(localLedgerService, john, smith, 10, NOPLogger.NOP_LOGGER, 500),
+            new TransferCommand(localLedgerService, smith, john, 5, NOPLogger.NOP_LOGGER, 500)
+        ));
+
+        assertTrue(failures.get(0) instanceof UncheckedIOException);
+        assertTrue(failures.get(1) instanceof UncheckedIOException);
+        assertEquals(1000, localLedgerService.getByAccountId(john).getActualBalance());
+        assertEquals(500, localLedgerService.getByAccountId(smith).getActualBalance());
+        assertTrue(localLockService.create(john).tryLock(0, 100));
+    }
 }
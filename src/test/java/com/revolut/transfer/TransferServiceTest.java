@@ -101,6 +101,41 @@ public class TransferServiceTest {
             .body("msg", equalTo("Account 326608e5-5fbf-4505-871d-d0ec830e1994 does not have enough balance"));
     }
 
+    private static Stream<Arguments> createInputForTestLedgerEntriesResponseCode() {
+        return Stream.of(
+            Arguments.of("/ledgers/123/entries", WRONG_PARAMETER),
+            Arguments.of("/ledgers/00000000-0000-0000-0000-000000000001/entries", INVALID_VALUE),
+            Arguments.of("/ledgers/326608e5-5fbf-4505-871d-d0ec830e1994/entries?limit=abc", WRONG_PARAMETER),
+            Arguments.of("/ledgers/326608e5-5fbf-4505-871d-d0ec830e1994/entries?limit=0", INVALID_VALUE),
+            Arguments.of("/ledgers/326608e5-5fbf-4505-871d-d0ec830e1994/entries?limit=1001", INVALID_VALUE),
+            Arguments.of("/ledgers/326608e5-5fbf-4505-871d-d0ec830e1994/entries?cursor=abc", WRONG_PARAMETER),
+            Arguments.of("/ledgers/326608e5-5fbf-4505-871d-d0ec830e1994/entries?limit=1", NO_ERROR)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("createInputForTestLedgerEntriesResponseCode")
+    void testLedgerEntriesResponseCode(String URI, ResponseCode responseCode) {
+        given()
+            .get(URI)
+        .then()
+            .statusCode(200)
+            .contentType(ContentType.JSON)
+            .body("responseCode", equalTo(responseCode.toString()));
+    }
+
+    @Test
+    public void testLedgerEntriesPage() {
+        given()
+            .get("/ledgers/530d0897-36dd-4045-bc1c-89f9dc41c0f2/entries?limit=1")
+        .then()
+            .statusCode(200)
+            .contentType(ContentType.JSON)
+            .body("data.entries.size()", equalTo(1))
+            .body("data.entries[0].subtype", equalTo("RECEIVING"))
+            .body("data.entries[0].amount", equalTo(50));
+    }
+
     @Test
     public void testConcurrentRequests() throws InterruptedException {
         int threads = 100;
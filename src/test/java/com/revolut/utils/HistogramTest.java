@@ -0,0 +1,45 @@
+package com.revolut.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HistogramTest {
+    /**
+     * Percentiles are within the bucket precision, small values are exact
+     */
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+
+        for (long value = 1; value <= 1000; value++) histogram.record(value);
+        histogram.record(-5);
+
+        assertEquals(1001, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500500.0 / 1001, histogram.getMean(), 0.0001);
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(1000, histogram.getPercentile(100));
+
+        long p50 = histogram.getPercentile(50);
+        assertTrue((p50 >= 500) && (p50 <= 500 * 9 / 8), "p50 " + p50);
+
+        long p99 = histogram.getPercentile(99);
+        assertTrue((p99 >= 990) && (p99 <= 1000), "p99 " + p99);
+    }
+
+    /**
+     * Every value falls into a bucket which covers it, buckets follow each other
+     */
+    @Test
+    public void testBuckets() {
+        long[] values = {0, 7, 8, 15, 16, 17, 1000, 1L << 40, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = Histogram.bucket(value);
+            assertTrue(Histogram.highest(bucket) >= value, "value " + value);
+            assertTrue((bucket == 0) || (Histogram.highest(bucket - 1) < value), "value " + value);
+        }
+    }
+}
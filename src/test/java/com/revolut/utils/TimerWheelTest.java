@@ -0,0 +1,35 @@
+package com.revolut.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TimerWheelTest {
+    /**
+     * Items expire at their tick, including ones more than a wheel turn ahead and after a long pause
+     */
+    @Test
+    public void testAdvance() {
+        TimerWheel<Long> timerWheel = new TimerWheel<>(8, 10, 1000);
+        List<Long> expired = new ArrayList<>();
+
+        timerWheel.schedule(1005, 1005L);
+        timerWheel.schedule(1050, 1050L);
+        timerWheel.schedule(1200, 1200L);
+        timerWheel.schedule(500, 500L);
+        assertEquals(4, timerWheel.size());
+
+        assertEquals(2, timerWheel.advance(1010, expired::add));
+        assertEquals(0, timerWheel.advance(1040, expired::add));
+        assertEquals(1, timerWheel.advance(1100, expired::add));
+        assertEquals(1050L, (long) expired.get(2));
+
+        // more than a turn later
+        assertEquals(1, timerWheel.advance(5000, expired::add));
+        assertEquals(1200L, (long) expired.get(3));
+        assertEquals(0, timerWheel.size());
+    }
+}
@@ -0,0 +1,35 @@
+package com.revolut.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TopKTest {
+    /**
+     * Frequent items are found among many rare ones, counts are never underestimated
+     */
+    @Test
+    public void testHeavyHitters() {
+        TopK<Integer> topK = new TopK<>(8);
+
+        for (int i = 0; i < 1000; i++) {
+            topK.add(-1);
+            if (i % 2 == 0) topK.add(-2);
+            topK.add(i);
+        }
+
+        List<TopK.Entry<Integer>> top = topK.top(2);
+        assertEquals(2, top.size());
+        assertEquals(-1, (int) top.get(0).getItem());
+        assertEquals(-2, (int) top.get(1).getItem());
+
+        assertTrue(top.get(0).getCount() >= 1000);
+        assertTrue(top.get(0).getCount() - top.get(0).getError() <= 1000);
+        assertTrue(top.get(1).getCount() >= 500);
+
+        assertEquals(8, topK.top(100).size());
+    }
+}